@@ -20,20 +20,36 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import android.os.Debug;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.test.InstrumentationRegistry;
 import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.GridLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.view.ViewGroup;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.assertj.core.api.Java6Assertions.assertThat;
 import static org.assertj.core.api.Java6Assertions.fail;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.verifyZeroInteractions;
@@ -293,6 +309,92 @@ public class ArrayAdapterTest {
         verifyNoMoreInteractions(observer);
     }
 
+    @Test
+    public void appendStreamAddsChunks() throws Exception {
+        final List<String> rows = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            rows.add(String.valueOf(i));
+        }
+        final AtomicInteger inserts = new AtomicInteger();
+        mAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onItemRangeInserted(final int positionStart, final int itemCount) {
+                inserts.incrementAndGet();
+            }
+        });
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final StreamingAppend<String> stream = mAdapter.appendStream(rows.iterator(), executor);
+        awaitFinished(stream);
+        executor.shutdown();
+
+        assertThat(stream.getError()).isNull();
+        assertThat(stream.getAppendedCount()).isEqualTo(10000);
+        assertThat(mAdapter.getItems()).isEqualTo(rows);
+        // one notification per chunk instead of per item
+        assertThat(inserts.get()).isGreaterThan(1)
+                .isLessThanOrEqualTo(10000 / StreamingAppend.MIN_CHUNK_SIZE + 1);
+    }
+
+    @Test
+    public void appendStreamCancel() throws Exception {
+        final Iterator<String> endless = new Iterator<String>() {
+            private int mNext = 0;
+
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public String next() {
+                return String.valueOf(mNext++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final StreamingAppend<String> stream = mAdapter.appendStream(endless, executor);
+        while (stream.getAppendedCount() == 0) {
+            Thread.sleep(5);
+        }
+        stream.cancel();
+        awaitFinished(stream);
+        executor.shutdown();
+
+        assertThat(stream.isCancelled()).isTrue();
+        final int count = mAdapter.getItemCount();
+        assertThat(count).isEqualTo(stream.getAppendedCount());
+        Thread.sleep(50);
+        assertThat(mAdapter.getItemCount()).isEqualTo(count);
+    }
+
+    @Test
+    public void appendStreamMainThreadExecutor() throws Exception {
+        final List<String> rows = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            rows.add(String.valueOf(i));
+        }
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+        // reading on the main thread can't wait for the main thread to add the chunks
+        final StreamingAppend<String> stream = mAdapter.appendStream(rows.iterator(),
+                new Executor() {
+                    @Override
+                    public void execute(@NonNull final Runnable command) {
+                        mainHandler.post(command);
+                    }
+                });
+        awaitFinished(stream);
+
+        assertThat(stream.getError()).isNull();
+        assertThat(mAdapter.getItems()).isEqualTo(rows);
+    }
+
     @Test
     public void clear() throws Exception {
         mAdapter.add("A");
@@ -367,6 +469,241 @@ public class ArrayAdapterTest {
         assertThat(testAdapter.getItemCount()).isEqualTo(0);
     }
 
+    @Test
+    public void copyInto() throws Exception {
+        mAdapter.addAll("A", "B", "C", "D");
+        final String[] dest = new String[2];
+        mAdapter.copyInto(dest, 1, 3);
+        assertThat(dest).containsExactly("B", "C");
+    }
+
+    @Test
+    public void duplicateIdsReject() throws Exception {
+        mAdapter.setDuplicateIdPolicy(ArrayAdapter.DUPLICATE_IDS_REJECT);
+        mAdapter.addAll("A", "B");
+        try {
+            mAdapter.addAll(Arrays.asList("C", "A"));
+            fail("duplicate id not rejected");
+        } catch (IllegalArgumentException e) {
+            assertThat(e).hasMessageContaining("duplicate id");
+        }
+        assertThat(mAdapter.getItems()).containsExactly("A", "B");
+    }
+
+    @Test
+    public void duplicateIdsReplace() throws Exception {
+        final UserAdapter adapter = new UserAdapter();
+        adapter.setDuplicateIdPolicy(ArrayAdapter.DUPLICATE_IDS_REPLACE);
+        adapter.addAll(new User("A", "1"), new User("B", "2"));
+
+        final RecyclerView.AdapterDataObserver observer =
+                mock(RecyclerView.AdapterDataObserver.class);
+        adapter.registerAdapterDataObserver(observer);
+        final User replacement = new User("B'", "2");
+        adapter.addAll(Arrays.asList(replacement, new User("C", "3")));
+
+        assertThat(adapter.getItems()).containsExactly(
+                new User("A", "1"), new User("B'", "2"), new User("C", "3"));
+        assertThat(adapter.getDroppedDuplicateCount()).isEqualTo(1);
+        verify(observer).onItemRangeChanged(1, 1, replacement);
+        verify(observer).onItemRangeInserted(2, 1);
+        verifyNoMoreInteractions(observer);
+    }
+
+    @Test
+    public void duplicateIdsReplaceInvalidIndex() throws Exception {
+        final UserAdapter adapter = new UserAdapter();
+        adapter.setDuplicateIdPolicy(ArrayAdapter.DUPLICATE_IDS_REPLACE);
+        adapter.addAll(new User("A", "1"), new User("B", "2"));
+
+        final RecyclerView.AdapterDataObserver observer =
+                mock(RecyclerView.AdapterDataObserver.class);
+        adapter.registerAdapterDataObserver(observer);
+        try {
+            adapter.insertAll(5, Arrays.asList(new User("B'", "2"), new User("C", "3")));
+            fail("did not throw");
+        } catch (IndexOutOfBoundsException e) {
+            assertThat(e).hasMessageContaining("5");
+        }
+        try {
+            adapter.insert(new User("B'", "2"), -1);
+            fail("did not throw");
+        } catch (IndexOutOfBoundsException e) {
+            assertThat(e).hasMessageContaining("-1");
+        }
+
+        // the duplicate wasn't replaced before the index was rejected
+        assertThat(adapter.getItems()).containsExactly(new User("A", "1"), new User("B", "2"));
+        verifyZeroInteractions(observer);
+    }
+
+    @Test
+    public void duplicateIdsSkipAfterFailedSwap() throws Exception {
+        final TestAdapter adapter = new TestAdapter() {
+            @Override
+            public boolean isItemTheSame(@Nullable final String oldItem,
+                    @Nullable final String newItem) {
+                throw new IllegalStateException("diff failed");
+            }
+        };
+        adapter.setDuplicateIdPolicy(ArrayAdapter.DUPLICATE_IDS_SKIP);
+        adapter.addAll("A", "B");
+        try {
+            adapter.swap(Arrays.asList("C", "D"));
+            fail("did not throw");
+        } catch (IllegalStateException e) {
+            assertThat(e).hasMessage("diff failed");
+        }
+
+        // the ids of the failed swap don't hide the current items
+        adapter.addAll("B", "C");
+        assertThat(adapter.getItems()).containsExactly("A", "B", "C");
+    }
+
+    @Test
+    public void duplicateIdsSkip() throws Exception {
+        mAdapter.setDuplicateIdPolicy(ArrayAdapter.DUPLICATE_IDS_SKIP);
+        mAdapter.addAll("A", "B");
+
+        final RecyclerView.AdapterDataObserver observer =
+                mock(RecyclerView.AdapterDataObserver.class);
+        mAdapter.registerAdapterDataObserver(observer);
+        // overlapping page
+        mAdapter.addAll(Arrays.asList("B", "C", "C", "D"));
+        mAdapter.add("A");
+        mAdapter.insert("D", 0);
+        verify(observer).onItemRangeInserted(2, 2);
+        verifyNoMoreInteractions(observer);
+        assertThat(mAdapter.getItems()).containsExactly("A", "B", "C", "D");
+
+        mAdapter.remove("A");
+        mAdapter.add("A");
+        mAdapter.swap(Arrays.asList("D", "D", "E"));
+        assertThat(mAdapter.getItems()).containsExactly("D", "E");
+        assertThat(mAdapter.getDroppedDuplicateCount()).isEqualTo(5);
+    }
+
+    @Test
+    public void duplicateIdsSkipAfterRemovingDuplicate() throws Exception {
+        final UserAdapter adapter = new UserAdapter();
+        // added before the policy was set, both items have id 1
+        adapter.addAll(new User("A", "1"), new User("A'", "1"));
+        adapter.setDuplicateIdPolicy(ArrayAdapter.DUPLICATE_IDS_SKIP);
+        adapter.add(new User("B", "2"));
+
+        adapter.remove(new User("A", "1"));
+        // id 1 is still used by A'
+        adapter.add(new User("C", "1"));
+        assertThat(adapter.getItems()).containsExactly(new User("A'", "1"), new User("B", "2"));
+        assertThat(adapter.getDroppedDuplicateCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void ensureCapacityReservesIdIndex() throws Exception {
+        mAdapter.ensureCapacity(10000);
+        mAdapter.add("A");
+        assertThat(mAdapter.getPositionForItemId("A")).isEqualTo(0);
+
+        // the id index was sized for all reserved items, one 4 byte slot per item at least
+        assertThat(mAdapter.getMemoryStats().getIndexBytes()).isGreaterThanOrEqualTo(4 * 10000);
+
+        mAdapter.trimToSize();
+        assertThat(mAdapter.getMemoryStats().getIndexBytes()).isLessThan(4 * 10000);
+    }
+
+    @Test
+    public void ensureCapacityReservesDuplicateIds() throws Exception {
+        mAdapter.setDuplicateIdPolicy(ArrayAdapter.DUPLICATE_IDS_SKIP);
+        mAdapter.add("A");
+        mAdapter.ensureCapacity(10000);
+
+        // the id set was sized for all reserved items, one 4 byte slot per item at least
+        assertThat(mAdapter.getMemoryStats().getIndexBytes()).isGreaterThanOrEqualTo(4 * 10000);
+
+        mAdapter.trimToSize();
+        assertThat(mAdapter.getMemoryStats().getIndexBytes()).isLessThan(4 * 10000);
+    }
+
+    @Test
+    public void ensureCapacityReservesLookupStructures() throws Exception {
+        mAdapter.ensureCapacity(10000);
+        mAdapter.add("A");
+        mAdapter.setSelected(0, true);
+
+        final MemoryStats stats = mAdapter.getMemoryStats();
+        assertThat(stats.getReservedCapacity()).isEqualTo(10000);
+        // the selection was created with room for all reserved positions
+        assertThat(stats.getIndexBytes()).isGreaterThanOrEqualTo(10000 / 8);
+
+        mAdapter.trimToSize();
+        assertThat(mAdapter.getMemoryStats().getReservedCapacity()).isEqualTo(0);
+        assertThat(mAdapter.getMemoryStats().getIndexBytes()).isLessThan(10000 / 8);
+        assertThat(mAdapter.getSelectedItems()).containsExactly("A");
+    }
+
+    @Test
+    public void forEachIteratesSnapshot() throws Exception {
+        mAdapter.addAll("A", "B", "C");
+        final List<String> visited = new ArrayList<>();
+        mAdapter.forEach(new ItemConsumer<String>() {
+            @Override
+            public void accept(@NonNull final String item, final int position) {
+                visited.add(position + item);
+                // mutations don't affect the running iteration
+                mAdapter.add(item + item);
+            }
+        });
+        assertThat(visited).containsExactly("0A", "1B", "2C");
+        assertThat(mAdapter.getItemCount()).isEqualTo(6);
+    }
+
+    @Test
+    public void getCachedViewType() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final TestAdapter adapter = new TestAdapter() {
+            @Override
+            public int getViewType(@NonNull final String item) {
+                calls.incrementAndGet();
+                return item.length();
+            }
+        };
+        adapter.addAll("A", "BB", "CCC");
+        // the default view type doesn't create the cache
+        assertThat(adapter.getItemViewType(1)).isEqualTo(0);
+        assertThat(calls.get()).isEqualTo(0);
+
+        assertThat(adapter.getCachedViewType(1)).isEqualTo(2);
+        assertThat(adapter.getCachedViewType(1)).isEqualTo(2);
+        assertThat(calls.get()).isEqualTo(1);
+
+        // shifted with the items, only the inserted item is computed
+        adapter.insert("DDDD", 0);
+        assertThat(adapter.getCachedViewType(0)).isEqualTo(4);
+        assertThat(adapter.getCachedViewType(2)).isEqualTo(2);
+        assertThat(calls.get()).isEqualTo(2);
+
+        adapter.replaceItem("BB", "BBBBB");
+        assertThat(adapter.getCachedViewType(2)).isEqualTo(5);
+    }
+
+    @SuppressWarnings("deprecation")
+    @Test
+    public void getItemDoesNotAllocate() throws Exception {
+        final List<String> items = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            items.add(String.valueOf(i));
+        }
+        mAdapter.addAll(items);
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        for (int i = 0; i < 1000; i++) {
+            mAdapter.getItem(i);
+        }
+        Debug.stopAllocCounting();
+        assertThat(Debug.getThreadAllocCount()).isEqualTo(0);
+    }
+
     @Test
     public void getItemNotFoundReturnsNull() throws Exception {
         assertThat(mAdapter.getItem(0)).isNull();
@@ -393,6 +730,17 @@ public class ArrayAdapterTest {
         assertThat(adapter.getItems()).isEqualTo(Arrays.asList("A"));
     }
 
+    @Test
+    public void getItemsIsNotCopied() throws Exception {
+        mAdapter.addAll("A", "B");
+        final List<String> items = mAdapter.getItems();
+        assertThat(mAdapter.getItems()).isSameAs(items);
+
+        mAdapter.add("C");
+        assertThat(mAdapter.getItems()).isNotSameAs(items);
+        assertThat(items).isEqualTo(Arrays.asList("A", "B"));
+    }
+
     @Test
     public void getItemsReturnAnUnmodifiableList() throws Exception {
         final TestAdapter adapter = new TestAdapter();
@@ -404,6 +752,24 @@ public class ArrayAdapterTest {
         }
     }
 
+    @Test
+    public void getMemoryStats() throws Exception {
+        final List<String> items = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            items.add(String.valueOf(i));
+        }
+        mAdapter.setUndoHistorySize(5);
+        mAdapter.addAll(items);
+        mAdapter.setSelected(999, true);
+
+        final MemoryStats stats = mAdapter.getMemoryStats();
+        assertThat(stats.getItemCount()).isEqualTo(1000);
+        assertThat(stats.getStorageBytes()).isGreaterThan(1000 * 4);
+        assertThat(stats.getIndexBytes()).isGreaterThanOrEqualTo(1000 / 8);
+        assertThat(stats.getUndoHistorySize()).isEqualTo(1);
+        assertThat(stats.getCachedBindDataCount()).isEqualTo(0);
+    }
+
     @Test
     public void getPosition() throws Exception {
         assertThat(mAdapter.getPosition("X")).isEqualTo(-1);
@@ -416,6 +782,100 @@ public class ArrayAdapterTest {
 
     }
 
+    @Test
+    public void getPreparedBindData() throws Exception {
+        final AtomicInteger prepared = new AtomicInteger();
+        final UserAdapter adapter = new UserAdapter() {
+            @Override
+            protected Object prepareBindData(@NonNull final User item) {
+                prepared.incrementAndGet();
+                return item.name.toLowerCase();
+            }
+        };
+        adapter.setBindDataPrefetch(new Executor() {
+            @Override
+            public void execute(@NonNull final Runnable command) {
+                command.run();
+            }
+        }, 10, 100);
+        adapter.add(new User("A", "1"));
+        adapter.add(new User("B", "2"));
+
+        assertThat(adapter.getPreparedBindData(0)).isEqualTo("a");
+        assertThat(adapter.getPreparedBindData(0)).isEqualTo("a");
+        assertThat(prepared.get()).isEqualTo(1);
+        assertThat(adapter.getPreparedBindData(5)).isNull();
+
+        // content changed, cached data is dropped
+        adapter.replaceItem(new User("A", "1"), new User("C", "1"));
+        assertThat(adapter.getPreparedBindData(0)).isEqualTo("c");
+        assertThat(prepared.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void getPreparedBindDataEvictedByFinalPosition() throws Exception {
+        final UserAdapter adapter = new UserAdapter() {
+            @Override
+            protected Object prepareBindData(@NonNull final User item) {
+                return item.name.toLowerCase();
+            }
+        };
+        adapter.setBindDataPrefetch(new Executor() {
+            @Override
+            public void execute(@NonNull final Runnable command) {
+                command.run();
+            }
+        }, 10, 100);
+        final User b = new User("B", "2");
+        adapter.addAll(new User("A", "1"), b);
+        adapter.getPreparedBindData(0);
+        adapter.getPreparedBindData(1);
+        assertThat(adapter.getMemoryStats().getCachedBindDataCount()).isEqualTo(2);
+
+        // like a diff, the change of "1" is dispatched before the insert in front of it
+        final UpdateScript changes = new UpdateScript();
+        changes.onChanged(0, 1, null);
+        changes.onInserted(0, 1);
+        adapter.applyChanges(PersistentList.copyOf(
+                Arrays.asList(new User("X", "0"), new User("A'", "1"), b)), changes);
+
+        assertThat(adapter.getPreparedBindData(2)).isEqualTo("b");
+        // "1" was dropped, not the inserted "0"
+        assertThat(adapter.getMemoryStats().getCachedBindDataCount()).isEqualTo(1);
+        assertThat(adapter.getPreparedBindData(1)).isEqualTo("a'");
+    }
+
+    @Test
+    public void getPreparedBindDataPrefetched() throws Exception {
+        final AtomicInteger prepared = new AtomicInteger();
+        final UserAdapter adapter = new UserAdapter() {
+            @Override
+            protected Object prepareBindData(@NonNull final User item) {
+                prepared.incrementAndGet();
+                return item.name;
+            }
+        };
+        final List<Runnable> tasks = new ArrayList<>();
+        adapter.setBindDataPrefetch(new Executor() {
+            @Override
+            public void execute(@NonNull final Runnable command) {
+                tasks.add(command);
+            }
+        }, 10, 100);
+        for (int i = 0; i < 20; i++) {
+            adapter.add(new User("U" + i, String.valueOf(i)));
+        }
+
+        adapter.prefetchBindData(5, 9);
+        assertThat(tasks).hasSize(5);
+        for (final Runnable task : tasks) {
+            task.run();
+        }
+
+        assertThat(adapter.getPreparedBindData(7)).isEqualTo("U7");
+        assertThat(prepared.get()).isEqualTo(5);
+    }
+
     @Test
     public void insert() throws Exception {
         mAdapter.add("A");
@@ -433,6 +893,20 @@ public class ArrayAdapterTest {
         verifyNoMoreInteractions(observer);
     }
 
+    @Test
+    public void insertAll() throws Exception {
+        mAdapter.addAll("A", "D");
+
+        final RecyclerView.AdapterDataObserver observer =
+                mock(RecyclerView.AdapterDataObserver.class);
+        mAdapter.registerAdapterDataObserver(observer);
+        mAdapter.insertAll(1, Arrays.asList("B", "C"));
+
+        assertThat(mAdapter.getItems()).isEqualTo(Arrays.asList("A", "B", "C", "D"));
+        verify(observer).onItemRangeInserted(1, 2);
+        verifyNoMoreInteractions(observer);
+    }
+
     @Test
     public void insertEmpty() throws Exception {
         assertThat(mAdapter.getItemCount()).isEqualTo(0);
@@ -461,6 +935,59 @@ public class ArrayAdapterTest {
         }
     }
 
+    @Test
+    public void invalidateByIdCoalesced() throws Exception {
+        mAdapter.addAll("A", "B", "C", "D", "E");
+        final RecyclerView.AdapterDataObserver observer =
+                mock(RecyclerView.AdapterDataObserver.class);
+        mAdapter.registerAdapterDataObserver(observer);
+        final Object payload = new Object();
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mAdapter.invalidateById("B", payload);
+                mAdapter.invalidateAll(Arrays.asList("C", "E", "B", "X"), payload);
+                // dispatched once in a later main loop iteration
+                verifyZeroInteractions(observer);
+            }
+        });
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+
+        verify(observer).onItemRangeChanged(1, 2, payload);
+        verify(observer).onItemRangeChanged(4, 1, payload);
+        verifyNoMoreInteractions(observer);
+        assertThat(mAdapter.getItems()).containsExactly("A", "B", "C", "D", "E");
+    }
+
+    @Test
+    public void invalidateByIdCollectsPayloads() throws Exception {
+        mAdapter.addAll("A", "B", "C");
+        final RecyclerView.AdapterDataObserver observer =
+                mock(RecyclerView.AdapterDataObserver.class);
+        mAdapter.registerAdapterDataObserver(observer);
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mAdapter.invalidateById("A", "progress");
+                mAdapter.invalidateById("A", "title");
+                //noinspection RedundantStringConstructorCall equal but not the same payload
+                mAdapter.invalidateById("A", new String("progress"));
+                mAdapter.invalidateById("C", "progress");
+                mAdapter.invalidateById("C", null);
+                mAdapter.invalidateById("C", "title");
+            }
+        });
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+
+        // equal payloads once, a full rebind replaces the payloads
+        verify(observer).onItemRangeChanged(0, 1, "progress");
+        verify(observer).onItemRangeChanged(0, 1, "title");
+        verify(observer).onItemRangeChanged(2, 1, null);
+        verifyNoMoreInteractions(observer);
+    }
+
     @Test
     public void isContentTheSame() throws Exception {
         assertThat(mAdapter.isContentTheSame(null, null)).isTrue();
@@ -502,6 +1029,49 @@ public class ArrayAdapterTest {
         assertThat(mAdapter.isItemTheSame("B", "nullItemId")).isFalse();
     }
 
+    @Test
+    public void move() throws Exception {
+        mAdapter.addAll("A", "B", "C", "D");
+
+        final RecyclerView.AdapterDataObserver observer =
+                mock(RecyclerView.AdapterDataObserver.class);
+        mAdapter.registerAdapterDataObserver(observer);
+        mAdapter.move(0, 2);
+
+        assertThat(mAdapter.getItems()).isEqualTo(Arrays.asList("B", "C", "A", "D"));
+        verify(observer).onItemRangeMoved(0, 2, 1);
+        verifyNoMoreInteractions(observer);
+    }
+
+    @Test
+    public void moveAllBackward() throws Exception {
+        mAdapter.addAll("A", "B", "C", "D", "E");
+
+        final RecyclerView.AdapterDataObserver observer =
+                mock(RecyclerView.AdapterDataObserver.class);
+        mAdapter.registerAdapterDataObserver(observer);
+        mAdapter.moveAll(3, 2, 0);
+
+        assertThat(mAdapter.getItems()).isEqualTo(Arrays.asList("D", "E", "A", "B", "C"));
+        verify(observer).onItemRangeMoved(3, 0, 1);
+        verify(observer).onItemRangeMoved(4, 1, 1);
+        verifyNoMoreInteractions(observer);
+    }
+
+    @Test
+    public void moveAllForward() throws Exception {
+        mAdapter.addAll("A", "B", "C", "D", "E");
+
+        final RecyclerView.AdapterDataObserver observer =
+                mock(RecyclerView.AdapterDataObserver.class);
+        mAdapter.registerAdapterDataObserver(observer);
+        mAdapter.moveAll(0, 2, 3);
+
+        assertThat(mAdapter.getItems()).isEqualTo(Arrays.asList("C", "D", "E", "A", "B"));
+        verify(observer, times(2)).onItemRangeMoved(0, 4, 1);
+        verifyNoMoreInteractions(observer);
+    }
+
     @Test
     public void removeEmpty() throws Exception {
         assertThat(mAdapter.getItemCount()).isEqualTo(0);
@@ -570,6 +1140,31 @@ public class ArrayAdapterTest {
         verifyZeroInteractions(observer);
     }
 
+    @Test
+    public void removeRange() throws Exception {
+        mAdapter.addAll("A", "B", "C", "D");
+
+        final RecyclerView.AdapterDataObserver observer =
+                mock(RecyclerView.AdapterDataObserver.class);
+        mAdapter.registerAdapterDataObserver(observer);
+        mAdapter.removeRange(1, 3);
+
+        assertThat(mAdapter.getItems()).isEqualTo(Arrays.asList("A", "D"));
+        verify(observer).onItemRangeRemoved(1, 2);
+        verifyNoMoreInteractions(observer);
+    }
+
+    @Test
+    public void removeRangeOutOfBoundsThrows() throws Exception {
+        mAdapter.addAll("A", "B");
+        try {
+            mAdapter.removeRange(1, 3);
+            fail("did not throw");
+        } catch (IndexOutOfBoundsException e) {
+            assertThat(mAdapter.getItemCount()).isEqualTo(2);
+        }
+    }
+
     @Test
     public void removeSingle() throws Exception {
         mAdapter.add("A");
@@ -590,6 +1185,30 @@ public class ArrayAdapterTest {
         verifyNoMoreInteractions(observer);
     }
 
+    @SuppressWarnings("deprecation")
+    @Test
+    public void replaceItemAllocatesOnlyCopiedPath() throws Exception {
+        final List<String> items = new ArrayList<>();
+        final String[] replacements = new String[1000];
+        for (int i = 0; i < 1000; i++) {
+            items.add(String.valueOf(i));
+            //noinspection RedundantStringConstructorCall equal but not the same item
+            replacements[i] = new String(items.get(i));
+        }
+        mAdapter.addAll(items);
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        for (int i = 0; i < 1000; i++) {
+            mAdapter.replaceItem(items.get(i), replacements[i]);
+        }
+        Debug.stopAllocCounting();
+        // 1000 items are a root with 32 leaves. Every replace copies one leaf and the root with
+        // their arrays and creates the new list version, nothing else
+        assertThat(Debug.getThreadAllocCount()).isLessThanOrEqualTo(1000 * 6);
+        assertThat(mAdapter.getItem(999)).isSameAs(replacements[999]);
+    }
+
     @Test
     public void replaceItemByUpdatingIt() throws Exception {
         final UserAdapter adapter = new UserAdapter();
@@ -692,6 +1311,90 @@ public class ArrayAdapterTest {
         }
     }
 
+    @Test
+    public void replaceRange() throws Exception {
+        final UserAdapter adapter = new UserAdapter();
+        adapter.add(new User("A", "1"));
+        adapter.add(new User("B", "2"));
+        adapter.add(new User("C", "3"));
+        adapter.add(new User("D", "4"));
+
+        final RecyclerView.AdapterDataObserver observer =
+                mock(RecyclerView.AdapterDataObserver.class);
+        adapter.registerAdapterDataObserver(observer);
+        // same ids, changed content
+        adapter.replaceRange(1, 3, Arrays.asList(new User("B'", "2"), new User("C'", "3")));
+
+        assertThat(adapter.getItem(1)).isEqualTo(new User("B'", "2"));
+        assertThat(adapter.getItem(2)).isEqualTo(new User("C'", "3"));
+        assertThat(adapter.getItemCount()).isEqualTo(4);
+        verify(observer).onItemRangeChanged(1, 2, null);
+        verifyNoMoreInteractions(observer);
+    }
+
+    @Test
+    public void selectAllNotifiesOnce() throws Exception {
+        mAdapter.addAll("A", "B", "C", "D");
+        mAdapter.setSelected(1, true);
+
+        final RecyclerView.AdapterDataObserver observer =
+                mock(RecyclerView.AdapterDataObserver.class);
+        mAdapter.registerAdapterDataObserver(observer);
+        mAdapter.selectAll();
+        verify(observer).onItemRangeChanged(0, 4, ArrayAdapter.PAYLOAD_SELECTION);
+        assertThat(mAdapter.getSelectedCount()).isEqualTo(4);
+
+        mAdapter.setSelected(0, false);
+        verify(observer).onItemRangeChanged(0, 1, ArrayAdapter.PAYLOAD_SELECTION);
+        mAdapter.clearSelection();
+        verify(observer).onItemRangeChanged(1, 3, ArrayAdapter.PAYLOAD_SELECTION);
+        verifyNoMoreInteractions(observer);
+        assertThat(mAdapter.getSelectedCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void selectRange() throws Exception {
+        mAdapter.addAll("A", "B", "C", "D");
+
+        final RecyclerView.AdapterDataObserver observer =
+                mock(RecyclerView.AdapterDataObserver.class);
+        mAdapter.registerAdapterDataObserver(observer);
+        mAdapter.selectRange(1, 3);
+        verify(observer).onItemRangeChanged(1, 2, ArrayAdapter.PAYLOAD_SELECTION);
+        verifyNoMoreInteractions(observer);
+        assertThat(mAdapter.getSelectedItems()).containsExactly("B", "C");
+    }
+
+    @Test
+    public void selectionFollowsItems() throws Exception {
+        mAdapter.addAll("C", "A", "D", "B");
+        mAdapter.setSelected(0, true);
+        mAdapter.setSelected(3, true);
+        mAdapter.setUndoHistorySize(5);
+
+        mAdapter.insert("E", 0);
+        mAdapter.remove("A");
+        assertThat(mAdapter.getSelectedItems()).containsExactly("C", "B");
+        assertThat(mAdapter.getSelectedPositions()).containsExactly(1, 3);
+
+        mAdapter.sort(new Comparator<String>() {
+            @Override
+            public int compare(final String o1, final String o2) {
+                return o1.compareTo(o2);
+            }
+        });
+        assertThat(mAdapter.getItems()).containsExactly("B", "C", "D", "E");
+        assertThat(mAdapter.getSelectedPositions()).containsExactly(0, 1);
+
+        mAdapter.swap(Arrays.asList("D", "C", "F"));
+        assertThat(mAdapter.getSelectedItems()).containsExactly("C");
+        assertThat(mAdapter.isSelected(1)).isTrue();
+
+        // selection changes are not recorded as edits
+        assertThat(mAdapter.undo()).isTrue();
+        assertThat(mAdapter.getItems()).containsExactly("B", "C", "D", "E");
+    }
+
     @Before
     public void setUp() throws Exception {
         mAdapter = new TestAdapter();
@@ -720,6 +1423,66 @@ public class ArrayAdapterTest {
         verifyNoMoreInteractions(observer);
     }
 
+    @Test
+    public void sortParallel() throws Exception {
+        final Random random = new Random(42);
+        final List<String> items = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            items.add(String.valueOf(random.nextInt()));
+        }
+        mAdapter.addAll(items);
+        mAdapter.setSelected(0, true);
+        final String selected = mAdapter.getItem(0);
+        final Comparator<String> comparator = new Comparator<String>() {
+            @Override
+            public int compare(final String o1, final String o2) {
+                return o1.compareTo(o2);
+            }
+        };
+
+        final RecyclerView.AdapterDataObserver observer =
+                mock(RecyclerView.AdapterDataObserver.class);
+        mAdapter.registerAdapterDataObserver(observer);
+        final ExecutorService pool = Executors.newFixedThreadPool(4);
+        final ParallelSort<String> sort = mAdapter.sortParallel(comparator, pool);
+        awaitFinished(sort);
+        pool.shutdown();
+
+        Collections.sort(items, comparator);
+        assertThat(mAdapter.getItems()).isEqualTo(items);
+        assertThat(mAdapter.getSelectedItems()).containsExactly(selected);
+        verify(observer).onItemRangeChanged(0, 20000, null);
+        verifyNoMoreInteractions(observer);
+    }
+
+    @Test
+    public void sortParallelCancelledWhenMutated() throws Exception {
+        mAdapter.addAll("C", "A", "B");
+        final ExecutorService pool = Executors.newSingleThreadExecutor();
+        final CountDownLatch mutated = new CountDownLatch(1);
+        final ParallelSort<String> sort = mAdapter.sortParallel(new Comparator<String>() {
+            @Override
+            public int compare(final String o1, final String o2) {
+                try {
+                    mutated.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return o1.compareTo(o2);
+            }
+        }, pool);
+        mAdapter.add("D");
+        mutated.countDown();
+        pool.shutdown();
+        pool.awaitTermination(10, TimeUnit.SECONDS);
+        // applying is posted to the main thread
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+
+        assertThat(sort.isCancelled()).isTrue();
+        assertThat(sort.isFinished()).isFalse();
+        assertThat(mAdapter.getItems()).containsExactly("C", "A", "B", "D");
+    }
+
     @Test
     public void sortSortedList() throws Exception {
         mAdapter.add("A");
@@ -742,6 +1505,34 @@ public class ArrayAdapterTest {
         verifyZeroInteractions(observer);
     }
 
+    @Test
+    public void spanSizeLookup() throws Exception {
+        final TestAdapter adapter = new TestAdapter() {
+            @Override
+            public int getSpanSize(@NonNull final String item) {
+                return item.length();
+            }
+        };
+        adapter.addAll("A", "BB", "CC", "D", "EEE");
+        final GridLayoutManager.SpanSizeLookup lookup = adapter.getSpanSizeLookup();
+
+        // rows: [A, BB] [CC, D] [EEE]
+        assertThat(lookup.getSpanSize(1)).isEqualTo(2);
+        assertThat(lookup.getSpanIndex(1, 3)).isEqualTo(1);
+        assertThat(lookup.getSpanIndex(2, 3)).isEqualTo(0);
+        assertThat(lookup.getSpanGroupIndex(3, 3)).isEqualTo(1);
+        assertThat(lookup.getSpanGroupIndex(4, 3)).isEqualTo(2);
+
+        // rows: [A, BB] [FF] [CC, D] [EEE]
+        adapter.insert("FF", 2);
+        assertThat(lookup.getSpanIndex(3, 3)).isEqualTo(0);
+        assertThat(lookup.getSpanGroupIndex(4, 3)).isEqualTo(2);
+        assertThat(lookup.getSpanGroupIndex(5, 3)).isEqualTo(3);
+
+        // other span count
+        assertThat(lookup.getSpanIndex(3, 4)).isEqualTo(2);
+    }
+
     @Test
     public void swap() throws Exception {
         mAdapter.add("A");
@@ -772,6 +1563,82 @@ public class ArrayAdapterTest {
         verifyNoMoreInteractions(observer);
     }
 
+    @Test
+    public void swapDiffCacheFingerprints() throws Exception {
+        final AtomicInteger comparisons = new AtomicInteger();
+        final TestAdapter adapter = new TestAdapter() {
+            @Override
+            public boolean isItemTheSame(@Nullable final String oldItem,
+                    @Nullable final String newItem) {
+                comparisons.incrementAndGet();
+                return super.isItemTheSame(oldItem, newItem);
+            }
+        };
+        adapter.setDiffCacheSize(2);
+        adapter.swap(Arrays.asList("A", "B", "C"));
+        adapter.swap(Arrays.asList("C", "A"));
+        final int diffed = comparisons.get();
+
+        adapter.swap(Arrays.asList("A", "B", "C"));
+        adapter.swap(Arrays.asList("C", "A"));
+        assertThat(adapter.getItems()).containsExactly("C", "A");
+        assertThat(comparisons.get()).isEqualTo(diffed);
+
+        // new content, new fingerprint
+        adapter.swap(Arrays.asList("C", "D"));
+        assertThat(comparisons.get()).isGreaterThan(diffed);
+    }
+
+    @Test
+    public void swapDiffCacheVersions() throws Exception {
+        final AtomicInteger comparisons = new AtomicInteger();
+        final TestAdapter adapter = new TestAdapter() {
+            @Override
+            public boolean isItemTheSame(@Nullable final String oldItem,
+                    @Nullable final String newItem) {
+                comparisons.incrementAndGet();
+                return super.isItemTheSame(oldItem, newItem);
+            }
+        };
+        adapter.setDiffCacheSize(2);
+        final List<String> all = Arrays.asList("A", "B", "C", "D");
+        final List<String> filtered = Arrays.asList("B", "D");
+        adapter.swap(all, 1);
+        adapter.swap(filtered, 2);
+        final int diffed = comparisons.get();
+
+        final RecyclerView.AdapterDataObserver observer =
+                mock(RecyclerView.AdapterDataObserver.class);
+        adapter.registerAdapterDataObserver(observer);
+        // the opposite transition reuses the diff as well
+        adapter.swap(all, 1);
+        assertThat(adapter.getItems()).isEqualTo(all);
+        adapter.swap(filtered, 2);
+        assertThat(adapter.getItems()).isEqualTo(filtered);
+
+        assertThat(comparisons.get()).isEqualTo(diffed);
+        verify(observer).onItemRangeInserted(0, 1);
+        verify(observer).onItemRangeInserted(2, 1);
+        verify(observer).onItemRangeRemoved(2, 1);
+        verify(observer).onItemRangeRemoved(0, 1);
+        verifyNoMoreInteractions(observer);
+    }
+
+    @Test
+    public void swapDiffCacheVersionEqualToFingerprint() throws Exception {
+        final TestAdapter adapter = new TestAdapter();
+        adapter.setDiffCacheSize(2);
+        final RecyclerView.AdapterDataObserver observer =
+                mock(RecyclerView.AdapterDataObserver.class);
+        adapter.registerAdapterDataObserver(observer);
+
+        // the fingerprint of the empty list is 0 as well
+        adapter.swap(Arrays.asList("A", "B"), 0);
+        assertThat(adapter.getItems()).containsExactly("A", "B");
+        verify(observer).onItemRangeInserted(0, 2);
+        verifyNoMoreInteractions(observer);
+    }
+
     @Test
     public void swapListWithOneUnchanged() throws Exception {
         mAdapter.add("A");
@@ -819,6 +1686,106 @@ public class ArrayAdapterTest {
         verifyNoMoreInteractions(observer);
     }
 
+    @Test
+    public void swapParallelDiff() throws Exception {
+        final UserAdapter adapter = new UserAdapter();
+        final List<User> list = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            adapter.add(new User("A", String.valueOf(i)));
+            // change every second item
+            list.add(new User(i % 2 == 0 ? "A" : "B", String.valueOf(i)));
+        }
+
+        final AtomicInteger executions = new AtomicInteger();
+        final ExecutorService pool = Executors.newFixedThreadPool(2);
+        adapter.setParallelDiffExecutor(new Executor() {
+            @Override
+            public void execute(@NonNull final Runnable command) {
+                executions.incrementAndGet();
+                pool.execute(command);
+            }
+        }, 1000);
+
+        final RecyclerView.AdapterDataObserver observer =
+                mock(RecyclerView.AdapterDataObserver.class);
+        adapter.registerAdapterDataObserver(observer);
+        adapter.swap(list);
+        pool.shutdown();
+
+        assertThat(adapter.getItems()).isEqualTo(list);
+        if (Runtime.getRuntime().availableProcessors() > 1) {
+            assertThat(executions.get()).isGreaterThan(0);
+        }
+        for (int i = 1; i < 5000; i += 2) {
+            verify(observer).onItemRangeChanged(i, 1, null);
+        }
+        verifyNoMoreInteractions(observer);
+    }
+
+    @Test
+    public void swapParallelDiffWithStalledExecutor() throws Exception {
+        final UserAdapter adapter = new UserAdapter();
+        final List<User> list = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            adapter.add(new User("A", String.valueOf(i)));
+            list.add(new User(i % 2 == 0 ? "A" : "B", String.valueOf(i)));
+        }
+
+        // like posting to the busy thread calling swap, the commands run after the diff
+        final List<Runnable> pending = new ArrayList<>();
+        adapter.setParallelDiffExecutor(new Executor() {
+            @Override
+            public void execute(@NonNull final Runnable command) {
+                pending.add(command);
+            }
+        }, 1000);
+
+        adapter.swap(list);
+        for (final Runnable command : pending) {
+            command.run();
+        }
+
+        assertThat(adapter.getItems()).isEqualTo(list);
+    }
+
+    @Test
+    public void swapParallelDiffWithRejectingExecutor() throws Exception {
+        final UserAdapter adapter = new UserAdapter();
+        final List<User> list = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            adapter.add(new User("A", String.valueOf(i)));
+            list.add(new User(i % 2 == 0 ? "A" : "B", String.valueOf(i)));
+        }
+
+        // like a shut down pool, the calling thread compares all chunks
+        adapter.setParallelDiffExecutor(new Executor() {
+            @Override
+            public void execute(@NonNull final Runnable command) {
+                throw new RejectedExecutionException("shut down");
+            }
+        }, 1000);
+
+        adapter.swap(list);
+        assertThat(adapter.getItems()).isEqualTo(list);
+    }
+
+    @Test
+    public void swapReusesDiffCallback() throws Exception {
+        mAdapter.addAll("A", "B");
+        final ReusableDiffCallback<String> callback =
+                mAdapter.createDiffCallback(mAdapter.getItems(), Arrays.asList("B"));
+        callback.release();
+
+        mAdapter.swap(Arrays.asList("B", "C"));
+        mAdapter.replaceRange(0, 1, Arrays.asList("D"));
+        assertThat(mAdapter.getItems()).containsExactly("D", "C");
+        // the references to the lists are dropped after diffing
+        assertThat(callback.mOldItems).isNull();
+        assertThat(callback.mNewItems).isNull();
+        assertThat(mAdapter.createDiffCallback(mAdapter.getItems(), Arrays.asList("C")))
+                .isSameAs(callback);
+    }
+
     @Test
     public void swapSameList() throws Exception {
         mAdapter.add("A");
@@ -845,6 +1812,22 @@ public class ArrayAdapterTest {
         verifyZeroInteractions(observer);
     }
 
+    @Test
+    public void swapToSmallListTrimsSelection() throws Exception {
+        final List<String> items = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            items.add(String.valueOf(i));
+        }
+        mAdapter.addAll(items);
+        mAdapter.setSelected(999, true);
+        mAdapter.setSelected(1, true);
+        final long indexBytes = mAdapter.getMemoryStats().getIndexBytes();
+
+        mAdapter.swap(Arrays.asList("1", "2"));
+        assertThat(mAdapter.getSelectedItems()).containsExactly("1");
+        assertThat(mAdapter.getMemoryStats().getIndexBytes()).isLessThan(indexBytes);
+    }
+
     @Test
     public void swap_getItemIdNotStable() throws Exception {
         mAdapter = new TestAdapter() {
@@ -913,4 +1896,140 @@ public class ArrayAdapterTest {
         verify(observer).onItemRangeChanged(0, 3, null);
         verifyNoMoreInteractions(observer);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void undoDisabledByDefault() throws Exception {
+        mAdapter.add("A");
+        assertThat(mAdapter.canUndo()).isFalse();
+        assertThat(mAdapter.undo()).isFalse();
+        assertThat(mAdapter.getItems()).isEqualTo(Arrays.asList("A"));
+    }
+
+    @Test
+    public void undoHistoryIsBounded() throws Exception {
+        mAdapter.setUndoHistorySize(2);
+        mAdapter.add("A");
+        mAdapter.add("B");
+        mAdapter.add("C");
+
+        assertThat(mAdapter.undo()).isTrue();
+        assertThat(mAdapter.undo()).isTrue();
+        assertThat(mAdapter.undo()).isFalse();
+        assertThat(mAdapter.getItems()).isEqualTo(Arrays.asList("A"));
+    }
+
+    @Test
+    public void undoRedo() throws Exception {
+        mAdapter.setUndoHistorySize(10);
+        mAdapter.addAll("A", "B", "C");
+        mAdapter.remove("B");
+
+        final RecyclerView.AdapterDataObserver observer =
+                mock(RecyclerView.AdapterDataObserver.class);
+        mAdapter.registerAdapterDataObserver(observer);
+
+        assertThat(mAdapter.undo()).isTrue();
+        assertThat(mAdapter.getItems()).isEqualTo(Arrays.asList("A", "B", "C"));
+        verify(observer).onItemRangeInserted(1, 1);
+        verifyNoMoreInteractions(observer);
+
+        assertThat(mAdapter.canRedo()).isTrue();
+        assertThat(mAdapter.redo()).isTrue();
+        assertThat(mAdapter.getItems()).isEqualTo(Arrays.asList("A", "C"));
+        verify(observer).onItemRangeRemoved(1, 1);
+        verifyNoMoreInteractions(observer);
+    }
+
+    @Test
+    public void undoReplaceItem() throws Exception {
+        final UserAdapter adapter = new UserAdapter();
+        adapter.setUndoHistorySize(10);
+        adapter.add(new User("A", "1"));
+        adapter.replaceItem(new User("A", "1"), new User("A'", "1"));
+
+        final RecyclerView.AdapterDataObserver observer =
+                mock(RecyclerView.AdapterDataObserver.class);
+        adapter.registerAdapterDataObserver(observer);
+        assertThat(adapter.undo()).isTrue();
+
+        assertThat(adapter.getItem(0)).isEqualTo(new User("A", "1"));
+        verify(observer).onItemRangeChanged(0, 1, null);
+        verifyNoMoreInteractions(observer);
+    }
+
+    @Test
+    public void undoSort() throws Exception {
+        mAdapter.setUndoHistorySize(10);
+        mAdapter.addAll("C", "A", "B");
+        mAdapter.sort(new Comparator<String>() {
+            @Override
+            public int compare(final String o1, final String o2) {
+                return o1.compareTo(o2);
+            }
+        });
+        assertThat(mAdapter.getItems()).isEqualTo(Arrays.asList("A", "B", "C"));
+
+        assertThat(mAdapter.undo()).isTrue();
+        assertThat(mAdapter.getItems()).isEqualTo(Arrays.asList("C", "A", "B"));
+    }
+
+    @Test
+    public void undoSortParallelMovesSelection() throws Exception {
+        mAdapter.setUndoHistorySize(10);
+        mAdapter.addAll("C", "A", "B");
+        mAdapter.setSelected(0, true);
+        final ExecutorService pool = Executors.newFixedThreadPool(2);
+        final ParallelSort<String> sort = mAdapter.sortParallel(new Comparator<String>() {
+            @Override
+            public int compare(final String o1, final String o2) {
+                return o1.compareTo(o2);
+            }
+        }, pool);
+        awaitFinished(sort);
+        pool.shutdown();
+        assertThat(mAdapter.getItems()).isEqualTo(Arrays.asList("A", "B", "C"));
+        assertThat(mAdapter.getSelectedPositions()).containsExactly(2);
+
+        assertThat(mAdapter.undo()).isTrue();
+        assertThat(mAdapter.getItems()).isEqualTo(Arrays.asList("C", "A", "B"));
+        assertThat(mAdapter.getSelectedPositions()).containsExactly(0);
+
+        assertThat(mAdapter.redo()).isTrue();
+        assertThat(mAdapter.getItems()).isEqualTo(Arrays.asList("A", "B", "C"));
+        assertThat(mAdapter.getSelectedPositions()).containsExactly(2);
+    }
+
+    @Test
+    public void undoWhileNewMutationClearsRedo() throws Exception {
+        mAdapter.setUndoHistorySize(10);
+        mAdapter.add("A");
+        mAdapter.add("B");
+        mAdapter.undo();
+        mAdapter.add("C");
+
+        assertThat(mAdapter.canRedo()).isFalse();
+        assertThat(mAdapter.getItems()).isEqualTo(Arrays.asList("A", "C"));
+    }
+
+    private static void awaitFinished(@NonNull final ParallelSort<?> sort)
+            throws InterruptedException {
+        final long timeout = System.currentTimeMillis() + 10000;
+        while (!sort.isFinished()) {
+            if (sort.isCancelled() || System.currentTimeMillis() > timeout) {
+                fail("sort didn't finish");
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    private static void awaitFinished(@NonNull final StreamingAppend<?> stream)
+            throws InterruptedException {
+        final long timeout = System.currentTimeMillis() + 10000;
+        while (!stream.isFinished()) {
+            if (System.currentTimeMillis() > timeout) {
+                fail("stream didn't finish");
+            }
+            Thread.sleep(5);
+        }
+    }
+}
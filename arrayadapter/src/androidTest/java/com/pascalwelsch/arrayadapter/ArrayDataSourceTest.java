@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2017 Pascal Welsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pascalwelsch.arrayadapter;
+
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import android.support.annotation.NonNull;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.RecyclerView;
+import android.view.ViewGroup;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+@RunWith(AndroidJUnit4.class)
+public class ArrayDataSourceTest {
+
+    private static class TestAdapter extends ArrayAdapter<String, RecyclerView.ViewHolder> {
+
+        @Override
+        public Object getItemId(@NonNull final String item) {
+            return item;
+        }
+
+        @Override
+        public void onBindViewHolder(final RecyclerView.ViewHolder holder, final int position) {
+
+        }
+
+        @Override
+        public RecyclerView.ViewHolder onCreateViewHolder(final ViewGroup parent,
+                final int viewType) {
+            return null;
+        }
+    }
+
+    private static class TestDataSource extends ArrayDataSource<String> {
+
+        @Override
+        public Object getItemId(@NonNull final String item) {
+            return item;
+        }
+    }
+
+    private TestDataSource mDataSource;
+
+    @Test
+    public void attachReplacesAdapterItems() throws Exception {
+        mDataSource.addAll(Arrays.asList("A", "B"));
+        final TestAdapter adapter = new TestAdapter();
+        adapter.add("X");
+
+        final RecyclerView.AdapterDataObserver observer =
+                mock(RecyclerView.AdapterDataObserver.class);
+        adapter.registerAdapterDataObserver(observer);
+        mDataSource.attach(adapter);
+
+        assertThat(adapter.getItems()).isEqualTo(Arrays.asList("A", "B"));
+        verify(observer).onItemRangeRemoved(0, 1);
+        verify(observer).onItemRangeInserted(0, 2);
+        verifyNoMoreInteractions(observer);
+    }
+
+    @Test
+    public void detach() throws Exception {
+        final TestAdapter adapter = new TestAdapter();
+        mDataSource.attach(adapter);
+        mDataSource.add("A");
+        mDataSource.detach(adapter);
+        mDataSource.add("B");
+
+        assertThat(adapter.getItems()).isEqualTo(Arrays.asList("A"));
+        assertThat(mDataSource.getItems()).isEqualTo(Arrays.asList("A", "B"));
+    }
+
+    @Test
+    public void listenerReceivesChanges() throws Exception {
+        final UpdateScript[] received = new UpdateScript[1];
+        mDataSource.addListener(new ArrayDataSource.Listener<String>() {
+            @Override
+            public void onDataChanged(@NonNull final List<String> items,
+                    @NonNull final UpdateScript changes) {
+                received[0] = changes;
+            }
+        });
+        mDataSource.add("A");
+
+        assertThat(received[0]).isNotNull();
+        assertThat(received[0].size()).isEqualTo(1);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mDataSource = new TestDataSource();
+    }
+
+    @Test
+    public void swapDiffsOnceForAllAdapters() throws Exception {
+        final TestAdapter list = new TestAdapter();
+        final TestAdapter grid = new TestAdapter();
+        mDataSource.attach(list);
+        mDataSource.attach(grid);
+        mDataSource.addAll(Arrays.asList("A", "B", "C"));
+
+        final RecyclerView.AdapterDataObserver listObserver =
+                mock(RecyclerView.AdapterDataObserver.class);
+        list.registerAdapterDataObserver(listObserver);
+        final RecyclerView.AdapterDataObserver gridObserver =
+                mock(RecyclerView.AdapterDataObserver.class);
+        grid.registerAdapterDataObserver(gridObserver);
+
+        mDataSource.swap(Arrays.asList("A", "C"));
+
+        assertThat(list.getItems()).isEqualTo(Arrays.asList("A", "C"));
+        assertThat(grid.getItems()).isEqualTo(Arrays.asList("A", "C"));
+        verify(listObserver).onItemRangeRemoved(1, 1);
+        verifyNoMoreInteractions(listObserver);
+        verify(gridObserver).onItemRangeRemoved(1, 1);
+        verifyNoMoreInteractions(gridObserver);
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2017 Pascal Welsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pascalwelsch.arrayadapter;
+
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.RecyclerView;
+import android.view.ViewGroup;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+@RunWith(AndroidJUnit4.class)
+public class LongIdArrayAdapterTest {
+
+    private static class Row {
+
+        private final long id;
+
+        private final String name;
+
+        private Row(final long id, final String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        @SuppressWarnings("SimplifiableIfStatement")
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Row)) {
+                return false;
+            }
+            final Row row = (Row) o;
+            if (id != row.id) {
+                return false;
+            }
+            return name != null ? name.equals(row.name) : row.name == null;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = (int) (id ^ (id >>> 32));
+            result = 31 * result + (name != null ? name.hashCode() : 0);
+            return result;
+        }
+    }
+
+    private static class RowAdapter extends LongIdArrayAdapter<Row, RecyclerView.ViewHolder> {
+
+        int idCalls = 0;
+
+        @Override
+        public long getLongItemId(@NonNull final Row item) {
+            idCalls++;
+            return item.id;
+        }
+
+        @Override
+        public void onBindViewHolder(final RecyclerView.ViewHolder holder, final int position) {
+
+        }
+
+        @Override
+        public RecyclerView.ViewHolder onCreateViewHolder(final ViewGroup parent,
+                final int viewType) {
+            return null;
+        }
+    }
+
+    private RowAdapter mAdapter;
+
+    @Test
+    public void clearShrinksIdIndex() throws Exception {
+        final List<Row> rows = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            rows.add(new Row(i, "R" + i));
+        }
+        mAdapter.ensureCapacity(rows.size());
+        mAdapter.addAll(rows);
+        assertThat(mAdapter.getPositionForId(9999)).isEqualTo(9999);
+        final long indexBytes = mAdapter.getMemoryStats().getIndexBytes();
+        assertThat(indexBytes).isGreaterThan(10000 * 8);
+
+        mAdapter.clear();
+        assertThat(mAdapter.getMemoryStats().getIndexBytes()).isLessThan(indexBytes / 100);
+        mAdapter.add(new Row(1, "A"));
+        assertThat(mAdapter.getPositionForId(1)).isEqualTo(0);
+    }
+
+    @Test
+    public void getItemIdByPosition() throws Exception {
+        mAdapter.addAll(new Row(10, "A"), new Row(20, "B"));
+
+        assertThat(mAdapter.getItemId(0)).isEqualTo(10);
+        assertThat(mAdapter.getItemId(1)).isEqualTo(20);
+        assertThat(mAdapter.getItemId(2)).isEqualTo(RecyclerView.NO_ID);
+    }
+
+    @Test
+    public void invalidateByIntegerId() throws Exception {
+        mAdapter.addAll(new Row(10, "A"), new Row(20, "B"));
+        final RecyclerView.AdapterDataObserver observer =
+                mock(RecyclerView.AdapterDataObserver.class);
+        mAdapter.registerAdapterDataObserver(observer);
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                // boxed as Integer, resolved like the long id
+                mAdapter.invalidateById(20, "payload");
+            }
+        });
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+
+        verify(observer).onItemRangeChanged(1, 1, "payload");
+        verifyNoMoreInteractions(observer);
+    }
+
+    @Test
+    public void getPositionForId() throws Exception {
+        mAdapter.addAll(new Row(10, "A"), new Row(20, "B"), new Row(30, "C"));
+
+        assertThat(mAdapter.getPositionForId(20)).isEqualTo(1);
+        assertThat(mAdapter.getPositionForId(40)).isEqualTo(-1);
+
+        // index follows mutations
+        mAdapter.insert(new Row(40, "D"), 0);
+        assertThat(mAdapter.getPositionForId(20)).isEqualTo(2);
+        assertThat(mAdapter.getPositionForId(40)).isEqualTo(0);
+
+        mAdapter.remove(new Row(10, "A"));
+        assertThat(mAdapter.getPositionForId(10)).isEqualTo(-1);
+        assertThat(mAdapter.getPositionForId(20)).isEqualTo(1);
+    }
+
+    @Test
+    public void isItemTheSame() throws Exception {
+        assertThat(mAdapter.isItemTheSame(new Row(1, "A"), new Row(1, "B"))).isTrue();
+        assertThat(mAdapter.isItemTheSame(new Row(1, "A"), new Row(2, "A"))).isFalse();
+        assertThat(mAdapter.isItemTheSame(null, new Row(2, "A"))).isFalse();
+        assertThat(mAdapter.isItemTheSame(null, null)).isTrue();
+    }
+
+    @Test
+    public void moveAllKeepsFirstDuplicateId() throws Exception {
+        mAdapter.addAll(new Row(1, "A"), new Row(2, "B"), new Row(1, "C"), new Row(3, "D"));
+        assertThat(mAdapter.getPositionForId(1)).isEqualTo(0);
+
+        mAdapter.moveAll(0, 1, 3);
+
+        // B, C, D, A
+        assertThat(mAdapter.getPositionForId(1)).isEqualTo(1);
+        assertThat(mAdapter.getPositionForId(2)).isEqualTo(0);
+        assertThat(mAdapter.getPositionForId(3)).isEqualTo(2);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mAdapter = new RowAdapter();
+    }
+
+    @Test
+    public void setHasStableIdsAfterConstruction() throws Exception {
+        mAdapter.setHasStableIds(true);
+        mAdapter.addAll(new Row(10, "A"), new Row(20, "B"));
+
+        assertThat(mAdapter.hasStableIds()).isTrue();
+        assertThat(mAdapter.getPositionForId(20)).isEqualTo(1);
+    }
+
+    @Test
+    public void swapExtractsEachIdOnce() throws Exception {
+        final List<Row> old = new ArrayList<>();
+        final List<Row> fresh = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            old.add(new Row(i, "old"));
+            fresh.add(new Row(99 - i, "new"));
+        }
+        mAdapter.addAll(old);
+        mAdapter.idCalls = 0;
+
+        mAdapter.swap(fresh);
+
+        // ids are compared as primitives from arrays, never per comparison
+        assertThat(mAdapter.idCalls).isEqualTo(200);
+        assertThat(mAdapter.getItem(0)).isEqualTo(new Row(99, "new"));
+    }
+
+    @Test
+    public void swap_onlyDataChanged() throws Exception {
+        mAdapter.addAll(new Row(1, "A"), new Row(2, "B"), new Row(3, "C"));
+
+        final List<Row> list = new ArrayList<>();
+        list.add(new Row(1, "A'"));
+        list.add(new Row(2, "B'"));
+        list.add(new Row(3, "C'"));
+        final RecyclerView.AdapterDataObserver observer =
+                mock(RecyclerView.AdapterDataObserver.class);
+        mAdapter.registerAdapterDataObserver(observer);
+        mAdapter.swap(list);
+
+        assertThat(mAdapter.getItem(1)).isEqualTo(new Row(2, "B'"));
+        verify(observer).onItemRangeChanged(0, 3, null);
+        verifyNoMoreInteractions(observer);
+    }
+}
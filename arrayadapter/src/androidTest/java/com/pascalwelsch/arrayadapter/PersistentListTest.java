@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2017 Pascal Welsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pascalwelsch.arrayadapter;
+
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import android.support.annotation.NonNull;
+import android.support.test.runner.AndroidJUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.assertj.core.api.Java6Assertions.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class PersistentListTest {
+
+    @Test
+    public void copyOf() throws Exception {
+        final List<Integer> source = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            source.add(i);
+        }
+        final PersistentList<Integer> list = PersistentList.copyOf(source);
+        assertThat(list).isEqualTo(source);
+        assertThat(list.get(4999)).isEqualTo(4999);
+        assertThat(list.indexOf(1234)).isEqualTo(1234);
+    }
+
+    @Test
+    public void forEachAndCopyIntoRange() throws Exception {
+        final List<Integer> source = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            source.add(i);
+        }
+        final PersistentList<Integer> list = PersistentList.copyOf(source);
+
+        // ranges crossing several leaves
+        final List<Integer> visited = new ArrayList<>();
+        list.forEach(100, 1234, new ItemConsumer<Integer>() {
+            @Override
+            public void accept(@NonNull final Integer item, final int position) {
+                assertThat(position).isEqualTo(item);
+                visited.add(item);
+            }
+        });
+        assertThat(visited).isEqualTo(source.subList(100, 1234));
+
+        final Object[] dest = new Object[1001];
+        list.copyInto(3000, 4000, dest, 1);
+        assertThat(dest[0]).isNull();
+        assertThat(Arrays.asList(dest).subList(1, 1001)).isEqualTo(source.subList(3000, 4000));
+
+        try {
+            list.copyInto(0, 10, new Object[5], 0);
+            fail("did not throw");
+        } catch (IndexOutOfBoundsException e) {
+            assertThat(e).hasMessageContaining("Length");
+        }
+    }
+
+    @Test
+    public void immutable() throws Exception {
+        final PersistentList<String> list = PersistentList.<String>empty().plus("A");
+        try {
+            list.add("B");
+            fail("did not throw");
+        } catch (UnsupportedOperationException e) {
+            assertThat(e).isInstanceOf(UnsupportedOperationException.class);
+        }
+    }
+
+    @Test
+    public void minusLastItemReturnsEmpty() throws Exception {
+        final PersistentList<String> list = PersistentList.<String>empty().plus("A");
+        assertThat(list.minus(0)).isEmpty();
+        assertThat(list.minus(0).plus("B")).isEqualTo(Arrays.asList("B"));
+    }
+
+    @Test
+    public void randomOperationsMatchArrayList() throws Exception {
+        final Random random = new Random(42);
+        final List<Integer> expected = new ArrayList<>();
+        PersistentList<Integer> list = PersistentList.empty();
+        final List<PersistentList<Integer>> versions = new ArrayList<>();
+        final List<List<Integer>> snapshots = new ArrayList<>();
+
+        for (int i = 0; i < 20000; i++) {
+            final int value = random.nextInt();
+            final int op = random.nextInt(4);
+            if (op == 0 || expected.isEmpty()) {
+                final int index = random.nextInt(expected.size() + 1);
+                list = list.plus(index, value);
+                expected.add(index, value);
+            } else if (op == 1) {
+                list = list.plus(value);
+                expected.add(value);
+            } else if (op == 2) {
+                final int index = random.nextInt(expected.size());
+                list = list.minus(index);
+                expected.remove(index);
+            } else {
+                final int index = random.nextInt(expected.size());
+                list = list.with(index, value);
+                expected.set(index, value);
+            }
+            if (i % 1000 == 0) {
+                versions.add(list);
+                snapshots.add(new ArrayList<>(expected));
+            }
+        }
+
+        assertThat(list).isEqualTo(expected);
+        // older versions are not affected by later modifications
+        for (int i = 0; i < versions.size(); i++) {
+            assertThat(versions.get(i)).isEqualTo(snapshots.get(i));
+        }
+    }
+}
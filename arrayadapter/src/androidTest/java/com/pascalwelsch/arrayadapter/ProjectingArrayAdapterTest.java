@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2017 Pascal Welsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pascalwelsch.arrayadapter;
+
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import android.support.annotation.NonNull;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.RecyclerView;
+import android.view.ViewGroup;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+@RunWith(AndroidJUnit4.class)
+public class ProjectingArrayAdapterTest {
+
+    private static class Message {
+
+        private final String id;
+
+        private final String text;
+
+        private Message(final String id, final String text) {
+            this.id = id;
+            this.text = text;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Message)) {
+                return false;
+            }
+            final Message message = (Message) o;
+            return id.equals(message.id) && text.equals(message.text);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * id.hashCode() + text.hashCode();
+        }
+    }
+
+    private static class MessageAdapter
+            extends ProjectingArrayAdapter<Message, String, RecyclerView.ViewHolder> {
+
+        int projections = 0;
+
+        MessageAdapter() {
+            super(2);
+        }
+
+        @Override
+        public Object getItemId(@NonNull final Message item) {
+            return item.id;
+        }
+
+        @Override
+        public void onBindViewHolder(final RecyclerView.ViewHolder holder, final int position) {
+
+        }
+
+        @Override
+        public RecyclerView.ViewHolder onCreateViewHolder(final ViewGroup parent,
+                final int viewType) {
+            return null;
+        }
+
+        @NonNull
+        @Override
+        protected String project(@NonNull final Message source) {
+            projections++;
+            return source.text.toUpperCase();
+        }
+    }
+
+    private MessageAdapter mAdapter;
+
+    @Test
+    public void cacheIsBounded() throws Exception {
+        mAdapter.getProjectedItem(0);
+        mAdapter.getProjectedItem(1);
+        mAdapter.getProjectedItem(2);
+        assertThat(mAdapter.projections).isEqualTo(3);
+
+        // evicted least recently used
+        mAdapter.getProjectedItem(0);
+        assertThat(mAdapter.projections).isEqualTo(4);
+    }
+
+    @Test
+    public void projectsLazily() throws Exception {
+        assertThat(mAdapter.projections).isEqualTo(0);
+
+        assertThat(mAdapter.getProjectedItem(1)).isEqualTo("B");
+        assertThat(mAdapter.getProjectedItem(1)).isEqualTo("B");
+        assertThat(mAdapter.getProjectedItem(5)).isNull();
+        assertThat(mAdapter.projections).isEqualTo(1);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mAdapter = new MessageAdapter();
+        mAdapter.add(new Message("1", "a"));
+        mAdapter.add(new Message("2", "b"));
+        mAdapter.add(new Message("3", "c"));
+    }
+
+    @Test
+    public void setHasStableIdsAfterConstruction() throws Exception {
+        final MessageAdapter adapter = new MessageAdapter();
+        adapter.setHasStableIds(true);
+        adapter.add(new Message("1", "a"));
+
+        assertThat(adapter.hasStableIds()).isTrue();
+        assertThat(adapter.getProjectedItem(0)).isEqualTo("A");
+    }
+
+    @Test
+    public void swapInvalidatesChangedItemsOnly() throws Exception {
+        mAdapter.getProjectedItem(0);
+        mAdapter.getProjectedItem(1);
+
+        final List<Message> list = new ArrayList<>();
+        list.add(new Message("1", "a"));
+        list.add(new Message("2", "b'"));
+        list.add(new Message("3", "c"));
+        mAdapter.swap(list);
+
+        assertThat(mAdapter.getProjectedItem(0)).isEqualTo("A");
+        assertThat(mAdapter.projections).isEqualTo(2);
+        assertThat(mAdapter.getProjectedItem(1)).isEqualTo("B'");
+        assertThat(mAdapter.projections).isEqualTo(3);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2017 Pascal Welsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pascalwelsch.arrayadapter;
+
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import android.support.annotation.NonNull;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.RecyclerView;
+import android.view.ViewGroup;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+@RunWith(AndroidJUnit4.class)
+public class SectionedArrayAdapterTest {
+
+    private static class TestAdapter
+            extends SectionedArrayAdapter<String, String, RecyclerView.ViewHolder> {
+
+        @Override
+        public Object getItemId(@NonNull final String item) {
+            return item;
+        }
+
+        @Override
+        public void onBindViewHolder(final RecyclerView.ViewHolder holder, final int position) {
+
+        }
+
+        @Override
+        public RecyclerView.ViewHolder onCreateViewHolder(final ViewGroup parent,
+                final int viewType) {
+            return null;
+        }
+    }
+
+    private TestAdapter mAdapter;
+
+    @Test
+    public void addToSection() throws Exception {
+        final RecyclerView.AdapterDataObserver observer =
+                mock(RecyclerView.AdapterDataObserver.class);
+        mAdapter.registerAdapterDataObserver(observer);
+
+        mAdapter.add(0, "a3");
+
+        assertThat(mAdapter.getItemCount()).isEqualTo(7);
+        assertThat(mAdapter.getItem(3)).isEqualTo("a3");
+        assertThat(mAdapter.getSectionPosition(1)).isEqualTo(4);
+        verify(observer).onItemRangeInserted(3, 1);
+        verifyNoMoreInteractions(observer);
+    }
+
+    @Test
+    public void insertAndRemoveManySections() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            mAdapter.insertSection(1, "Day" + i, Arrays.asList("c" + i));
+        }
+        mAdapter.removeSection(5);
+
+        // Monday, 19 inserted sections of 2, Tuesday
+        assertThat(mAdapter.getSectionCount()).isEqualTo(21);
+        assertThat(mAdapter.getItemCount()).isEqualTo(3 + 19 * 2 + 3);
+        assertThat(mAdapter.getSectionPosition(20)).isEqualTo(3 + 19 * 2);
+        assertThat(mAdapter.getHeader(3 + 19 * 2)).isEqualTo("Tuesday");
+        assertThat(mAdapter.getSectionForPosition(4)).isEqualTo(1);
+        assertThat(mAdapter.getItem(4)).isEqualTo("c19");
+    }
+
+    @Test
+    public void positionMapping() throws Exception {
+        // [Monday, a1, a2, Tuesday, b1, b2]
+        assertThat(mAdapter.getItemCount()).isEqualTo(6);
+        assertThat(mAdapter.isHeader(0)).isTrue();
+        assertThat(mAdapter.getHeader(0)).isEqualTo("Monday");
+        assertThat(mAdapter.getItem(0)).isNull();
+        assertThat(mAdapter.getItem(2)).isEqualTo("a2");
+        assertThat(mAdapter.getHeader(3)).isEqualTo("Tuesday");
+        assertThat(mAdapter.getSectionForPosition(4)).isEqualTo(1);
+        assertThat(mAdapter.getPositionInSection(4)).isEqualTo(0);
+        assertThat(mAdapter.getPositionInSection(3)).isEqualTo(-1);
+        assertThat(mAdapter.getSectionForPosition(6)).isEqualTo(-1);
+        assertThat(mAdapter.getItemViewType(3))
+                .isEqualTo(SectionedArrayAdapter.VIEW_TYPE_HEADER);
+        assertThat(mAdapter.getItemViewType(5)).isEqualTo(SectionedArrayAdapter.VIEW_TYPE_ITEM);
+    }
+
+    @Test
+    public void removeFromSection() throws Exception {
+        final RecyclerView.AdapterDataObserver observer =
+                mock(RecyclerView.AdapterDataObserver.class);
+        mAdapter.registerAdapterDataObserver(observer);
+
+        mAdapter.remove(1, "b2");
+
+        assertThat(mAdapter.getItemCount()).isEqualTo(5);
+        verify(observer).onItemRangeRemoved(5, 1);
+        verifyNoMoreInteractions(observer);
+    }
+
+    @Test
+    public void removeSection() throws Exception {
+        final RecyclerView.AdapterDataObserver observer =
+                mock(RecyclerView.AdapterDataObserver.class);
+        mAdapter.registerAdapterDataObserver(observer);
+
+        mAdapter.removeSection(0);
+
+        assertThat(mAdapter.getItemCount()).isEqualTo(3);
+        assertThat(mAdapter.getHeader(0)).isEqualTo("Tuesday");
+        verify(observer).onItemRangeRemoved(0, 3);
+        verifyNoMoreInteractions(observer);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mAdapter = new TestAdapter();
+        mAdapter.addSection("Monday", Arrays.asList("a1", "a2"));
+        mAdapter.addSection("Tuesday", Arrays.asList("b1", "b2"));
+    }
+
+    @Test
+    public void swapSectionNotifiesWithOffset() throws Exception {
+        final RecyclerView.AdapterDataObserver observer =
+                mock(RecyclerView.AdapterDataObserver.class);
+        mAdapter.registerAdapterDataObserver(observer);
+
+        mAdapter.swap(1, Arrays.asList("b1", "b2", "b3"));
+
+        assertThat(mAdapter.getSectionItems(1)).isEqualTo(Arrays.asList("b1", "b2", "b3"));
+        assertThat(mAdapter.getSectionItems(0)).isEqualTo(Arrays.asList("a1", "a2"));
+        verify(observer).onItemRangeInserted(6, 1);
+        verifyNoMoreInteractions(observer);
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2017 Pascal Welsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pascalwelsch.arrayadapter;
+
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import android.support.annotation.NonNull;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.RecyclerView;
+import android.view.ViewGroup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+@RunWith(AndroidJUnit4.class)
+public class SerializedArrayAdapterTest {
+
+    /**
+     * "id:text" strings, the id is the part before the colon
+     */
+    private static class CountingCodec implements ItemCodec<String> {
+
+        private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+        int decoded = 0;
+
+        @NonNull
+        @Override
+        public String decode(@NonNull final ByteBuffer buffer) {
+            decoded++;
+            final byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            return new String(bytes, UTF_8);
+        }
+
+        @NonNull
+        @Override
+        public byte[] encode(@NonNull final String item) {
+            return item.getBytes(UTF_8);
+        }
+
+        @Override
+        public long getItemId(@NonNull final String item) {
+            return Long.parseLong(item.substring(0, item.indexOf(':')));
+        }
+    }
+
+    private static class TestAdapter
+            extends SerializedArrayAdapter<String, RecyclerView.ViewHolder> {
+
+        TestAdapter(final ItemCodec<String> codec) {
+            super(codec, 2);
+        }
+
+        @Override
+        public void onBindViewHolder(final RecyclerView.ViewHolder holder, final int position) {
+
+        }
+
+        @Override
+        public RecyclerView.ViewHolder onCreateViewHolder(final ViewGroup parent,
+                final int viewType) {
+            return null;
+        }
+    }
+
+    private TestAdapter mAdapter;
+
+    private CountingCodec mCodec;
+
+    @Test
+    public void getItemDecodesOnDemand() throws Exception {
+        mAdapter.addAll(Arrays.asList("1:A", "2:B", "3:C"));
+        assertThat(mCodec.decoded).isEqualTo(0);
+        assertThat(mAdapter.getItemCount()).isEqualTo(3);
+        assertThat(mAdapter.getItemId(1)).isEqualTo(2);
+
+        assertThat(mAdapter.getItem(1)).isEqualTo("2:B");
+        assertThat(mAdapter.getItem(1)).isEqualTo("2:B");
+        assertThat(mCodec.decoded).isEqualTo(1);
+        assertThat(mAdapter.getItem(3)).isNull();
+        assertThat(mAdapter.getStoredBytes()).isGreaterThan(0);
+    }
+
+    @Test
+    public void restoreSnapshotDecodesLazily() throws Exception {
+        mAdapter.addAll(Arrays.asList("1:A", "2:B", "3:C"));
+        final File snapshot = File.createTempFile("snapshot", ".bin");
+        try {
+            mAdapter.writeSnapshot(snapshot);
+
+            final CountingCodec codec = new CountingCodec();
+            final TestAdapter restored = new TestAdapter(codec);
+            restored.restoreSnapshot(snapshot);
+            assertThat(restored.getItemCount()).isEqualTo(3);
+            assertThat(restored.getItemId(2)).isEqualTo(3);
+            assertThat(codec.decoded).isEqualTo(0);
+            assertThat(restored.getItem(0)).isEqualTo("1:A");
+            assertThat(codec.decoded).isEqualTo(1);
+
+            final RecyclerView.AdapterDataObserver observer =
+                    mock(RecyclerView.AdapterDataObserver.class);
+            restored.registerAdapterDataObserver(observer);
+            restored.swap(Arrays.asList("1:A", "2:B", "3:C", "4:D"));
+            verify(observer).onItemRangeInserted(3, 1);
+            verifyNoMoreInteractions(observer);
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            snapshot.delete();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void restoreSnapshotRejectsCorruptOffsets() throws Exception {
+        mAdapter.addAll(Arrays.asList("1:A", "2:B", "3:C"));
+        final File snapshot = File.createTempFile("snapshot", ".bin");
+        try {
+            mAdapter.writeSnapshot(snapshot);
+            final RandomAccessFile file = new RandomAccessFile(snapshot, "rw");
+            try {
+                // second offset, behind the 16 byte header and the 3 ids
+                file.seek(16 + 3 * 8 + 4);
+                file.writeInt(Integer.MAX_VALUE);
+            } finally {
+                file.close();
+            }
+            mAdapter.restoreSnapshot(snapshot);
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            snapshot.delete();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void restoreSnapshotRejectsInvalidFile() throws Exception {
+        final File snapshot = File.createTempFile("snapshot", ".bin");
+        try {
+            mAdapter.restoreSnapshot(snapshot);
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            snapshot.delete();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mCodec = new CountingCodec();
+        mAdapter = new TestAdapter(mCodec);
+    }
+
+    @Test
+    public void swapDiffsWithoutDecoding() throws Exception {
+        mAdapter.addAll(Arrays.asList("1:A", "2:B", "3:C"));
+
+        final RecyclerView.AdapterDataObserver observer =
+                mock(RecyclerView.AdapterDataObserver.class);
+        mAdapter.registerAdapterDataObserver(observer);
+        mAdapter.swap(Arrays.asList("1:A", "2:B'", "3:C"));
+
+        assertThat(mCodec.decoded).isEqualTo(0);
+        verify(observer).onItemRangeChanged(1, 1, null);
+        verifyNoMoreInteractions(observer);
+        assertThat(mAdapter.getItem(1)).isEqualTo("2:B'");
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2017 Pascal Welsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pascalwelsch.arrayadapter;
+
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.RecyclerView;
+import android.view.ViewGroup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+@RunWith(AndroidJUnit4.class)
+public class TreeArrayAdapterTest {
+
+    private static class TestAdapter extends TreeArrayAdapter<String, RecyclerView.ViewHolder> {
+
+        @Override
+        public void onBindViewHolder(final RecyclerView.ViewHolder holder, final int position) {
+
+        }
+
+        @Override
+        public RecyclerView.ViewHolder onCreateViewHolder(final ViewGroup parent,
+                final int viewType) {
+            return null;
+        }
+    }
+
+    private TestAdapter mAdapter;
+
+    private TreeArrayAdapter.Node<String> mDocuments;
+
+    private TreeArrayAdapter.Node<String> mPhotos;
+
+    @Test
+    public void addChildToCollapsedNodeIsInvisible() throws Exception {
+        final RecyclerView.AdapterDataObserver observer =
+                mock(RecyclerView.AdapterDataObserver.class);
+        mAdapter.registerAdapterDataObserver(observer);
+
+        final TreeArrayAdapter.Node<String> node = mAdapter.add(mDocuments, "c.txt");
+
+        assertThat(node.isVisible()).isFalse();
+        assertThat(mAdapter.getItemCount()).isEqualTo(2);
+        verifyNoMoreInteractions(observer);
+    }
+
+    @Test
+    public void clearDetachesNodes() throws Exception {
+        mAdapter.expand(mDocuments);
+        final TreeArrayAdapter.Node<String> a = mDocuments.getChildren().get(0);
+
+        mAdapter.clear();
+
+        assertThat(mAdapter.getItemCount()).isEqualTo(0);
+        assertThat(mDocuments.isVisible()).isFalse();
+        assertThat(a.isVisible()).isFalse();
+        assertThat(mAdapter.getPosition(a)).isEqualTo(-1);
+
+        // edits of cleared nodes don't reach the root
+        mAdapter.add(mDocuments, "c.txt");
+        mAdapter.add(null, "Music");
+        assertThat(visibleItems()).isEqualTo(Arrays.asList("Music"));
+    }
+
+    @Test
+    public void collapseRemovesDescendantsAtOnce() throws Exception {
+        mAdapter.expand(mDocuments);
+        final TreeArrayAdapter.Node<String> nested = mAdapter.add(mDocuments, "nested");
+        mAdapter.add(nested, "deep.txt");
+        mAdapter.expand(nested);
+        assertThat(visibleItems()).isEqualTo(
+                Arrays.asList("Documents", "a.txt", "b.txt", "nested", "deep.txt", "Photos"));
+
+        final RecyclerView.AdapterDataObserver observer =
+                mock(RecyclerView.AdapterDataObserver.class);
+        mAdapter.registerAdapterDataObserver(observer);
+        mAdapter.collapse(mDocuments);
+
+        assertThat(visibleItems()).isEqualTo(Arrays.asList("Documents", "Photos"));
+        verify(observer).onItemRangeRemoved(1, 4);
+        verifyNoMoreInteractions(observer);
+
+        // expanding restores the expanded state of the children
+        mAdapter.expand(mDocuments);
+        assertThat(mAdapter.getItemCount()).isEqualTo(6);
+    }
+
+    @Test
+    public void expandInsertsChildrenAtOnce() throws Exception {
+        final RecyclerView.AdapterDataObserver observer =
+                mock(RecyclerView.AdapterDataObserver.class);
+        mAdapter.registerAdapterDataObserver(observer);
+
+        mAdapter.expand(mDocuments);
+
+        assertThat(visibleItems()).isEqualTo(
+                Arrays.asList("Documents", "a.txt", "b.txt", "Photos"));
+        assertThat(mAdapter.getPosition(mPhotos)).isEqualTo(3);
+        assertThat(mAdapter.getNode(1).getDepth()).isEqualTo(1);
+        verify(observer).onItemRangeInserted(1, 2);
+        verifyNoMoreInteractions(observer);
+    }
+
+    @Test
+    public void removeNodeWithDescendants() throws Exception {
+        mAdapter.expand(mDocuments);
+
+        final RecyclerView.AdapterDataObserver observer =
+                mock(RecyclerView.AdapterDataObserver.class);
+        mAdapter.registerAdapterDataObserver(observer);
+        mAdapter.remove(mDocuments);
+
+        assertThat(visibleItems()).isEqualTo(Arrays.asList("Photos"));
+        verify(observer).onItemRangeRemoved(0, 3);
+        verifyNoMoreInteractions(observer);
+    }
+
+    @Test
+    public void removedSubtreeEditsKeepRoot() throws Exception {
+        mAdapter.expand(mDocuments);
+        mAdapter.remove(mDocuments);
+        assertThat(mDocuments.getParent()).isNull();
+
+        mAdapter.add(mDocuments, "c.txt");
+        mAdapter.remove(mDocuments.getChildren().get(0));
+        final TreeArrayAdapter.Node<String> music = mAdapter.add(null, "Music");
+
+        assertThat(visibleItems()).isEqualTo(Arrays.asList("Photos", "Music"));
+        assertThat(mAdapter.getPosition(music)).isEqualTo(1);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mAdapter = new TestAdapter();
+        mDocuments = mAdapter.add(null, "Documents");
+        mAdapter.addAll(mDocuments, Arrays.asList("a.txt", "b.txt"));
+        mPhotos = mAdapter.add(null, "Photos");
+    }
+
+    private List<String> visibleItems() {
+        final List<String> items = new ArrayList<>();
+        for (int i = 0; i < mAdapter.getItemCount(); i++) {
+            items.add(mAdapter.getItem(i));
+        }
+        return items;
+    }
+}
@@ -15,16 +15,34 @@
 
 package com.pascalwelsch.arrayadapter;
 
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.IntDef;
+import android.support.annotation.MainThread;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
 import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+import android.support.v7.widget.GridLayoutManager;
 import android.support.v7.widget.RecyclerView;
 
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
 
 /**
  * Simple {@link RecyclerView.Adapter} implementation analog to {@link android.widget.ArrayAdapter}
@@ -37,7 +55,54 @@ import java.util.List;
  */
 @SuppressWarnings("WeakerAccess")
 public abstract class ArrayAdapter<T, VH extends RecyclerView.ViewHolder>
-        extends RecyclerView.Adapter<VH> {
+        extends RecyclerView.Adapter<VH> implements ItemDiffs.Matcher<T> {
+
+    /**
+     * Payload of the change notifications dispatched when the selection changes. Check for it in
+     * {@link #onBindViewHolder(RecyclerView.ViewHolder, int, List)} to only update the selection
+     * state of a view.
+     */
+    public static final Object PAYLOAD_SELECTION = new Object();
+
+    /**
+     * Default, items with an id which is already part of the adapter are added
+     */
+    public static final int DUPLICATE_IDS_ALLOW = 0;
+
+    /**
+     * Adding an item with an id which is already part of the adapter throws an
+     * {@link IllegalArgumentException}
+     */
+    public static final int DUPLICATE_IDS_REJECT = 1;
+
+    /**
+     * Items with an id which is already part of the adapter replace the existing item at its
+     * position
+     */
+    public static final int DUPLICATE_IDS_REPLACE = 3;
+
+    /**
+     * Items with an id which is already part of the adapter are silently dropped
+     */
+    public static final int DUPLICATE_IDS_SKIP = 2;
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({DUPLICATE_IDS_ALLOW, DUPLICATE_IDS_REJECT, DUPLICATE_IDS_SKIP,
+            DUPLICATE_IDS_REPLACE})
+    public @interface DuplicateIdPolicy {
+
+    }
+
+    /**
+     * {@link #clear()} and {@link #swap(List)} call {@link #trimToSize()} when the list shrinks
+     * below {@code 1 / SHRINK_FACTOR} of its previous size
+     */
+    private static final int SHRINK_FACTOR = 4;
+
+    /**
+     * minimum time between two dispatches of invalidated ids, one frame
+     */
+    private static final long INVALIDATION_INTERVAL_MILLIS = 16;
 
     /**
      * Lock used to modify the content of {@link #mObjects}. Any write operation
@@ -45,7 +110,176 @@ public abstract class ArrayAdapter<T, VH extends RecyclerView.ViewHolder>
      */
     private final Object mLock = new Object();
 
-    private final List<T> mObjects = new ArrayList<>();
+    /**
+     * Current version of the items. Mutations replace it with a new version sharing the unchanged
+     * parts, previously returned versions stay valid.
+     */
+    private PersistentList<T> mObjects = PersistentList.empty();
+
+    /**
+     * Executor comparing item contents in parallel during {@link #swap(List)}, {@code null}
+     * when disabled
+     */
+    @Nullable
+    private Executor mParallelDiffExecutor;
+
+    private int mParallelDiffThreshold;
+
+    /**
+     * prepares bind data in the background, {@code null} when disabled
+     */
+    @Nullable
+    private BindDataPrefetcher<T> mPrefetcher;
+
+    @Nullable
+    private RecyclerView mRecyclerView;
+
+    /**
+     * undo/redo history, {@code null} when disabled
+     */
+    @Nullable
+    private EditHistory<T> mHistory;
+
+    @DuplicateIdPolicy
+    private int mDuplicateIdPolicy = DUPLICATE_IDS_ALLOW;
+
+    private int mDroppedDuplicates;
+
+    /**
+     * ids of {@link #mIdsVersion}, used to find duplicates when a {@link DuplicateIdPolicy} is
+     * set. Updated incrementally when items are added, rebuilt lazily after other mutations.
+     */
+    @Nullable
+    private HashSet<Object> mIds;
+
+    @Nullable
+    private PersistentList<T> mIdsVersion;
+
+    /**
+     * selected positions, {@code null} until the first item is selected
+     */
+    @Nullable
+    private SelectionTracker mSelection;
+
+    /**
+     * number of items requested by {@link #ensureCapacity(int)}, lookup structures are created
+     * with room for it. Released by {@link #trimToSize()}.
+     */
+    private int mReservedCapacity;
+
+    /**
+     * view types and span sizes by position, {@code null} until {@link #getSpanSizeLookup()} or
+     * {@link #getCachedViewType(int)} is called
+     */
+    @Nullable
+    private volatile ItemLayoutCache<T> mLayoutCache;
+
+    /**
+     * streams started by {@link #appendStream(Iterator, Executor)} which are still running,
+     * cancelled when the adapter is detached
+     */
+    private final ArrayList<StreamingAppend<T>> mStreams = new ArrayList<>();
+
+    /**
+     * running diff of {@link #swapIncrementally(List, IncrementalDiff.Scheduler, long)},
+     * {@code null} when there is none
+     */
+    @Nullable
+    private IncrementalDiff<T> mPendingDiff;
+
+    /**
+     * diffs of recent swaps, {@code null} when disabled
+     */
+    @Nullable
+    private DiffCache mDiffCache;
+
+    /**
+     * version of {@link #mVersionOf}, the items of the last versioned swap
+     */
+    private long mVersion;
+
+    @Nullable
+    private PersistentList<T> mVersionOf;
+
+    /**
+     * true when {@link #mVersion} was passed to {@link #swap(List, long)}, false when it is a
+     * fingerprint of the items
+     */
+    private boolean mVersionIsUser;
+
+    /**
+     * payloads of the ids passed to {@link #invalidateById(Object, Object)} which are not
+     * dispatched yet, {@code null} for a full rebind
+     */
+    private final LinkedHashMap<Object, List<Object>> mInvalidated = new LinkedHashMap<>();
+
+    private boolean mInvalidationScheduled;
+
+    /**
+     * true while the changes of invalidated ids are notified, the ids of all positions stay the
+     * same
+     */
+    private boolean mDispatchingInvalidations;
+
+    private long mLastInvalidationDispatch;
+
+    /**
+     * true while the change of all positions after a reorder is notified, the items are the same
+     * but at other positions
+     */
+    private boolean mReordering;
+
+    /**
+     * posts the dispatch of invalidations, {@code null} until the first invalidation
+     */
+    @Nullable
+    private Handler mMainHandler;
+
+    private final Runnable mInvalidationDispatcher = new Runnable() {
+        @Override
+        public void run() {
+            dispatchInvalidations();
+        }
+    };
+
+    /**
+     * position of the first item by id, {@code null} until the first invalidation is dispatched
+     */
+    @Nullable
+    private ItemPositionIndex<T> mPositions;
+
+    /**
+     * forwards list updates to the {@code notify*} methods of this adapter
+     */
+    private final ListUpdateCallback mNotifier = new ListUpdateCallback() {
+        @Override
+        public void onChanged(final int position, final int count, final Object payload) {
+            notifyItemRangeChanged(position, count, payload);
+        }
+
+        @Override
+        public void onInserted(final int position, final int count) {
+            notifyItemRangeInserted(position, count);
+        }
+
+        @Override
+        public void onMoved(final int fromPosition, final int toPosition) {
+            notifyItemMoved(fromPosition, toPosition);
+        }
+
+        @Override
+        public void onRemoved(final int position, final int count) {
+            notifyItemRangeRemoved(position, count);
+        }
+    };
+
+    private final OffsetNotifier mOffsetNotifier = new OffsetNotifier(this);
+
+    /**
+     * compares items with {@link #isItemTheSame(Object, Object)} and
+     * {@link #isContentTheSame(Object, Object)}, reused for every diff
+     */
+    private final ReusableDiffCallback<T> mDiffCallback = ItemDiffs.callback(this);
 
     @SuppressWarnings("ConstantConditions")
     public ArrayAdapter(@NonNull final List<T> objects) {
@@ -53,9 +287,9 @@ public abstract class ArrayAdapter<T, VH extends RecyclerView.ViewHolder>
             throw new IllegalStateException("null is not supported. Use an empty list.");
         }
         for (final T item : objects) {
-            requireNotNullItem(item);
-            mObjects.add(item);
+            ItemDiffs.requireNotNullItem(item);
         }
+        mObjects = PersistentList.copyOf(objects);
     }
 
     public ArrayAdapter() {
@@ -68,11 +302,20 @@ public abstract class ArrayAdapter<T, VH extends RecyclerView.ViewHolder>
      * @param object The object to add at the end of the array.
      */
     public void add(@NonNull final T object) {
-        requireNotNullItem(object);
+        ItemDiffs.requireNotNullItem(object);
         synchronized (mLock) {
+            final PersistentList<T> before = mObjects;
+            final LinkedHashMap<Object, T> unique =
+                    dropDuplicateIds(Collections.singletonList(object));
+            if (unique != null && unique.isEmpty()) {
+                recordEdit(before);
+                return;
+            }
             final int position = getItemCount();
-            mObjects.add(object);
+            mObjects = mObjects.plus(object);
             notifyItemInserted(position);
+            trackIds(unique);
+            recordEdit(before);
         }
     }
 
@@ -89,10 +332,17 @@ public abstract class ArrayAdapter<T, VH extends RecyclerView.ViewHolder>
         synchronized (mLock) {
             final int position = getItemCount();
             for (final T item : collection) {
-                requireNotNullItem(item);
-                mObjects.add(item);
+                ItemDiffs.requireNotNullItem(item);
             }
-            notifyItemRangeInserted(position, length);
+            final PersistentList<T> before = mObjects;
+            final LinkedHashMap<Object, T> unique = dropDuplicateIds(collection);
+            final Collection<T> added = unique == null ? collection : unique.values();
+            if (!added.isEmpty()) {
+                mObjects = mObjects.plusAll(added);
+                notifyItemRangeInserted(position, added.size());
+                trackIds(unique);
+            }
+            recordEdit(before);
         }
     }
 
@@ -107,13 +357,64 @@ public abstract class ArrayAdapter<T, VH extends RecyclerView.ViewHolder>
         if (length == 0) {
             return;
         }
+        if (mDuplicateIdPolicy != DUPLICATE_IDS_ALLOW) {
+            addAll(Arrays.asList(items));
+            return;
+        }
         synchronized (mLock) {
             final int position = getItemCount();
             for (final T item : items) {
-                requireNotNullItem(item);
-                mObjects.add(item);
+                ItemDiffs.requireNotNullItem(item);
             }
+            final PersistentList<T> before = mObjects;
+            mObjects = mObjects.plusAll(items);
             notifyItemRangeInserted(position, length);
+            recordEdit(before);
+        }
+    }
+
+    /**
+     * Appends the items of {@code source} without collecting them in a list first, i.e. the rows
+     * of a large database cursor. The iterator is read on the {@code executor} and the items are
+     * added in chunks on the main thread with one insert notification per chunk. The chunks are
+     * sized so adding them fits into a frame, the first items are shown after the first chunk.
+     * <p>
+     * Reading pauses while added chunks wait for the main thread and stops when the returned
+     * stream is cancelled or the adapter is detached from its {@link RecyclerView}. A
+     * {@link java.io.Closeable} iterator is closed when reading stops.
+     * <p>
+     * An executor running on the main thread doesn't deadlock, the iterator is then read chunk by
+     * chunk between the added chunks and reading blocks the frames.
+     *
+     * @param source   items to append, read once on the executor
+     * @param executor background executor reading the iterator
+     * @return handle to observe or cancel the stream
+     */
+    @NonNull
+    @MainThread
+    public StreamingAppend<T> appendStream(@NonNull final Iterator<? extends T> source,
+            @NonNull final Executor executor) {
+        final StreamingAppend<T> stream = new StreamingAppend<>(this, source);
+        mStreams.add(stream);
+        stream.start(executor);
+        return stream;
+    }
+
+    /**
+     * @return true when an undone mutation can be restored with {@link #redo()}
+     */
+    public boolean canRedo() {
+        synchronized (mLock) {
+            return mHistory != null && mHistory.canRedo();
+        }
+    }
+
+    /**
+     * @return true when a mutation can be reverted with {@link #undo()}
+     */
+    public boolean canUndo() {
+        synchronized (mLock) {
+            return mHistory != null && mHistory.canUndo();
         }
     }
 
@@ -125,9 +426,146 @@ public abstract class ArrayAdapter<T, VH extends RecyclerView.ViewHolder>
             return;
         }
         synchronized (mLock) {
+            final PersistentList<T> before = mObjects;
             final int size = getItemCount();
-            mObjects.clear();
+            mObjects = PersistentList.empty();
             notifyItemRangeRemoved(0, size);
+            recordEdit(before);
+            trimWhenShrunk(size);
+        }
+    }
+
+    /**
+     * Deselects all items. Dispatches a single range change with {@link #PAYLOAD_SELECTION}
+     * covering the first to the last selected item.
+     */
+    public void clearSelection() {
+        synchronized (mLock) {
+            if (mSelection == null || mSelection.count() == 0) {
+                return;
+            }
+            final int first = mSelection.first();
+            final int last = mSelection.last();
+            mSelection.clear();
+            notifySelectionChanged(first, last + 1);
+        }
+    }
+
+    /**
+     * Removes all recorded mutations from the undo/redo history
+     */
+    public void clearUndoHistory() {
+        synchronized (mLock) {
+            if (mHistory != null) {
+                mHistory.clear();
+            }
+        }
+    }
+
+    /**
+     * Copies the items in the position range {@code [from, to)} into {@code dest} starting at
+     * index {@code 0}, without creating a list or an iterator. The items are read from a
+     * consistent snapshot, mutations on other threads don't interleave with the copy.
+     *
+     * @param dest receives the items, must have room for {@code to - from} items
+     * @param from position of the first item to copy
+     * @param to   position after the last item to copy
+     * @throws IndexOutOfBoundsException when the range is invalid or {@code dest} is too small
+     */
+    public void copyInto(@NonNull final T[] dest, final int from, final int to) {
+        snapshot().copyInto(from, to, dest, 0);
+    }
+
+    /**
+     * Reserves memory for {@code minCapacity} items in the lookup structures which are sized by
+     * the number of items, i.e. before adding a large page: the id set of the {@link
+     * DuplicateIdPolicy}, the id index of {@link #invalidateById(Object, Object)}, the layout
+     * cache of {@link #getSpanSizeLookup()} and the selection. Structures which don't exist yet
+     * are created with the reserved capacity. The items are stored in a tree which grows by
+     * allocating nodes and never copies all items, so there is nothing to reserve for the items
+     * themselves. The reservation is reported by {@link MemoryStats#getReservedCapacity()} and
+     * released by {@link #trimToSize()}.
+     *
+     * @param minCapacity expected number of items
+     */
+    public void ensureCapacity(final int minCapacity) {
+        if (minCapacity < 0) {
+            throw new IllegalArgumentException("minCapacity must be >= 0, was " + minCapacity);
+        }
+        synchronized (mLock) {
+            if (minCapacity <= mReservedCapacity) {
+                return;
+            }
+            mReservedCapacity = minCapacity;
+            if (mIds != null && mIdsVersion == mObjects) {
+                final HashSet<Object> ids = new HashSet<>(minCapacity * 2);
+                ids.addAll(mIds);
+                mIds = ids;
+            }
+            if (mPositions != null) {
+                mPositions.ensureCapacity(minCapacity);
+            }
+            if (mLayoutCache != null) {
+                mLayoutCache.ensureCapacity(minCapacity);
+            }
+            if (mSelection != null) {
+                mSelection.ensureCapacity(minCapacity);
+            }
+        }
+    }
+
+    /**
+     * Passes every item to the {@code consumer} in order, i.e. to compute an aggregate without
+     * calling {@link #getItem(int)} for every position. The items are read from a consistent
+     * snapshot taken when the iteration starts. No lock is held while the consumer runs, it may
+     * mutate the adapter without affecting the iteration.
+     *
+     * @param consumer receives the items
+     */
+    public void forEach(@NonNull final ItemConsumer<? super T> consumer) {
+        final PersistentList<T> items = snapshot();
+        items.forEach(0, items.size(), consumer);
+    }
+
+    /**
+     * Passes the items in the position range {@code [from, to)} to the {@code consumer}
+     *
+     * @throws IndexOutOfBoundsException when the range is invalid
+     * @see #forEach(ItemConsumer)
+     */
+    public void forEach(final int from, final int to,
+            @NonNull final ItemConsumer<? super T> consumer) {
+        snapshot().forEach(from, to, consumer);
+    }
+
+    /**
+     * Returns the view type of the item at the position. It is computed by {@link
+     * #getViewType(Object)} on the first access and cached until the item is changed. Cached
+     * values move along with moved items and are shifted by inserts and removals, inserted items
+     * are computed on their first access. {@link #getItemViewType(int)} doesn't use the cache,
+     * return this method from it to enable caching:
+     * <pre>{@code
+     * public int getItemViewType(int position) {
+     *     return getCachedViewType(position);
+     * }
+     * }</pre>
+     *
+     * @param position index of the item
+     * @return the cached view type
+     */
+    @MainThread
+    public int getCachedViewType(final int position) {
+        return requireLayoutCache().getViewType(position);
+    }
+
+    /**
+     * @return number of items dropped or replaced because of a duplicate id since the
+     * {@link DuplicateIdPolicy} was set
+     * @see #setDuplicateIdPolicy(int)
+     */
+    public int getDroppedDuplicateCount() {
+        synchronized (mLock) {
+            return mDroppedDuplicates;
         }
     }
 
@@ -150,6 +588,44 @@ public abstract class ArrayAdapter<T, VH extends RecyclerView.ViewHolder>
         return mObjects.size();
     }
 
+    /**
+     * Estimates the heap used by this adapter besides the items, i.e. to track the footprint of
+     * large lists in production.
+     *
+     * @return current memory usage
+     */
+    @NonNull
+    public MemoryStats getMemoryStats() {
+        synchronized (mLock) {
+            final BindDataPrefetcher<T> prefetcher = mPrefetcher;
+            return new MemoryStats(mObjects.size(), mObjects.estimateBytes(), getIndexBytes(),
+                    mReservedCapacity, prefetcher == null ? 0 : prefetcher.cacheSize(),
+                    mHistory == null ? 0 : mHistory.size());
+        }
+    }
+
+    /**
+     * Returns the data prepared by {@link #prepareBindData(Object)} for the item at the position.
+     * Call it in {@link #onBindViewHolder(RecyclerView.ViewHolder, int)}. When the data wasn't
+     * prefetched in time it is prepared on the calling thread.
+     *
+     * @param position position of the item
+     * @return the prepared data or {@code null}
+     * @see #setBindDataPrefetch(Executor, int, int)
+     */
+    @Nullable
+    public Object getPreparedBindData(final int position) {
+        final T item = getItem(position);
+        if (item == null) {
+            return null;
+        }
+        final BindDataPrefetcher<T> prefetcher = mPrefetcher;
+        if (prefetcher == null) {
+            return prepareBindData(item);
+        }
+        return prefetcher.get(item);
+    }
+
     /**
      * Return a stable id for an item. The item doesn't have to be part of the underlying data set.
      *
@@ -165,12 +641,87 @@ public abstract class ArrayAdapter<T, VH extends RecyclerView.ViewHolder>
      * Returns the items in the adapter as a unmodifiable list. Use the mutate functions to change
      * the items of this adapter ({@link #add(Object)}, {@link #remove(Object)}) or replace the list
      * entirely ({#link {@link #swap(List)}})
+     * <p>
+     * The returned list is an immutable snapshot which doesn't change when the adapter is
+     * mutated afterwards. It shares its structure with the adapter and is returned without
+     * copying.
      *
      * @return the current items in this adapter
      */
     @NonNull
     public List<T> getItems() {
-        return Collections.unmodifiableList(new ArrayList<T>(mObjects));
+        return snapshot();
+    }
+
+    /**
+     * @return the number of selected items
+     */
+    public int getSelectedCount() {
+        synchronized (mLock) {
+            return mSelection == null ? 0 : mSelection.count();
+        }
+    }
+
+    /**
+     * @return the selected items in adapter order
+     */
+    @NonNull
+    public List<T> getSelectedItems() {
+        synchronized (mLock) {
+            final int[] positions = getSelectedPositions();
+            final ArrayList<T> items = new ArrayList<>(positions.length);
+            for (final int position : positions) {
+                items.add(mObjects.get(position));
+            }
+            return items;
+        }
+    }
+
+    /**
+     * @return the positions of the selected items in ascending order
+     */
+    @NonNull
+    public int[] getSelectedPositions() {
+        synchronized (mLock) {
+            return mSelection == null ? new int[0] : mSelection.toArray();
+        }
+    }
+
+    /**
+     * Returns the number of spans the item occupies in a {@link GridLayoutManager}. Only called
+     * when the item is inserted or changed, the result is cached by position.
+     *
+     * @param item the item
+     * @return number of spans, {@code 1} by default
+     * @see #getSpanSizeLookup()
+     */
+    public int getSpanSize(@NonNull final T item) {
+        return 1;
+    }
+
+    /**
+     * Returns a {@link GridLayoutManager.SpanSizeLookup} reading the cached results of {@link
+     * #getSpanSize(Object)}. The span index and the row of every position are cached as well and
+     * are only computed again from the first notified position on, not for the whole list after
+     * every {@link #swap(List)}.
+     *
+     * @return the lookup to set on the {@link GridLayoutManager}
+     */
+    @NonNull
+    @MainThread
+    public GridLayoutManager.SpanSizeLookup getSpanSizeLookup() {
+        return requireLayoutCache().getLookup();
+    }
+
+    /**
+     * Returns the view type of the item, used by {@link #getCachedViewType(int)}. Only called
+     * when the item is inserted or changed, the result is cached by position.
+     *
+     * @param item the item
+     * @return the view type, {@code 0} by default
+     */
+    public int getViewType(@NonNull final T item) {
+        return 0;
     }
 
     /**
@@ -190,18 +741,148 @@ public abstract class ArrayAdapter<T, VH extends RecyclerView.ViewHolder>
      * @param index  The index at which the object must be inserted.
      */
     public void insert(@NonNull T object, int index) {
-        requireNotNullItem(object);
+        ItemDiffs.requireNotNullItem(object);
         synchronized (mLock) {
-            mObjects.add(index, object);
+            checkInsertIndex(index);
+            final PersistentList<T> before = mObjects;
+            final LinkedHashMap<Object, T> unique =
+                    dropDuplicateIds(Collections.singletonList(object));
+            if (unique != null && unique.isEmpty()) {
+                recordEdit(before);
+                return;
+            }
+            mObjects = mObjects.plus(index, object);
             notifyItemInserted(index);
+            trackIds(unique);
+            recordEdit(before);
         }
     }
 
     /**
-     * Called by the DiffUtil when it wants to check whether two items have the same data.
-     * DiffUtil uses this information to detect if the contents of an item has changed.
-     * <p>
-     * DiffUtil uses this method to check equality instead of {@link Object#equals(Object)}
+     * Inserts the specified objects at the specified index in the array. The items are inserted
+     * at once and a single {@link #notifyItemRangeInserted(int, int)} is dispatched.
+     *
+     * @param index      The index at which the objects must be inserted.
+     * @param collection The objects to insert into the array.
+     */
+    public void insertAll(final int index, @NonNull final Collection<T> collection) {
+        final int length = collection.size();
+        if (length == 0) {
+            return;
+        }
+        for (final T item : collection) {
+            ItemDiffs.requireNotNullItem(item);
+        }
+        synchronized (mLock) {
+            checkInsertIndex(index);
+            final PersistentList<T> before = mObjects;
+            final LinkedHashMap<Object, T> unique = dropDuplicateIds(collection);
+            final Collection<T> added = unique == null ? collection : unique.values();
+            if (!added.isEmpty()) {
+                mObjects = mObjects.splice(index, index, added);
+                notifyItemRangeInserted(index, added.size());
+                trackIds(unique);
+            }
+            recordEdit(before);
+        }
+    }
+
+    /**
+     * Batched version of {@link #invalidateById(Object, Object)}
+     *
+     * @param ids     ids of the changed items
+     * @param payload payload passed to {@link #onBindViewHolder(RecyclerView.ViewHolder, int,
+     *                List)} or {@code null} for a full rebind
+     */
+    public void invalidateAll(@NonNull final Collection<?> ids, @Nullable final Object payload) {
+        synchronized (mLock) {
+            for (final Object id : ids) {
+                addInvalidation(id, payload);
+            }
+            scheduleInvalidations();
+        }
+    }
+
+    /**
+     * Notifies a change of the item with the id without replacing it, i.e. when a mutable
+     * download progress was updated. The position is resolved through an id index when the
+     * change is dispatched on the main thread. Changes are collected and dispatched at most once
+     * per frame as {@link #notifyItemRangeChanged(int, int, Object)} of consecutive positions,
+     * invalidating an id again before that is merged. Ids which aren't part of the adapter
+     * anymore are ignored.
+     * <p>
+     * Can be called from any thread.
+     *
+     * @param id      id of the changed item, see {@link #getItemId(Object)}
+     * @param payload payload passed to {@link #onBindViewHolder(RecyclerView.ViewHolder, int,
+     *                List)} or {@code null} for a full rebind. Different payloads for the same
+     *                id within a frame are all dispatched and collected by the
+     *                {@link RecyclerView}, equal payloads only once.
+     */
+    public void invalidateById(@NonNull final Object id, @Nullable final Object payload) {
+        synchronized (mLock) {
+            addInvalidation(id, payload);
+            scheduleInvalidations();
+        }
+    }
+
+    /**
+     * Moves the item at {@code from} to {@code to}, i.e. for drag and drop reordering. Only the
+     * items between both positions are shifted and a single {@link #notifyItemMoved(int, int)}
+     * is dispatched.
+     *
+     * @param from current position of the item
+     * @param to   position of the item after the move
+     */
+    public void move(final int from, final int to) {
+        moveAll(from, 1, to);
+    }
+
+    /**
+     * Moves {@code count} items starting at {@code fromStart} so that the first moved item ends
+     * up at position {@code to}. The range between the old and new position is rotated and one
+     * {@link #notifyItemMoved(int, int)} per moved item is dispatched.
+     *
+     * @param fromStart position of the first item to move
+     * @param count     number of items to move
+     * @param to        position of the first moved item after the move
+     */
+    public void moveAll(final int fromStart, final int count, final int to) {
+        synchronized (mLock) {
+            final int size = mObjects.size();
+            if (fromStart < 0 || count < 0 || fromStart + count > size || to < 0
+                    || to + count > size) {
+                throw new IndexOutOfBoundsException("Move: " + count + " items from "
+                        + fromStart + " to " + to + ", Size: " + size);
+            }
+            if (count == 0 || fromStart == to) {
+                return;
+            }
+            final PersistentList<T> before = mObjects;
+            final int start = Math.min(fromStart, to);
+            final int end = Math.max(fromStart, to) + count;
+            final List<T> range = new ArrayList<>(mObjects.subList(start, end));
+            // moving forward rotates the range to the left, backward to the right
+            Collections.rotate(range, fromStart < to ? -count : count);
+            mObjects = mObjects.splice(start, end, range);
+
+            for (int i = 0; i < count; i++) {
+                if (fromStart < to) {
+                    // the next item of the block is always at fromStart
+                    notifyItemMoved(fromStart, to + count - 1);
+                } else {
+                    notifyItemMoved(fromStart + i, to + i);
+                }
+            }
+            recordEdit(before);
+        }
+    }
+
+    /**
+     * Called by the DiffUtil when it wants to check whether two items have the same data.
+     * DiffUtil uses this information to detect if the contents of an item has changed.
+     * <p>
+     * DiffUtil uses this method to check equality instead of {@link Object#equals(Object)}
      * so that you can change its behavior depending on your UI.
      * For example, if you are using DiffUtil with a
      * {@link android.support.v7.widget.RecyclerView.Adapter RecyclerView.Adapter}, you should
@@ -215,8 +896,9 @@ public abstract class ArrayAdapter<T, VH extends RecyclerView.ViewHolder>
      *                oldItem
      * @return True if the contents of the items are the same or false if they are different.
      */
+    @Override
     public boolean isContentTheSame(@Nullable final T oldItem, @Nullable final T newItem) {
-        return (oldItem == newItem) || (oldItem != null && oldItem.equals(newItem));
+        return ItemDiffs.isContentTheSame(oldItem, newItem);
     }
 
     /**
@@ -229,19 +911,96 @@ public abstract class ArrayAdapter<T, VH extends RecyclerView.ViewHolder>
      * @return True if the two items represent the same object or false if they are different.
      * @see #getItemId(Object)
      */
+    @Override
     public boolean isItemTheSame(@Nullable final T oldItem, @Nullable final T newItem) {
+        if (oldItem == null || newItem == null) {
+            return oldItem == newItem;
+        }
+        return ItemDiffs.isSameId(getItemId(oldItem), getItemId(newItem));
+    }
 
-        if (oldItem == null && newItem == null) {
-            return true;
+    /**
+     * @param position position of the item
+     * @return true when the item at the position is selected
+     */
+    public boolean isSelected(final int position) {
+        synchronized (mLock) {
+            return mSelection != null && position >= 0 && mSelection.contains(position);
         }
-        if (oldItem == null || newItem == null) {
-            return false;
+    }
+
+    /**
+     * Prepares the bind data of the items in the position range {@code [from, to]} in the
+     * background, i.e. for the first page before it is shown. Does nothing when prefetching is
+     * disabled.
+     *
+     * @see #setBindDataPrefetch(Executor, int, int)
+     */
+    public void prefetchBindData(final int from, final int to) {
+        final BindDataPrefetcher<T> prefetcher = mPrefetcher;
+        if (prefetcher != null) {
+            prefetcher.prefetch(from, to);
         }
+    }
 
-        final Object oldId = getItemId(oldItem);
-        final Object newId = getItemId(newItem);
+    /**
+     * Hook to precompute expensive data needed to bind an item (text layouts, formatted spans,
+     * image decoding parameters). Called on the executor of
+     * {@link #setBindDataPrefetch(Executor, int, int)} for items close to the visible window,
+     * must be thread safe. Read the result with {@link #getPreparedBindData(int)}.
+     *
+     * @param item the item to prepare
+     * @return data for binding the item, {@code null} by default
+     */
+    @Nullable
+    @WorkerThread
+    protected Object prepareBindData(@NonNull final T item) {
+        return null;
+    }
 
-        return (oldId == newId) || (oldId != null && oldId.equals(newId));
+    /**
+     * Restores the mutation which was reverted last by {@link #undo()} and dispatches the same
+     * notifications as the original mutation.
+     *
+     * @return true when a mutation was restored
+     */
+    public boolean redo() {
+        synchronized (mLock) {
+            final EditHistory.Edit<T> edit = mHistory == null ? null : mHistory.popRedo();
+            if (edit == null) {
+                return false;
+            }
+            mObjects = edit.after;
+            if (edit.order != null) {
+                dispatchReorder(edit.order);
+            } else {
+                edit.script.dispatchTo(mNotifier);
+            }
+            mHistory.discardPending();
+            return true;
+        }
+    }
+
+    @Override
+    public void onAttachedToRecyclerView(final RecyclerView recyclerView) {
+        super.onAttachedToRecyclerView(recyclerView);
+        mRecyclerView = recyclerView;
+        if (mPrefetcher != null) {
+            recyclerView.addOnScrollListener(mPrefetcher);
+        }
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(final RecyclerView recyclerView) {
+        super.onDetachedFromRecyclerView(recyclerView);
+        if (mPrefetcher != null) {
+            recyclerView.removeOnScrollListener(mPrefetcher);
+        }
+        mRecyclerView = null;
+        // nobody sees the items anymore, stop reading
+        for (final StreamingAppend<T> stream : new ArrayList<>(mStreams)) {
+            stream.cancel();
+        }
     }
 
     /**
@@ -252,14 +1011,47 @@ public abstract class ArrayAdapter<T, VH extends RecyclerView.ViewHolder>
     public void remove(@NonNull T object) {
         synchronized (mLock) {
             final int position = getPosition(object);
-            final boolean removed = mObjects.remove(object);
-            if (removed) {
+            if (position != -1) {
+                final PersistentList<T> before = mObjects;
+                mObjects = mObjects.minus(position);
                 notifyItemRemoved(position);
+                if (mIds != null && mIdsVersion == before && mIds.size() == before.size()) {
+                    // ids are unique, the removed item was the only one with this id
+                    mIds.remove(getItemId(object));
+                    mIdsVersion = mObjects;
+                } else {
+                    // another item may have the same id, rebuilt when needed
+                    mIdsVersion = null;
+                }
+                recordEdit(before);
             }
         }
 
     }
 
+    /**
+     * Removes the objects in the range {@code [from, to)} with a single
+     * {@link #notifyItemRangeRemoved(int, int)}.
+     *
+     * @param from index of the first object to remove
+     * @param to   index after the last object to remove
+     */
+    public void removeRange(final int from, final int to) {
+        synchronized (mLock) {
+            if (from < 0 || to > mObjects.size() || from > to) {
+                throw new IndexOutOfBoundsException(
+                        "Range: [" + from + ", " + to + "), Size: " + mObjects.size());
+            }
+            if (from == to) {
+                return;
+            }
+            final PersistentList<T> before = mObjects;
+            mObjects = mObjects.splice(from, to, Collections.<T>emptyList());
+            notifyItemRangeRemoved(from, to - from);
+            recordEdit(before);
+        }
+    }
+
     /**
      * replaces the old with the new item. The new item will not be added when the old one is not
      * found.
@@ -268,8 +1060,8 @@ public abstract class ArrayAdapter<T, VH extends RecyclerView.ViewHolder>
      * @param newObject is added only when hte old item is removed
      */
     public void replaceItem(@NonNull final T oldObject, @NonNull final T newObject) {
-        requireNotNullItem(oldObject);
-        requireNotNullItem(newObject);
+        ItemDiffs.requireNotNullItem(oldObject);
+        ItemDiffs.requireNotNullItem(newObject);
 
         synchronized (mLock) {
             final int position = getPosition(oldObject);
@@ -278,22 +1070,234 @@ public abstract class ArrayAdapter<T, VH extends RecyclerView.ViewHolder>
                 return;
             }
 
-            mObjects.remove(position);
-            mObjects.add(position, newObject);
+            final PersistentList<T> before = mObjects;
+            mObjects = mObjects.with(position, newObject);
 
             if (isItemTheSame(oldObject, newObject)) {
-                if (isContentTheSame(oldObject, newObject)) {
-                    // visible content hasn't changed, don't notify
-                    return;
+                // don't notify when the visible content hasn't changed
+                if (!isContentTheSame(oldObject, newObject)) {
+                    // item with same stable id has changed
+                    notifyItemChanged(position, newObject);
                 }
-
-                // item with same stable id has changed
-                notifyItemChanged(position, newObject);
             } else {
                 // item replaced with another one with a different id
                 notifyItemRemoved(position);
                 notifyItemInserted(position);
             }
+            recordEdit(before);
+        }
+    }
+
+    /**
+     * Replaces the objects in the range {@code [from, to)} with {@code newObjects}. Only this
+     * range is diffed using {@link #isItemTheSame(Object, Object)} and
+     * {@link #isContentTheSame(Object, Object)}, items with the same id in both lists result in
+     * change notifications instead of remove and insert.
+     *
+     * @param from       index of the first object to replace
+     * @param to         index after the last object to replace
+     * @param newObjects objects replacing the range
+     */
+    public void replaceRange(final int from, final int to, @NonNull final List<T> newObjects) {
+        for (final T item : newObjects) {
+            ItemDiffs.requireNotNullItem(item);
+        }
+        synchronized (mLock) {
+            if (from < 0 || to > mObjects.size() || from > to) {
+                throw new IndexOutOfBoundsException(
+                        "Range: [" + from + ", " + to + "), Size: " + mObjects.size());
+            }
+            final List<T> oldObjects = mObjects.subList(from, to);
+            final ReusableDiffCallback<T> callback = createDiffCallback(oldObjects, newObjects);
+            final DiffUtil.DiffResult result;
+            try {
+                result = DiffUtil.calculateDiff(callback);
+            } finally {
+                callback.release();
+            }
+            final PersistentList<T> before = mObjects;
+            mObjects = mObjects.splice(from, to, newObjects);
+            mOffsetNotifier.offset = from;
+            result.dispatchUpdatesTo(mOffsetNotifier);
+            recordEdit(before);
+        }
+    }
+
+    /**
+     * Selects all items with a single range change notification carrying
+     * {@link #PAYLOAD_SELECTION}
+     */
+    public void selectAll() {
+        selectRange(0, getItemCount());
+    }
+
+    /**
+     * Selects the items from {@code from} (inclusive) to {@code to} (exclusive) with a single
+     * range change notification carrying {@link #PAYLOAD_SELECTION}.
+     *
+     * @param from position of the first selected item
+     * @param to   position after the last selected item
+     */
+    public void selectRange(final int from, final int to) {
+        synchronized (mLock) {
+            if (from < 0 || to > mObjects.size() || from > to) {
+                throw new IndexOutOfBoundsException(
+                        "invalid range [" + from + ", " + to + ") for size " + mObjects.size());
+            }
+            if (from == to) {
+                return;
+            }
+            requireSelection().set(from, to, true);
+            notifySelectionChanged(from, to);
+        }
+    }
+
+    /**
+     * Enables prefetching of bind data. While scrolling {@link #prepareBindData(Object)} is
+     * called on the {@code executor} for the next {@code lookahead} items in scroll direction.
+     * The results are cached by {@link #getItemId(Object)} and dropped when the item changes
+     * according to {@link #isContentTheSame(Object, Object)}.
+     *
+     * @param executor  background executor, {@code null} disables prefetching
+     * @param lookahead number of items to prepare ahead of the visible window
+     * @param cacheSize maximum number of cached results
+     */
+    public void setBindDataPrefetch(@Nullable final Executor executor, final int lookahead,
+            final int cacheSize) {
+        if (lookahead < 0 || cacheSize < 1) {
+            throw new IllegalArgumentException(
+                    "invalid lookahead " + lookahead + " or cacheSize " + cacheSize);
+        }
+        if (mPrefetcher != null) {
+            mPrefetcher.detach();
+            if (mRecyclerView != null) {
+                mRecyclerView.removeOnScrollListener(mPrefetcher);
+            }
+            mPrefetcher = null;
+        }
+        if (executor != null) {
+            mPrefetcher = new BindDataPrefetcher<>(this, executor, lookahead, cacheSize);
+            mPrefetcher.attach();
+            if (mRecyclerView != null) {
+                mRecyclerView.addOnScrollListener(mPrefetcher);
+            }
+        }
+    }
+
+    /**
+     * Caches the diffs calculated by {@link #swap(List)} for the last {@code size} transitions
+     * between two versions of the items, i.e. when switching back and forth between a few
+     * filters. The version of a list is the one passed to {@link #swap(List, long)} or a
+     * fingerprint of the ids and {@link Object#hashCode()}s of the items. Reusing a diff skips
+     * {@link #isItemTheSame(Object, Object)} and {@link #isContentTheSame(Object, Object)},
+     * {@link Object#hashCode()} has to be consistent with the latter when fingerprints are used.
+     *
+     * @param size maximum number of cached diffs, 0 disables the cache
+     */
+    public void setDiffCacheSize(final int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size must be >= 0, was " + size);
+        }
+        synchronized (mLock) {
+            mDiffCache = size == 0 ? null : new DiffCache(size);
+        }
+    }
+
+    /**
+     * Enforces unique ids returned by {@link #getItemId(Object)} for items added with
+     * {@link #add(Object)}, {@link #addAll(Collection)}, {@link #insert(Object, int)},
+     * {@link #insertAll(int, Collection)} and {@link #swap(List)}, i.e. for overlapping pages of a
+     * paginated response. Duplicates are detected with a hash set of the current ids which is
+     * updated incrementally when items are added. Items which are already part of the adapter
+     * are not checked when the policy is set.
+     *
+     * @param policy how to handle items with a duplicate id, {@link #DUPLICATE_IDS_ALLOW}
+     *               disables the check
+     * @see #getDroppedDuplicateCount()
+     */
+    public void setDuplicateIdPolicy(@DuplicateIdPolicy final int policy) {
+        synchronized (mLock) {
+            mDuplicateIdPolicy = policy;
+            mDroppedDuplicates = 0;
+            mIds = null;
+            mIdsVersion = null;
+        }
+    }
+
+    /**
+     * Enables the parallel diff mode for {@link #swap(List)}. When the old or the new list
+     * contains at least {@code threshold} items the items with matching ids are compared with
+     * {@link #isContentTheSame(Object, Object)} in parallel on the {@code executor} before
+     * {@link DiffUtil} calculates the update notifications. Smaller lists are diffed
+     * sequentially.
+     * <p>
+     * {@link #isContentTheSame(Object, Object)} and {@link #getItemId(Object)} have to be thread
+     * safe when enabled. Use it when comparing the content of items is expensive.
+     * <p>
+     * The calling thread compares the items the executor didn't get to yet, a serial executor or
+     * one posting to the thread calling {@link #swap(List)} slows the diff down but can't block
+     * it.
+     *
+     * @param executor  executes the comparisons, {@code null} disables the parallel diff mode
+     * @param threshold minimum list size to diff in parallel
+     */
+    public void setParallelDiffExecutor(@Nullable final Executor executor, final int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("threshold must be >= 0, was " + threshold);
+        }
+        mParallelDiffExecutor = executor;
+        mParallelDiffThreshold = threshold;
+    }
+
+    /**
+     * Selects or deselects the item at the position. The selection follows the item when it
+     * moves, i.e. during {@link #sort(Comparator)} or {@link #swap(List)}, and is dropped when
+     * the item is removed. Items are matched by {@link #getItemId(Object)}.
+     *
+     * @param position position of the item
+     * @param selected the new selection state
+     */
+    public void setSelected(final int position, final boolean selected) {
+        synchronized (mLock) {
+            if (position < 0 || position >= mObjects.size()) {
+                throw new IndexOutOfBoundsException(
+                        "position " + position + " for size " + mObjects.size());
+            }
+            if (isSelected(position) == selected) {
+                return;
+            }
+            requireSelection().set(position, selected);
+            notifySelectionChanged(position, position + 1);
+        }
+    }
+
+    /**
+     * Enables the undo/redo history recording the last {@code size} mutations ({@link #add},
+     * {@link #addAll}, {@link #insert}, {@link #remove}, {@link #replaceItem}, {@link #sort},
+     * {@link #swap(List)}, {@link #clear()} and the range operations). Reverting a mutation
+     * restores the previous version of the items and dispatches the inverse notifications without
+     * diffing.
+     * <p>
+     * Memory usage is proportional to the number of changed items, not the size of the list.
+     *
+     * @param size maximum number of recorded mutations, {@code 0} disables the history
+     */
+    public void setUndoHistorySize(final int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size must be >= 0, was " + size);
+        }
+        synchronized (mLock) {
+            if (size == 0) {
+                if (mHistory != null) {
+                    unregisterAdapterDataObserver(mHistory);
+                    mHistory = null;
+                }
+            } else if (mHistory == null) {
+                mHistory = new EditHistory<>(size);
+                registerAdapterDataObserver(mHistory);
+            } else {
+                mHistory.setMaxSize(size);
+            }
         }
     }
 
@@ -308,6 +1312,28 @@ public abstract class ArrayAdapter<T, VH extends RecyclerView.ViewHolder>
         swap(copy);
     }
 
+    /**
+     * Sorts the items with a stable parallel merge sort on the {@code executor}, for lists which
+     * are too large to sort on the main thread. The adapter keeps the current order until the
+     * sorted items are posted back to the main thread and applied with a single
+     * {@link #notifyItemRangeChanged(int, int)} of all items instead of one move per item. The
+     * selection and the cached layout follow the items, also when the sort is undone or redone.
+     * <p>
+     * The sort is cancelled when the items are mutated before it is applied. The
+     * {@code comparator} has to be thread safe.
+     *
+     * @param comparator the comparator used to sort the items
+     * @param executor   runs the sort tasks, up to one task per processor at a time
+     * @return handle to cancel the sort
+     */
+    @NonNull
+    public ParallelSort<T> sortParallel(@NonNull final Comparator<? super T> comparator,
+            @NonNull final Executor executor) {
+        final ParallelSort<T> sort = new ParallelSort<>(this, snapshot(), comparator, executor);
+        sort.start();
+        return sort;
+    }
+
     /**
      * Swaps the data, removes all existing data and replaces them with a new set of data. {@link
      * DiffUtil} will coordinate to update notifications. Make sure {@link #getItemId(Object)} is
@@ -317,52 +1343,766 @@ public abstract class ArrayAdapter<T, VH extends RecyclerView.ViewHolder>
      * @see #isContentTheSame(Object, Object)
      * @see #isItemTheSame(Object, Object)
      */
-    @SuppressWarnings("ConstantConditions")
     public void swap(@Nullable final List<T> newObjects) {
         if (newObjects == null) {
             clear();
         } else {
-            synchronized (mLock) {
-                final DiffUtil.DiffResult result = DiffUtil.calculateDiff(new DiffUtil.Callback() {
-                    @Override
-                    public boolean areContentsTheSame(final int oldItemPosition,
-                            final int newItemPosition) {
-                        final T oldItem = mObjects.get(oldItemPosition);
-                        final T newItem = newObjects.get(newItemPosition);
-                        return isContentTheSame(oldItem, newItem);
-                    }
+            swap(newObjects, false, 0);
+        }
+    }
 
-                    @Override
-                    public boolean areItemsTheSame(final int oldItemPosition,
-                            final int newItemPosition) {
-                        final T oldItem = mObjects.get(oldItemPosition);
-                        final T newItem = newObjects.get(newItemPosition);
-                        return isItemTheSame(oldItem, newItem);
-                    }
+    /**
+     * Swaps the data like {@link #swap(List)} and assigns a version to the new items, i.e. the
+     * filter or tab they belong to. With {@link #setDiffCacheSize(int)} the diff from the
+     * current version to {@code version} is cached and reused when the same transition (or the
+     * opposite one) recurs. The version has to change whenever the items change, otherwise an
+     * outdated diff is reused.
+     *
+     * @param newObjects new set of data
+     * @param version    version of {@code newObjects}
+     */
+    public void swap(@NonNull final List<T> newObjects, final long version) {
+        swap(newObjects, true, version);
+    }
+
+    /**
+     * Like {@link #swap(List)} but calculates the diff on the main thread in slices of 4ms which
+     * are posted to the main thread, so the UI stays responsive while large lists are diffed
+     * without a background thread.
+     *
+     * @see #swapIncrementally(List, IncrementalDiff.Scheduler, long)
+     */
+    @NonNull
+    @MainThread
+    public IncrementalDiff<T> swapIncrementally(@NonNull final List<T> newObjects) {
+        return swapIncrementally(newObjects, IncrementalDiff.mainThreadScheduler(),
+                IncrementalDiff.DEFAULT_SLICE_NANOS);
+    }
+
+    /**
+     * Swaps the data like {@link #swap(List)} but calculates the diff in time slices which run
+     * one after another on the {@code scheduler}. The adapter shows the current items until the
+     * diff is finished, then the new items are applied together with all notifications at once.
+     * <p>
+     * Items are matched by {@link #getItemId(Object)}, {@link #isItemTheSame(Object, Object)} is
+     * not called. The swap is cancelled when the items are mutated before the diff finished or
+     * when another incremental swap is started.
+     * <p>
+     * Even the copy of {@code newObjects} is sliced, don't modify the list until the diff
+     * finished. A {@code null} item or an id rejected by the {@link DuplicateIdPolicy} throws
+     * from the slice reaching it, the adapter keeps the current items.
+     *
+     * @param newObjects new set of data
+     * @param scheduler  runs the slices, {@link IncrementalDiff#mainThreadScheduler()} on Android
+     * @param sliceNanos time budget of a slice
+     * @return handle to cancel the swap and to read the slice statistics
+     */
+    @NonNull
+    @MainThread
+    public IncrementalDiff<T> swapIncrementally(@NonNull final List<T> newObjects,
+            @NonNull final IncrementalDiff.Scheduler scheduler, final long sliceNanos) {
+        final IncrementalDiff<T> diff;
+        synchronized (mLock) {
+            if (mPendingDiff != null) {
+                mPendingDiff.cancel();
+            }
+            // the new items are checked and copied by the slices as well
+            diff = new IncrementalDiff<>(this, mObjects, newObjects, mDuplicateIdPolicy,
+                    scheduler, sliceNanos);
+            mPendingDiff = diff;
+        }
+        diff.start();
+        return diff;
+    }
+
+    /**
+     * Releases memory which is not needed for the current items. Rebuilds the item tree with full
+     * nodes when many removals left it sparsely filled and shrinks the lookup structures to the
+     * current size, releasing the capacity reserved by {@link #ensureCapacity(int)}. Called
+     * automatically when {@link #clear()} or {@link #swap(List)} shrinks the list considerably.
+     */
+    public void trimToSize() {
+        synchronized (mLock) {
+            // same items, no notification required
+            mObjects = mObjects.compact();
+            mReservedCapacity = 0;
+            // rebuilt for the current items when needed
+            mIds = null;
+            mIdsVersion = null;
+            if (mPositions != null) {
+                mPositions.trimToSize();
+            }
+            if (mSelection != null) {
+                mSelection.trimToSize();
+            }
+            if (mLayoutCache != null) {
+                mLayoutCache.trimToSize();
+            }
+        }
+    }
+
+    /**
+     * Reverts the last mutation. Restores the previous items and dispatches the inverse of the
+     * notifications of the reverted mutation. Requires {@link #setUndoHistorySize(int)}.
+     *
+     * @return true when a mutation was reverted
+     */
+    public boolean undo() {
+        synchronized (mLock) {
+            final EditHistory.Edit<T> edit = mHistory == null ? null : mHistory.popUndo();
+            if (edit == null) {
+                return false;
+            }
+            mObjects = edit.before;
+            if (edit.order != null) {
+                dispatchReorder(invert(edit.order));
+            } else {
+                edit.script.dispatchInverseTo(mNotifier);
+            }
+            mHistory.discardPending();
+            return true;
+        }
+    }
+
+    /**
+     * Replaces the items and dispatches the already calculated {@code changes} without diffing.
+     * Used by {@link ArrayDataSource} to share one calculation across adapters.
+     *
+     * @param items   the new items
+     * @param changes operations transforming the current items into {@code items}
+     */
+    void applyChanges(@NonNull final PersistentList<T> items,
+            @NonNull final UpdateScript changes) {
+        synchronized (mLock) {
+            final PersistentList<T> before = mObjects;
+            mObjects = items;
+            changes.dispatchTo(mNotifier);
+            recordEdit(before);
+        }
+    }
 
-                    @Override
-                    public int getNewListSize() {
-                        return newObjects.size();
+    /**
+     * applies the result of a finished {@link IncrementalDiff}, called by its last slice
+     *
+     * @return false when the items were mutated while diffing and the result is outdated
+     */
+    boolean applyIncrementalDiff(@NonNull final IncrementalDiff<T> diff) {
+        synchronized (mLock) {
+            if (mPendingDiff == diff) {
+                mPendingDiff = null;
+            }
+            if (mObjects != diff.getOldItems()) {
+                return false;
+            }
+            mDroppedDuplicates += diff.getDroppedDuplicates();
+            applyChanges(diff.getNewItems(), diff.getScript());
+            trimWhenShrunk(diff.getOldItems().size());
+            return true;
+        }
+    }
+
+    /**
+     * forgets a cancelled {@link IncrementalDiff}, called by its next slice
+     */
+    void releaseIncrementalDiff(@NonNull final IncrementalDiff<T> diff) {
+        synchronized (mLock) {
+            if (mPendingDiff == diff) {
+                mPendingDiff = null;
+            }
+        }
+    }
+
+    /**
+     * applies the items of a finished {@link ParallelSort}, called on the main thread
+     *
+     * @return false when the items were mutated while sorting and the result is outdated
+     */
+    boolean applyParallelSort(@NonNull final ParallelSort<T> sort) {
+        synchronized (mLock) {
+            final PersistentList<T> before = mObjects;
+            if (before != sort.getSnapshot()) {
+                return false;
+            }
+            mObjects = sort.getSorted();
+            if (mIdsVersion == before) {
+                // same ids in a different order
+                mIdsVersion = mObjects;
+            }
+            dispatchReorder(sort.getOrder());
+            if (mHistory != null) {
+                mHistory.record(before, mObjects, sort.getOrder());
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Creates the {@link DiffUtil.Callback} used by {@link #swap(List)} to compare the current
+     * items with the new ones. Subclasses can override this to compare items based on
+     * precomputed data instead of calling {@link #isItemTheSame(Object, Object)} for every pair.
+     * <p>
+     * The callback is reused for every diff, {@link ReusableDiffCallback#release()} has to be
+     * called when the diff is calculated.
+     *
+     * @param oldItems the current items of this adapter
+     * @param newItems the items which will replace {@code oldItems}
+     * @return a callback comparing {@code oldItems} with {@code newItems}
+     */
+    @NonNull
+    ReusableDiffCallback<T> createDiffCallback(@NonNull final List<T> oldItems,
+            @NonNull final List<T> newItems) {
+        return mDiffCallback.prepare(oldItems, newItems);
+    }
+
+    /**
+     * @return the incremental swap which is in progress, {@code null} when there is none
+     */
+    @Nullable
+    IncrementalDiff<T> getPendingDiff() {
+        synchronized (mLock) {
+            return mPendingDiff;
+        }
+    }
+
+    /**
+     * @return the lock held while the items are mutated and the notifications are dispatched
+     */
+    @NonNull
+    Object getLock() {
+        return mLock;
+    }
+
+    /**
+     * @return bytes allocated by lookup structures which grow with the number of items
+     */
+    long getIndexBytes() {
+        final ItemLayoutCache<T> layoutCache = mLayoutCache;
+        // the id set is sized for twice the reserved capacity
+        final long idBytes = mIds == null ? 0 : MemoryStats.estimateHashBytes(
+                Math.max(mIds.size(), mReservedCapacity) * 2, mIds.size(),
+                MemoryStats.HASH_ENTRY_BYTES);
+        return (mSelection == null ? 0 : mSelection.getAllocatedBytes())
+                + (layoutCache == null ? 0 : layoutCache.getAllocatedBytes())
+                + (mPositions == null ? 0 : mPositions.getAllocatedBytes())
+                + idBytes;
+    }
+
+    /**
+     * Returns the position of the first item with the id. The lookup is backed by an index which
+     * follows the notifications, see {@link ItemPositionIndex}.
+     *
+     * @return the position or -1 when no item has the id
+     */
+    int getPositionForItemId(@NonNull final Object id) {
+        synchronized (mLock) {
+            if (mPositions == null) {
+                mPositions = new ItemPositionIndex<>(this);
+                mPositions.ensureCapacity(mReservedCapacity);
+                registerAdapterDataObserver(mPositions);
+            }
+            return mPositions.get(id);
+        }
+    }
+
+    /**
+     * @return true while the change of all positions of a reorder by {@link
+     * #sortParallel(Comparator, Executor)} or its undo is notified. No item was changed, caches
+     * by id stay valid and caches by position are moved by the adapter.
+     */
+    boolean isReordering() {
+        return mReordering;
+    }
+
+    /**
+     * @return true while changes of {@link #invalidateById(Object, Object)} are notified, they
+     * don't change the id of any position
+     */
+    boolean isDispatchingInvalidations() {
+        return mDispatchingInvalidations;
+    }
+
+    /**
+     * called on the main thread when a stream started by {@link #appendStream(Iterator,
+     * Executor)} added its last item
+     */
+    void onStreamFinished(@NonNull final StreamingAppend<T> stream) {
+        mStreams.remove(stream);
+    }
+
+    /**
+     * adds a pending invalidation, collects the different payloads for the same id. A full
+     * rebind replaces the payloads.
+     */
+    private void addInvalidation(@NonNull final Object id, @Nullable final Object payload) {
+        List<Object> payloads = mInvalidated.get(id);
+        if (payloads == null && mInvalidated.containsKey(id)) {
+            // full rebind pending
+            return;
+        }
+        if (payload == null) {
+            mInvalidated.put(id, null);
+            return;
+        }
+        if (payloads == null) {
+            payloads = new ArrayList<>(1);
+            mInvalidated.put(id, payloads);
+        }
+        if (!payloads.contains(payload)) {
+            payloads.add(payload);
+        }
+    }
+
+    /**
+     * calculates the diff between the items with the callback of {@link
+     * #createDiffCallback(List, List)}, in parallel when enabled
+     */
+    @NonNull
+    private DiffUtil.DiffResult calculateDiff(@NonNull final List<T> oldItems,
+            @NonNull final List<T> newItems) {
+        final ReusableDiffCallback<T> itemCallback = createDiffCallback(oldItems, newItems);
+        DiffUtil.Callback callback = itemCallback;
+        final Executor executor = mParallelDiffExecutor;
+        if (executor != null
+                && Math.max(oldItems.size(), newItems.size()) >= mParallelDiffThreshold) {
+            callback = new ParallelDiffCallback<>(this, callback, oldItems, newItems, executor);
+        }
+        try {
+            return DiffUtil.calculateDiff(callback);
+        } finally {
+            itemCallback.release();
+        }
+    }
+
+    /**
+     * throws before {@link #dropDuplicateIds(Collection)} replaces existing items, an invalid
+     * insert must not change anything
+     */
+    private void checkInsertIndex(final int index) {
+        if (index < 0 || index > mObjects.size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mObjects.size());
+        }
+    }
+
+    /**
+     * @return the version of the current items, the fingerprint of the items when they were not
+     * set by a versioned swap
+     */
+    private long currentVersion() {
+        if (mVersionOf != mObjects) {
+            mVersion = fingerprint(mObjects);
+            mVersionOf = mObjects;
+            mVersionIsUser = false;
+        }
+        return mVersion;
+    }
+
+    /**
+     * @return the ids of the current items, rebuilt when the items were changed by a mutation
+     * which doesn't track the ids
+     */
+    @NonNull
+    private HashSet<Object> currentIds() {
+        if (mIds == null || mIdsVersion != mObjects) {
+            mIds = new HashSet<>(Math.max(mObjects.size(), mReservedCapacity) * 2);
+            for (final T item : mObjects) {
+                mIds.add(getItemId(item));
+            }
+            mIdsVersion = mObjects;
+        }
+        return mIds;
+    }
+
+    /**
+     * notifies the positions of the pending invalidations, consecutive positions with equal
+     * payloads as one range
+     */
+    private void dispatchInvalidations() {
+        synchronized (mLock) {
+            mInvalidationScheduled = false;
+            mLastInvalidationDispatch = SystemClock.uptimeMillis();
+            if (mInvalidated.isEmpty()) {
+                return;
+            }
+            final TreeMap<Integer, List<Object>> changed = new TreeMap<>();
+            for (final Map.Entry<Object, List<Object>> entry : mInvalidated.entrySet()) {
+                final int position = getPositionForItemId(entry.getKey());
+                if (position >= 0) {
+                    changed.put(position, entry.getValue());
+                }
+            }
+            mInvalidated.clear();
+
+            mDispatchingInvalidations = true;
+            try {
+                int start = -1;
+                int end = -1;
+                List<Object> payloads = null;
+                for (final Map.Entry<Integer, List<Object>> entry : changed.entrySet()) {
+                    final int position = entry.getKey();
+                    final List<Object> value = entry.getValue();
+                    if (position == end
+                            && (payloads == null ? value == null : payloads.equals(value))) {
+                        end++;
+                        continue;
                     }
+                    if (start >= 0) {
+                        notifyInvalidated(start, end - start, payloads);
+                    }
+                    start = position;
+                    end = position + 1;
+                    payloads = value;
+                }
+                if (start >= 0) {
+                    notifyInvalidated(start, end - start, payloads);
+                }
+            } finally {
+                mDispatchingInvalidations = false;
+            }
+            if (mHistory != null) {
+                // the items weren't replaced, nothing to undo
+                mHistory.discardPending();
+            }
+        }
+    }
 
-                    @Override
-                    public int getOldListSize() {
-                        return mObjects.size();
+    /**
+     * Applies the {@link DuplicateIdPolicy} to items which will be added. Items with an id of an
+     * existing item are replaced in place for {@link #DUPLICATE_IDS_REPLACE}.
+     *
+     * @return the items to add by id or {@code null} when duplicates are allowed
+     * @throws IllegalArgumentException for a duplicate with {@link #DUPLICATE_IDS_REJECT}
+     */
+    @Nullable
+    private LinkedHashMap<Object, T> dropDuplicateIds(@NonNull final Collection<T> items) {
+        if (mDuplicateIdPolicy == DUPLICATE_IDS_ALLOW) {
+            return null;
+        }
+        final HashSet<Object> ids = currentIds();
+        final LinkedHashMap<Object, T> unique = new LinkedHashMap<>(items.size() * 2);
+        HashMap<Object, T> replacements = null;
+        int dropped = 0;
+        for (final T item : items) {
+            final Object id = getItemId(item);
+            final boolean existing = ids.contains(id);
+            if (!existing && !unique.containsKey(id)) {
+                unique.put(id, item);
+                continue;
+            }
+            if (mDuplicateIdPolicy == DUPLICATE_IDS_REJECT) {
+                throw new IllegalArgumentException("duplicate id " + id + " of item " + item);
+            }
+            dropped++;
+            if (mDuplicateIdPolicy == DUPLICATE_IDS_REPLACE) {
+                if (existing) {
+                    if (replacements == null) {
+                        replacements = new HashMap<>();
                     }
-                });
-                mObjects.clear();
+                    replacements.put(id, item);
+                } else {
+                    // keeps the position of the first item with the id in the batch
+                    unique.put(id, item);
+                }
+            }
+        }
+        mDroppedDuplicates += dropped;
+        if (replacements != null) {
+            replaceById(replacements);
+        }
+        return unique;
+    }
+
+    /**
+     * Applies the {@link DuplicateIdPolicy} to the new items of {@link #swap(List)}, only
+     * duplicates within {@code items} are dropped.
+     *
+     * @return {@code items} when all ids are unique, otherwise a copy without duplicates
+     */
+    @NonNull
+    private List<T> dropDuplicateIdsOfSwap(@NonNull final List<T> items) {
+        if (mDuplicateIdPolicy == DUPLICATE_IDS_ALLOW) {
+            return items;
+        }
+        final LinkedHashMap<Object, T> unique = new LinkedHashMap<>(items.size() * 2);
+        int dropped = 0;
+        for (final T item : items) {
+            ItemDiffs.requireNotNullItem(item);
+            final Object id = getItemId(item);
+            if (!unique.containsKey(id)) {
+                unique.put(id, item);
+                continue;
+            }
+            if (mDuplicateIdPolicy == DUPLICATE_IDS_REJECT) {
+                throw new IllegalArgumentException("duplicate id " + id + " of item " + item);
+            }
+            dropped++;
+            if (mDuplicateIdPolicy == DUPLICATE_IDS_REPLACE) {
+                unique.put(id, item);
+            }
+        }
+        mDroppedDuplicates += dropped;
+        // the ids of the swapped items are known already. They belong to the current items only
+        // once the swap replaced them, which sets the version, until then they aren't trusted
+        mIds = new HashSet<>(unique.keySet());
+        mIdsVersion = null;
+        return dropped == 0 ? items : new ArrayList<>(unique.values());
+    }
+
+    /**
+     * @return a hash of the ids and the content hashes of all items, in order
+     */
+    private long fingerprint(@NonNull final List<T> items) {
+        long hash = items.size();
+        for (final T item : items) {
+            final Object id = getItemId(item);
+            final long idHash = id == null ? 0 : id.hashCode();
+            hash = hash * 0x9E3779B97F4A7C15L + ((idHash << 32) ^ (item.hashCode() & 0xFFFFFFFFL));
+        }
+        return hash;
+    }
+
+    /**
+     * replaces the items with the ids in {@code replacements} in a single pass
+     */
+    private void replaceById(@NonNull final HashMap<Object, T> replacements) {
+        int position = 0;
+        for (final T item : mObjects) {
+            final T replacement = replacements.get(getItemId(item));
+            if (replacement != null) {
+                mObjects = mObjects.with(position, replacement);
+                if (!isContentTheSame(item, replacement)) {
+                    notifyItemChanged(position, replacement);
+                }
+            }
+            position++;
+        }
+        // ids didn't change
+        mIdsVersion = mObjects;
+    }
+
+    /**
+     * adds the ids of items added by a mutation to the id set
+     */
+    private void trackIds(@Nullable final LinkedHashMap<Object, T> added) {
+        if (added != null && mIds != null) {
+            mIds.addAll(added.keySet());
+            mIdsVersion = mObjects;
+        }
+    }
+
+    /**
+     * Replaces the items with {@code newObjects} and dispatches the diff. With a diff cache the
+     * diff is taken from the cache when the transition between the versions was calculated
+     * before.
+     *
+     * @param hasVersion false to calculate the version of {@code newObjects} from the items
+     */
+    @SuppressWarnings("ConstantConditions")
+    private void swap(@NonNull List<T> newObjects, final boolean hasVersion,
+            final long version) {
+        synchronized (mLock) {
+            newObjects = dropDuplicateIdsOfSwap(newObjects);
+            final PersistentList<T> before = mObjects;
+            if (mDiffCache == null) {
+                final DiffUtil.DiffResult result = calculateDiff(before, newObjects);
                 for (final T item : newObjects) {
-                    requireNotNullItem(item);
-                    mObjects.add(item);
+                    ItemDiffs.requireNotNullItem(item);
+                }
+                mObjects = PersistentList.copyOf(newObjects);
+                if (hasVersion) {
+                    mVersion = version;
+                    mVersionOf = mObjects;
+                    mVersionIsUser = true;
+                }
+                if (mDuplicateIdPolicy != DUPLICATE_IDS_ALLOW) {
+                    mIdsVersion = mObjects;
                 }
                 result.dispatchUpdatesTo(this);
+            } else {
+                for (final T item : newObjects) {
+                    ItemDiffs.requireNotNullItem(item);
+                }
+                final long from = currentVersion();
+                final boolean fromUser = mVersionIsUser;
+                final long to = hasVersion ? version : fingerprint(newObjects);
+                if (from == to && fromUser == hasVersion) {
+                    // only the same user version is known to require no notifications, equal
+                    // fingerprints may collide and are diffed without the cache
+                    final DiffUtil.DiffResult result = hasVersion
+                            ? null : calculateDiff(before, newObjects);
+                    setVersionedItems(newObjects, to, hasVersion);
+                    if (result != null) {
+                        result.dispatchUpdatesTo(this);
+                    }
+                } else if (mDiffCache.contains(from, fromUser, to, hasVersion)) {
+                    setVersionedItems(newObjects, to, hasVersion);
+                    mDiffCache.dispatch(from, fromUser, to, hasVersion, mNotifier);
+                } else {
+                    final UpdateScript script = new UpdateScript();
+                    calculateDiff(before, newObjects).dispatchUpdatesTo(script.recorder());
+                    setVersionedItems(newObjects, to, hasVersion);
+                    mDiffCache.put(from, fromUser, to, hasVersion, script);
+                    script.dispatchTo(mNotifier);
+                }
             }
+            recordEdit(before);
+            trimWhenShrunk(before.size());
         }
     }
 
-    private static void requireNotNullItem(Object o) {
-        if (o == null) {
-            throw new IllegalStateException("null items are not allowed");
+    /**
+     * replaces the items by a swap with a diff cache and remembers their version
+     *
+     * @param userVersion true when {@code version} was passed to {@link #swap(List, long)}
+     */
+    private void setVersionedItems(@NonNull final List<T> newObjects, final long version,
+            final boolean userVersion) {
+        mObjects = PersistentList.copyOf(newObjects);
+        mVersion = version;
+        mVersionOf = mObjects;
+        mVersionIsUser = userVersion;
+        if (mDuplicateIdPolicy != DUPLICATE_IDS_ALLOW) {
+            mIdsVersion = mObjects;
+        }
+    }
+
+    /**
+     * notifies the change of the positions once per payload, the {@link RecyclerView} collects
+     * the payloads of a position until it is bound
+     *
+     * @param payloads payloads of the positions or {@code null} for a full rebind
+     */
+    private void notifyInvalidated(final int start, final int count,
+            @Nullable final List<Object> payloads) {
+        if (payloads == null) {
+            notifyItemRangeChanged(start, count, null);
+            return;
+        }
+        for (final Object payload : payloads) {
+            notifyItemRangeChanged(start, count, payload);
+        }
+    }
+
+    /**
+     * notifies a selection change of the positions {@code [from, to)} which is not recorded as
+     * mutation in the undo history
+     */
+    private void notifySelectionChanged(final int from, final int to) {
+        notifyItemRangeChanged(from, to - from, PAYLOAD_SELECTION);
+        if (mHistory != null) {
+            mHistory.discardPending();
+        }
+    }
+
+    /**
+     * @return the current items, read under the lock so writers on other threads are visible
+     */
+    @NonNull
+    private PersistentList<T> snapshot() {
+        synchronized (mLock) {
+            return mObjects;
+        }
+    }
+
+    /**
+     * posts the dispatch of the pending invalidations, one frame after the last dispatch
+     */
+    private void scheduleInvalidations() {
+        if (mInvalidationScheduled || mInvalidated.isEmpty()) {
+            return;
+        }
+        mInvalidationScheduled = true;
+        if (mMainHandler == null) {
+            mMainHandler = new Handler(Looper.getMainLooper());
+        }
+        final long delay = mLastInvalidationDispatch + INVALIDATION_INTERVAL_MILLIS
+                - SystemClock.uptimeMillis();
+        if (delay > 0) {
+            mMainHandler.postDelayed(mInvalidationDispatcher, delay);
+        } else {
+            mMainHandler.post(mInvalidationDispatcher);
+        }
+    }
+
+    /**
+     * Moves the selection and the cached layout along with reordered items and notifies the
+     * change of all positions. {@link RecyclerView} has no notification for a permutation, one
+     * move per item would be far slower than rebinding.
+     *
+     * @param order old positions by new position
+     */
+    private void dispatchReorder(@NonNull final int[] order) {
+        if (order.length == 0) {
+            return;
+        }
+        if (mSelection != null) {
+            mSelection.permute(order);
+        }
+        final ItemLayoutCache<T> layoutCache = mLayoutCache;
+        if (layoutCache != null) {
+            layoutCache.permute(order);
+        }
+        mReordering = true;
+        try {
+            notifyItemRangeChanged(0, order.length);
+        } finally {
+            mReordering = false;
+        }
+    }
+
+    /**
+     * adds the finished mutation to the undo history
+     */
+    private void recordEdit(@NonNull final PersistentList<T> before) {
+        if (mHistory != null) {
+            mHistory.record(before, mObjects);
+        }
+    }
+
+    /**
+     * @return new positions by old position for {@code order}, old positions by new position
+     */
+    @NonNull
+    private static int[] invert(@NonNull final int[] order) {
+        final int[] inverse = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            inverse[order[i]] = i;
+        }
+        return inverse;
+    }
+
+    /**
+     * applies the shrink policy after a mutation which removed items
+     */
+    private void trimWhenShrunk(final int previousSize) {
+        if (getItemCount() * SHRINK_FACTOR < previousSize) {
+            trimToSize();
+        }
+    }
+
+    @NonNull
+    private ItemLayoutCache<T> requireLayoutCache() {
+        ItemLayoutCache<T> layoutCache = mLayoutCache;
+        if (layoutCache == null) {
+            synchronized (mLock) {
+                layoutCache = mLayoutCache;
+                if (layoutCache == null) {
+                    layoutCache = new ItemLayoutCache<>(this);
+                    layoutCache.ensureCapacity(mReservedCapacity);
+                    registerAdapterDataObserver(layoutCache);
+                    mLayoutCache = layoutCache;
+                }
+            }
+        }
+        return layoutCache;
+    }
+
+    @NonNull
+    private SelectionTracker requireSelection() {
+        if (mSelection == null) {
+            mSelection = new SelectionTracker();
+            mSelection.ensureCapacity(mReservedCapacity);
+            registerAdapterDataObserver(mSelection);
         }
+        return mSelection;
     }
 }
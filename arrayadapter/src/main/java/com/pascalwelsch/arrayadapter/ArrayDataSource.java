@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2017 Pascal Welsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pascalwelsch.arrayadapter;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v7.util.DiffUtil;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Owns a list of items shared by multiple {@link ArrayAdapter}s, i.e. the same data shown as
+ * list, grid and preview. Changes are calculated once, {@link #swap(List)} runs {@link DiffUtil}
+ * a single time, and the resulting {@link UpdateScript} is broadcast to all attached adapters
+ * and listeners. Adapters apply the script without diffing again.
+ * <p>
+ * Attached adapters must not be mutated directly, otherwise they get out of sync.
+ *
+ * @param <T> item type (a immutable pojo works best)
+ */
+@SuppressWarnings("WeakerAccess")
+public abstract class ArrayDataSource<T> implements ItemDiffs.Matcher<T> {
+
+    /**
+     * Receives every change of an {@link ArrayDataSource}
+     */
+    public interface Listener<T> {
+
+        /**
+         * Called after the items of the data source changed.
+         *
+         * @param items   the new items, immutable
+         * @param changes operations which transform the previous items into {@code items}
+         */
+        void onDataChanged(@NonNull List<T> items, @NonNull UpdateScript changes);
+    }
+
+    private final List<ArrayAdapter<T, ?>> mAdapters = new CopyOnWriteArrayList<>();
+
+    private final ReusableDiffCallback<T> mDiffCallback = ItemDiffs.callback(this);
+
+    private final List<Listener<T>> mListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Lock used to modify the content of {@link #mObjects}.
+     */
+    private final Object mLock = new Object();
+
+    private PersistentList<T> mObjects = PersistentList.empty();
+
+    public ArrayDataSource() {
+
+    }
+
+    @SuppressWarnings("ConstantConditions")
+    public ArrayDataSource(@NonNull final List<T> objects) {
+        if (objects == null) {
+            throw new IllegalStateException("null is not supported. Use an empty list.");
+        }
+        for (final T item : objects) {
+            ItemDiffs.requireNotNullItem(item);
+        }
+        mObjects = PersistentList.copyOf(objects);
+    }
+
+    /**
+     * Adds the specified object at the end of the list.
+     *
+     * @param object The object to add at the end of the list.
+     */
+    public void add(@NonNull final T object) {
+        ItemDiffs.requireNotNullItem(object);
+        synchronized (mLock) {
+            final UpdateScript changes = new UpdateScript();
+            changes.onInserted(mObjects.size(), 1);
+            publish(mObjects.plus(object), changes);
+        }
+    }
+
+    /**
+     * Adds the specified list of objects at the end of the list.
+     *
+     * @param collection The objects to add at the end of the list.
+     */
+    public void addAll(@NonNull final Collection<T> collection) {
+        if (collection.isEmpty()) {
+            return;
+        }
+        for (final T item : collection) {
+            ItemDiffs.requireNotNullItem(item);
+        }
+        synchronized (mLock) {
+            final UpdateScript changes = new UpdateScript();
+            changes.onInserted(mObjects.size(), collection.size());
+            publish(mObjects.plusAll(collection), changes);
+        }
+    }
+
+    /**
+     * Adds a listener which receives all future changes
+     */
+    public void addListener(@NonNull final Listener<T> listener) {
+        mListeners.add(listener);
+    }
+
+    /**
+     * Connects the adapter to this data source. The current items of the adapter are replaced
+     * with the items of this data source without diffing. From now on the adapter receives all
+     * changes of this data source.
+     *
+     * @param adapter adapter showing the items of this data source
+     */
+    public void attach(@NonNull final ArrayAdapter<T, ?> adapter) {
+        synchronized (mLock) {
+            if (mAdapters.contains(adapter)) {
+                return;
+            }
+            final UpdateScript changes = new UpdateScript();
+            final int oldCount = adapter.getItemCount();
+            if (oldCount > 0) {
+                changes.onRemoved(0, oldCount);
+            }
+            if (!mObjects.isEmpty()) {
+                changes.onInserted(0, mObjects.size());
+            }
+            adapter.applyChanges(mObjects, changes);
+            mAdapters.add(adapter);
+        }
+    }
+
+    /**
+     * Remove all elements from the list.
+     */
+    public void clear() {
+        synchronized (mLock) {
+            if (mObjects.isEmpty()) {
+                return;
+            }
+            final UpdateScript changes = new UpdateScript();
+            changes.onRemoved(0, mObjects.size());
+            publish(PersistentList.<T>empty(), changes);
+        }
+    }
+
+    /**
+     * Disconnects the adapter, it keeps its current items but doesn't receive changes anymore
+     */
+    public void detach(@NonNull final ArrayAdapter<T, ?> adapter) {
+        mAdapters.remove(adapter);
+    }
+
+    /**
+     * Returns the current items as immutable snapshot without copying. Read under the lock, so
+     * a change published on another thread is visible.
+     */
+    @NonNull
+    public List<T> getItems() {
+        synchronized (mLock) {
+            return mObjects;
+        }
+    }
+
+    /**
+     * Return a stable id for an item.
+     *
+     * @see ArrayAdapter#getItemId(Object)
+     */
+    @Nullable
+    public abstract Object getItemId(@NonNull T item);
+
+    /**
+     * Inserts the specified object at the specified index in the list.
+     *
+     * @param object The object to insert into the list.
+     * @param index  The index at which the object must be inserted.
+     */
+    public void insert(@NonNull final T object, final int index) {
+        ItemDiffs.requireNotNullItem(object);
+        synchronized (mLock) {
+            final PersistentList<T> items = mObjects.plus(index, object);
+            final UpdateScript changes = new UpdateScript();
+            changes.onInserted(index, 1);
+            publish(items, changes);
+        }
+    }
+
+    /**
+     * @see ArrayAdapter#isContentTheSame(Object, Object)
+     */
+    @Override
+    public boolean isContentTheSame(@Nullable final T oldItem, @Nullable final T newItem) {
+        return ItemDiffs.isContentTheSame(oldItem, newItem);
+    }
+
+    /**
+     * @see ArrayAdapter#isItemTheSame(Object, Object)
+     */
+    @Override
+    public boolean isItemTheSame(@Nullable final T oldItem, @Nullable final T newItem) {
+        if (oldItem == null || newItem == null) {
+            return oldItem == newItem;
+        }
+        return ItemDiffs.isSameId(getItemId(oldItem), getItemId(newItem));
+    }
+
+    /**
+     * Removes the specified object from the list.
+     *
+     * @param object The object to remove.
+     */
+    public void remove(@NonNull final T object) {
+        synchronized (mLock) {
+            final int position = mObjects.indexOf(object);
+            if (position == -1) {
+                return;
+            }
+            final UpdateScript changes = new UpdateScript();
+            changes.onRemoved(position, 1);
+            publish(mObjects.minus(position), changes);
+        }
+    }
+
+    public void removeListener(@NonNull final Listener<T> listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Swaps the data, {@link DiffUtil} calculates the changes once for all attached adapters
+     * and listeners.
+     *
+     * @param newObjects new set of data
+     * @see ArrayAdapter#swap(List)
+     */
+    public void swap(@Nullable final List<T> newObjects) {
+        if (newObjects == null) {
+            clear();
+            return;
+        }
+        for (final T item : newObjects) {
+            ItemDiffs.requireNotNullItem(item);
+        }
+        synchronized (mLock) {
+            final PersistentList<T> oldItems = mObjects;
+            final PersistentList<T> newItems = PersistentList.copyOf(newObjects);
+            final DiffUtil.DiffResult result;
+            try {
+                result = DiffUtil.calculateDiff(mDiffCallback.prepare(oldItems, newItems));
+            } finally {
+                mDiffCallback.release();
+            }
+            final UpdateScript changes = new UpdateScript();
+            result.dispatchUpdatesTo(changes.recorder());
+            publish(newItems, changes);
+        }
+    }
+
+    private void publish(@NonNull final PersistentList<T> items,
+            @NonNull final UpdateScript changes) {
+        mObjects = items;
+        for (final ArrayAdapter<T, ?> adapter : mAdapters) {
+            adapter.applyChanges(items, changes);
+        }
+        for (final Listener<T> listener : mListeners) {
+            listener.onDataChanged(items, changes);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2017 Pascal Welsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pascalwelsch.arrayadapter;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs {@link ArrayAdapter#prepareBindData(Object)} on a background {@link Executor} for the
+ * items the user is about to scroll to and keeps the results in a bounded LRU cache keyed by
+ * {@link ArrayAdapter#getItemId(Object)}.
+ * <p>
+ * Cached data is dropped when the adapter notifies a change of the item, which happens when
+ * {@link ArrayAdapter#isContentTheSame(Object, Object)} reports a change.
+ */
+final class BindDataPrefetcher<T> extends RecyclerView.OnScrollListener {
+
+    private final ArrayAdapter<T, ?> mAdapter;
+
+    private final ItemDataCache<T, Object> mCache;
+
+    private final Executor mExecutor;
+
+    /**
+     * ids of items currently prepared in the background
+     */
+    private final Set<Object> mInFlight = new HashSet<>();
+
+    private final ItemDataCache.Loader<T, Object> mLoader =
+            new ItemDataCache.Loader<T, Object>() {
+                @Override
+                public Object load(@NonNull final T item) {
+                    return mAdapter.prepareBindData(item);
+                }
+            };
+
+    private final int mLookahead;
+
+    BindDataPrefetcher(@NonNull final ArrayAdapter<T, ?> adapter,
+            @NonNull final Executor executor, final int lookahead, final int cacheSize) {
+        mAdapter = adapter;
+        mExecutor = executor;
+        mLookahead = lookahead;
+        mCache = new ItemDataCache<>(adapter, cacheSize);
+    }
+
+    /**
+     * starts invalidating cached data on item changes
+     */
+    void attach() {
+        mCache.attach();
+    }
+
+    /**
+     * @return number of cached results
+     */
+    int cacheSize() {
+        return mCache.size();
+    }
+
+    void detach() {
+        mCache.detach();
+    }
+
+    /**
+     * Returns the prepared data for the item. Prepares it on the calling thread when it wasn't
+     * prefetched in time.
+     */
+    @Nullable
+    Object get(@NonNull final T item) {
+        return mCache.get(item, mLoader);
+    }
+
+    @Override
+    public void onScrolled(final RecyclerView recyclerView, final int dx, final int dy) {
+        final RecyclerView.LayoutManager layoutManager = recyclerView.getLayoutManager();
+        if (!(layoutManager instanceof LinearLayoutManager)) {
+            return;
+        }
+        final LinearLayoutManager linear = (LinearLayoutManager) layoutManager;
+        final int delta = dy != 0 ? dy : dx;
+        if (delta > 0) {
+            final int last = linear.findLastVisibleItemPosition();
+            prefetch(last + 1, last + mLookahead);
+        } else if (delta < 0) {
+            final int first = linear.findFirstVisibleItemPosition();
+            prefetch(first - mLookahead, first - 1);
+        }
+    }
+
+    /**
+     * prepares the items in the position range {@code [from, to]} in the background
+     */
+    void prefetch(final int from, final int to) {
+        final int start = Math.max(0, from);
+        final int end = Math.min(mAdapter.getItemCount() - 1, to);
+        for (int i = start; i <= end; i++) {
+            final T item = mAdapter.getItem(i);
+            if (item == null || mCache.contains(item)) {
+                continue;
+            }
+            final Object id = mAdapter.getItemId(item);
+            synchronized (mInFlight) {
+                if (!mInFlight.add(id)) {
+                    continue;
+                }
+            }
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        mCache.put(item, mAdapter.prepareBindData(item));
+                    } finally {
+                        synchronized (mInFlight) {
+                            mInFlight.remove(id);
+                        }
+                    }
+                }
+            });
+        }
+    }
+}
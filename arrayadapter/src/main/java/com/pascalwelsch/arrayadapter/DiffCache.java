@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2017 Pascal Welsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pascalwelsch.arrayadapter;
+
+import android.support.annotation.NonNull;
+import android.support.v7.util.ListUpdateCallback;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of the {@link UpdateScript}s calculated by
+ * {@link ArrayAdapter#swap(java.util.List)}, keyed by the versions of the old and the new list.
+ * Versions passed by the user and fingerprints calculated from the items are separate keys,
+ * equal numbers of the two kinds never share a script. A script transforming version {@code a}
+ * into {@code b} is also used for the opposite transition by dispatching its inverse.
+ * <p>
+ * Not thread safe, only used while holding the lock of the adapter.
+ */
+final class DiffCache {
+
+    private static final class Transition {
+
+        final long from;
+
+        final boolean fromUser;
+
+        final long to;
+
+        final boolean toUser;
+
+        Transition(final long from, final boolean fromUser, final long to, final boolean toUser) {
+            this.from = from;
+            this.fromUser = fromUser;
+            this.to = to;
+            this.toUser = toUser;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Transition)) {
+                return false;
+            }
+            final Transition transition = (Transition) o;
+            return from == transition.from && fromUser == transition.fromUser
+                    && to == transition.to && toUser == transition.toUser;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = (int) (from ^ (from >>> 32));
+            result = 31 * result + (fromUser ? 1 : 0);
+            result = 31 * result + (int) (to ^ (to >>> 32));
+            return 31 * result + (toUser ? 1 : 0);
+        }
+    }
+
+    private final LinkedHashMap<Transition, UpdateScript> mScripts;
+
+    DiffCache(final int maxSize) {
+        mScripts = new LinkedHashMap<Transition, UpdateScript>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    final Map.Entry<Transition, UpdateScript> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return true when the script of the transition or of the opposite transition is cached
+     */
+    boolean contains(final long from, final boolean fromUser, final long to,
+            final boolean toUser) {
+        return mScripts.containsKey(new Transition(from, fromUser, to, toUser))
+                || mScripts.containsKey(new Transition(to, toUser, from, fromUser));
+    }
+
+    /**
+     * @param fromUser true when {@code from} is a version passed by the user, false for a
+     *                 fingerprint
+     * @param toUser   true when {@code to} is a version passed by the user, false for a
+     *                 fingerprint
+     * @return true when the script of the transition was cached and dispatched to
+     * {@code callback}
+     */
+    boolean dispatch(final long from, final boolean fromUser, final long to, final boolean toUser,
+            @NonNull final ListUpdateCallback callback) {
+        final UpdateScript script = mScripts.get(new Transition(from, fromUser, to, toUser));
+        if (script != null) {
+            script.dispatchTo(callback);
+            return true;
+        }
+        final UpdateScript reverse = mScripts.get(new Transition(to, toUser, from, fromUser));
+        if (reverse != null) {
+            reverse.dispatchInverseTo(callback);
+            return true;
+        }
+        return false;
+    }
+
+    void put(final long from, final boolean fromUser, final long to, final boolean toUser,
+            @NonNull final UpdateScript script) {
+        mScripts.put(new Transition(from, fromUser, to, toUser), script);
+    }
+
+    int size() {
+        return mScripts.size();
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2017 Pascal Welsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pascalwelsch.arrayadapter;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v7.widget.RecyclerView;
+
+import java.util.ArrayDeque;
+
+/**
+ * Bounded undo/redo history of an {@link ArrayAdapter}. Records the notifications of every
+ * mutation as {@link UpdateScript} together with the item versions before and after the
+ * mutation. Because the versions are {@link PersistentList}s sharing their structure, an edit
+ * only costs memory proportional to the changed items.
+ */
+final class EditHistory<T> extends RecyclerView.AdapterDataObserver {
+
+    static final class Edit<T> {
+
+        final PersistentList<T> after;
+
+        final PersistentList<T> before;
+
+        /**
+         * old positions by new position when the edit only reordered the items, {@code null}
+         * otherwise
+         */
+        @Nullable
+        final int[] order;
+
+        final UpdateScript script;
+
+        Edit(final PersistentList<T> before, final PersistentList<T> after,
+                final UpdateScript script, @Nullable final int[] order) {
+            this.before = before;
+            this.after = after;
+            this.script = script;
+            this.order = order;
+        }
+    }
+
+    private int mMaxSize;
+
+    /**
+     * notifications of the mutation currently in progress
+     */
+    private final UpdateScript mPending = new UpdateScript();
+
+    private final ArrayDeque<Edit<T>> mRedo = new ArrayDeque<>();
+
+    private final ArrayDeque<Edit<T>> mUndo = new ArrayDeque<>();
+
+    EditHistory(final int maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    boolean canRedo() {
+        return !mRedo.isEmpty();
+    }
+
+    boolean canUndo() {
+        return !mUndo.isEmpty();
+    }
+
+    void clear() {
+        mUndo.clear();
+        mRedo.clear();
+        mPending.clear();
+    }
+
+    /**
+     * drops the notifications received since the last call, used when the notifications are not
+     * caused by a mutation which should be recorded (i.e. undo and redo)
+     */
+    void discardPending() {
+        mPending.clear();
+    }
+
+    @Override
+    public void onItemRangeChanged(final int positionStart, final int itemCount,
+            final Object payload) {
+        mPending.onChanged(positionStart, itemCount, payload);
+    }
+
+    @Override
+    public void onItemRangeChanged(final int positionStart, final int itemCount) {
+        mPending.onChanged(positionStart, itemCount, null);
+    }
+
+    @Override
+    public void onItemRangeInserted(final int positionStart, final int itemCount) {
+        mPending.onInserted(positionStart, itemCount);
+    }
+
+    @Override
+    public void onItemRangeMoved(final int fromPosition, final int toPosition,
+            final int itemCount) {
+        for (int i = 0; i < itemCount; i++) {
+            mPending.onMoved(fromPosition + i, toPosition + i);
+        }
+    }
+
+    @Override
+    public void onItemRangeRemoved(final int positionStart, final int itemCount) {
+        mPending.onRemoved(positionStart, itemCount);
+    }
+
+    /**
+     * @return the edit which was undone most recently, now the first one to redo
+     */
+    @Nullable
+    Edit<T> popRedo() {
+        final Edit<T> edit = mRedo.pollFirst();
+        if (edit != null) {
+            mUndo.addFirst(edit);
+        }
+        return edit;
+    }
+
+    /**
+     * @return the most recent edit, now moved to the redo stack
+     */
+    @Nullable
+    Edit<T> popUndo() {
+        final Edit<T> edit = mUndo.pollFirst();
+        if (edit != null) {
+            mRedo.addFirst(edit);
+        }
+        return edit;
+    }
+
+    /**
+     * records a finished mutation with the notifications received since the last call
+     */
+    void record(@NonNull final PersistentList<T> before, @NonNull final PersistentList<T> after) {
+        record(before, after, null);
+    }
+
+    /**
+     * records a finished mutation, {@code order} is kept for mutations which only reordered the
+     * items so undo and redo can move the selection along
+     *
+     * @param order old positions by new position or {@code null}
+     */
+    void record(@NonNull final PersistentList<T> before, @NonNull final PersistentList<T> after,
+            @Nullable final int[] order) {
+        if (before == after) {
+            mPending.clear();
+            return;
+        }
+        mUndo.addFirst(new Edit<>(before, after, mPending.copy(), order));
+        mPending.clear();
+        mRedo.clear();
+        trim();
+    }
+
+    void setMaxSize(final int maxSize) {
+        mMaxSize = maxSize;
+        trim();
+    }
+
+    /**
+     * @return number of recorded undo and redo steps
+     */
+    int size() {
+        return mUndo.size() + mRedo.size();
+    }
+
+    private void trim() {
+        while (mUndo.size() > mMaxSize) {
+            mUndo.pollLast();
+        }
+        while (mRedo.size() > mMaxSize) {
+            mRedo.pollLast();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2017 Pascal Welsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pascalwelsch.arrayadapter;
+
+import java.util.Arrays;
+
+/**
+ * Binary indexed tree over a list of non-negative sizes. Updates a size and calculates prefix
+ * sums in O(log n). {@link #indexOf(int)} maps a flat position to the index whose range contains
+ * it in O(log n), i.e. a flat adapter position to its section.
+ * <p>
+ * Inserting or removing an index only rebuilds the nodes after it in O(n - index + log n),
+ * appending or removing the last size stays O(log n).
+ */
+final class FenwickTree {
+
+    private int mCount;
+
+    private int[] mSizes;
+
+    /**
+     * 1-based tree, {@code mTree[i]} holds the sum of {@code i & -i} sizes ending at {@code i}
+     */
+    private int[] mTree;
+
+    FenwickTree() {
+        mSizes = new int[8];
+        mTree = new int[mSizes.length + 1];
+    }
+
+    /**
+     * adds {@code delta} to the size at {@code index}
+     */
+    void add(final int index, final int delta) {
+        checkIndex(index);
+        mSizes[index] += delta;
+        for (int i = index + 1; i <= mCount; i += i & -i) {
+            mTree[i] += delta;
+        }
+    }
+
+    /**
+     * removes all sizes
+     */
+    void clear() {
+        Arrays.fill(mTree, 0);
+        mCount = 0;
+    }
+
+    int get(final int index) {
+        checkIndex(index);
+        return mSizes[index];
+    }
+
+    /**
+     * Finds the index containing {@code position} when all sizes are laid out one after another.
+     *
+     * @return the index or -1 when {@code position} is out of range
+     */
+    int indexOf(final int position) {
+        if (position < 0 || position >= total()) {
+            return -1;
+        }
+        int index = 0;
+        int remaining = position;
+        for (int step = Integer.highestOneBit(Math.max(1, mCount)); step > 0; step >>= 1) {
+            final int next = index + step;
+            if (next <= mCount && mTree[next] <= remaining) {
+                index = next;
+                remaining -= mTree[next];
+            }
+        }
+        // index is the number of sizes with a total <= position
+        return index;
+    }
+
+    /**
+     * inserts a new size at {@code index}, shifting the following sizes
+     */
+    void insert(final int index, final int size) {
+        if (index < 0 || index > mCount) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mCount);
+        }
+        if (mCount == mSizes.length) {
+            mSizes = Arrays.copyOf(mSizes, mSizes.length * 2);
+            mTree = Arrays.copyOf(mTree, mSizes.length + 1);
+        }
+        System.arraycopy(mSizes, index, mSizes, index + 1, mCount - index);
+        mSizes[index] = size;
+        mCount++;
+        rebuildFrom(index);
+    }
+
+    /**
+     * @return sum of all sizes before {@code index}
+     */
+    int prefixSum(final int index) {
+        if (index < 0 || index > mCount) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mCount);
+        }
+        int sum = 0;
+        for (int i = index; i > 0; i -= i & -i) {
+            sum += mTree[i];
+        }
+        return sum;
+    }
+
+    void remove(final int index) {
+        checkIndex(index);
+        System.arraycopy(mSizes, index + 1, mSizes, index, mCount - index - 1);
+        mCount--;
+        rebuildFrom(index);
+    }
+
+    void set(final int index, final int size) {
+        add(index, size - get(index));
+    }
+
+    int size() {
+        return mCount;
+    }
+
+    /**
+     * @return sum of all sizes
+     */
+    int total() {
+        return prefixSum(mCount);
+    }
+
+    private void checkIndex(final int index) {
+        if (index < 0 || index >= mCount) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mCount);
+        }
+    }
+
+    /**
+     * recalculates the nodes after {@code index}, the nodes up to {@code index} only cover sizes
+     * before it and stay valid
+     */
+    private void rebuildFrom(final int index) {
+        for (int i = index + 1; i <= mCount; i++) {
+            mTree[i] = mSizes[i - 1];
+        }
+        // the valid nodes with a recalculated parent are the ones summed by prefixSum(index)
+        for (int i = index; i > 0; i -= i & -i) {
+            final int parent = i + (i & -i);
+            if (parent <= mCount) {
+                mTree[parent] += mTree[i];
+            }
+        }
+        for (int i = index + 1; i <= mCount; i++) {
+            final int parent = i + (i & -i);
+            if (parent <= mCount) {
+                mTree[parent] += mTree[i];
+            }
+        }
+    }
+}
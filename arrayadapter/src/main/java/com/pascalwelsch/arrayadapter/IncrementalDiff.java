@@ -0,0 +1,666 @@
+/*
+ * Copyright (C) 2017 Pascal Welsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pascalwelsch.arrayadapter;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Diff of {@link ArrayAdapter#swapIncrementally(List, Scheduler, long)} which runs on the main
+ * thread in time slices. Every slice does a bounded amount of work and schedules the next slice
+ * with a {@link Scheduler}, so frames can be drawn in between. The adapter keeps showing the old
+ * items until the last slice applies the new items together with all notifications at once. The
+ * notifications can't be split, a long script is therefore applied in a slice of its own.
+ * <p>
+ * Items are matched by {@link ArrayAdapter#getItemId(Object)} with a hash map, matched items
+ * are compared with {@link ArrayAdapter#isContentTheSame(Object, Object)}. Matched items which
+ * are not part of the longest increasing subsequence of new positions are dispatched as moves,
+ * everything else as removals, inserts and changes. Unlike
+ * {@link android.support.v7.util.DiffUtil} every step of the work can be interrupted:
+ * <ol>
+ * <li>copy the new items, checking them for {@code null} and duplicate ids</li>
+ * <li>index the ids of the new items</li>
+ * <li>match the old items by id</li>
+ * <li>compare the contents of matched items</li>
+ * <li>find the matched items which keep their order</li>
+ * <li>record removals, moves, inserts and changes</li>
+ * </ol>
+ * The swap is cancelled when the items of the adapter are mutated before the diff finished. The
+ * list passed to the swap must not be modified until the items are copied, a {@code null} item
+ * or an id rejected by the {@link ArrayAdapter.DuplicateIdPolicy} throws from the slice copying
+ * it and cancels the swap.
+ *
+ * @param <T> item type
+ */
+@SuppressWarnings("WeakerAccess")
+public final class IncrementalDiff<T> {
+
+    /**
+     * Runs the slices of a diff. The main thread implementation posts them with a
+     * {@link Handler}, tests can run them synchronously.
+     */
+    public interface Scheduler {
+
+        /**
+         * runs {@code slice} later on the main thread
+         */
+        void schedule(@NonNull Runnable slice);
+    }
+
+    /**
+     * Source of the time which ends a slice, tests replace it to slice deterministically.
+     */
+    interface Clock {
+
+        long nanoTime();
+    }
+
+    static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    /**
+     * time budget of a slice, a quarter of a 60fps frame
+     */
+    static final long DEFAULT_SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(4);
+
+    /**
+     * number of steps between two reads of the clock
+     */
+    static final int CLOCK_INTERVAL = 32;
+
+    private static final int PHASE_COPY = 0;
+
+    private static final int PHASE_INDEX = 1;
+
+    private static final int PHASE_MATCH = 2;
+
+    private static final int PHASE_COMPARE = 3;
+
+    private static final int PHASE_SUBSEQUENCE = 4;
+
+    private static final int PHASE_STAYS = 5;
+
+    private static final int PHASE_REMOVE = 6;
+
+    private static final int PHASE_PREPARE_MOVES = 7;
+
+    private static final int PHASE_MOVE = 8;
+
+    private static final int PHASE_INSERT = 9;
+
+    private static final int PHASE_CHANGE = 10;
+
+    private static final int PHASE_APPLY = 11;
+
+    private static final int PHASE_DONE = 12;
+
+    private final ArrayAdapter<T, ?> mAdapter;
+
+    /**
+     * collects the new items while they are copied, {@code null} afterwards
+     */
+    private PersistentList.Builder<T> mBuilder;
+
+    private boolean mCancelled;
+
+    /**
+     * new positions of the matched items whose content changed
+     */
+    private final BitSet mChanged = new BitSet();
+
+    private Clock mClock = SYSTEM_CLOCK;
+
+    /**
+     * positions of the copied ids, {@code null} when duplicate ids are allowed or after copying
+     */
+    private HashMap<Object, Integer> mCopiedIds;
+
+    /**
+     * order of the matched items while moves are recorded, values are new positions
+     */
+    private RankedTree<Integer> mCurrent;
+
+    /**
+     * entries of the matched items in {@link #mCurrent} by new position
+     */
+    private RankedTree.Entry<Integer>[] mEntries;
+
+    private int mDroppedDuplicates;
+
+    @ArrayAdapter.DuplicateIdPolicy
+    private final int mDuplicateIdPolicy;
+
+    /**
+     * first new position of every id which isn't matched yet
+     */
+    private HashMap<Object, Integer> mFirstNewPosition;
+
+    /**
+     * position within the current phase
+     */
+    private int mIndex;
+
+    /**
+     * start of the pending run of inserted new positions, -1 when there is none
+     */
+    private int mInsertedStart = -1;
+
+    /**
+     * last matched new position the moved items are placed behind, -1 for the start
+     */
+    private int mLastPlaced = -1;
+
+    private int mMatchedCount;
+
+    private long mMaxSliceNanos;
+
+    private int mMaxSliceSteps;
+
+    private int mMovedCount;
+
+    private PersistentList<T> mNewItems;
+
+    /**
+     * next new position with the same id, -1 if there is none
+     */
+    private int[] mNextSameId;
+
+    /**
+     * old position of the item matched with a new position, -1 for inserted items
+     */
+    private int[] mNewToOld;
+
+    private final PersistentList<T> mOldItems;
+
+    /**
+     * new position of the item matched with an old position, -1 for removed items
+     */
+    private int[] mOldToNew;
+
+    private int mPhase = PHASE_COPY;
+
+    /**
+     * old positions of the longest increasing subsequence, predecessor by old position
+     */
+    private int[] mPredecessor;
+
+    /**
+     * end (exclusive) of the pending run of removed old positions, -1 when there is none
+     */
+    private int mRemovedEnd = -1;
+
+    private final Scheduler mScheduler;
+
+    private final UpdateScript mScript = new UpdateScript();
+
+    private int mSliceCount;
+
+    private final long mSliceNanos;
+
+    /**
+     * new items which are not copied yet, {@code null} after copying
+     */
+    private Iterator<T> mSource;
+
+    /**
+     * old positions which keep their relative order
+     */
+    private final BitSet mStays = new BitSet();
+
+    /**
+     * patience sorting piles of the longest increasing subsequence, old position of the top item
+     */
+    private int[] mTails;
+
+    private int mTailsSize;
+
+    private final Runnable mSlice = new Runnable() {
+        @Override
+        public void run() {
+            runSlice();
+        }
+    };
+
+    /**
+     * @param newItems          read by the slices, nothing is copied before the first slice
+     * @param duplicateIdPolicy applied to the new items while they are copied
+     */
+    IncrementalDiff(@NonNull final ArrayAdapter<T, ?> adapter,
+            @NonNull final PersistentList<T> oldItems, @NonNull final List<T> newItems,
+            @ArrayAdapter.DuplicateIdPolicy final int duplicateIdPolicy,
+            @NonNull final Scheduler scheduler, final long sliceNanos) {
+        mAdapter = adapter;
+        mOldItems = oldItems;
+        mSource = newItems.iterator();
+        mBuilder = new PersistentList.Builder<>(newItems.size());
+        mDuplicateIdPolicy = duplicateIdPolicy;
+        if (duplicateIdPolicy != ArrayAdapter.DUPLICATE_IDS_ALLOW) {
+            mCopiedIds = new HashMap<>();
+        }
+        mScheduler = scheduler;
+        mSliceNanos = sliceNanos;
+    }
+
+    /**
+     * @return a scheduler posting the slices to the main thread
+     */
+    @NonNull
+    public static Scheduler mainThreadScheduler() {
+        final Handler handler = new Handler(Looper.getMainLooper());
+        return new Scheduler() {
+            @Override
+            public void schedule(@NonNull final Runnable slice) {
+                handler.post(slice);
+            }
+        };
+    }
+
+    /**
+     * Stops the diff, the adapter keeps the old items. Does nothing when the new items are
+     * already applied.
+     */
+    public void cancel() {
+        if (mPhase != PHASE_DONE) {
+            mCancelled = true;
+        }
+    }
+
+    /**
+     * @return the longest time a slice took so far
+     */
+    public long getMaxSliceNanos() {
+        return mMaxSliceNanos;
+    }
+
+    /**
+     * @return the most steps a slice did so far
+     */
+    int getMaxSliceSteps() {
+        return mMaxSliceSteps;
+    }
+
+    /**
+     * @return number of slices run so far
+     */
+    public int getSliceCount() {
+        return mSliceCount;
+    }
+
+    /**
+     * @return true when the diff was cancelled or the adapter was mutated before the diff
+     * finished
+     */
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * @return true when the new items were applied to the adapter
+     */
+    public boolean isFinished() {
+        return mPhase == PHASE_DONE && !mCancelled;
+    }
+
+    /**
+     * @return number of new items dropped by the {@link ArrayAdapter.DuplicateIdPolicy}
+     */
+    int getDroppedDuplicates() {
+        return mDroppedDuplicates;
+    }
+
+    @NonNull
+    PersistentList<T> getNewItems() {
+        return mNewItems;
+    }
+
+    @NonNull
+    PersistentList<T> getOldItems() {
+        return mOldItems;
+    }
+
+    @NonNull
+    UpdateScript getScript() {
+        return mScript;
+    }
+
+    void setClock(@NonNull final Clock clock) {
+        mClock = clock;
+    }
+
+    void start() {
+        mScheduler.schedule(mSlice);
+    }
+
+    /**
+     * appends a new item unless the {@link ArrayAdapter.DuplicateIdPolicy} drops it
+     */
+    private void copy(final T item) {
+        ItemDiffs.requireNotNullItem(item);
+        if (mCopiedIds != null) {
+            final Object id = mAdapter.getItemId(item);
+            final Integer copied = mCopiedIds.get(id);
+            if (copied != null) {
+                if (mDuplicateIdPolicy == ArrayAdapter.DUPLICATE_IDS_REJECT) {
+                    throw new IllegalArgumentException("duplicate id " + id + " of item " + item);
+                }
+                mDroppedDuplicates++;
+                if (mDuplicateIdPolicy == ArrayAdapter.DUPLICATE_IDS_REPLACE) {
+                    // keeps the position of the first item with the id
+                    mBuilder.set(copied, item);
+                }
+                return;
+            }
+            mCopiedIds.put(id, mBuilder.size());
+        }
+        mBuilder.add(item);
+    }
+
+    /**
+     * builds the new items and allocates the state of the following phases
+     */
+    private void finishCopy() {
+        mNewItems = mBuilder.build();
+        mBuilder = null;
+        mCopiedIds = null;
+        mSource = null;
+        final int oldSize = mOldItems.size();
+        final int newSize = mNewItems.size();
+        mOldToNew = new int[oldSize];
+        mPredecessor = new int[oldSize];
+        mTails = new int[oldSize];
+        mNewToOld = new int[newSize];
+        mNextSameId = new int[newSize];
+        mFirstNewPosition = new HashMap<>(newSize * 2);
+        mIndex = newSize - 1;
+        mPhase = PHASE_INDEX;
+    }
+
+    /**
+     * closes the pending run of removed positions
+     */
+    private void flushRemoved(final int start) {
+        if (mRemovedEnd >= 0) {
+            mScript.onRemoved(start, mRemovedEnd - start);
+            mRemovedEnd = -1;
+        }
+    }
+
+    /**
+     * records the move of a matched item behind the previously placed item of the new order
+     */
+    private void move(final int newPosition) {
+        final int from = mCurrent.indexOf(mEntries[newPosition]);
+        int to = mLastPlaced < 0 ? 0 : mCurrent.indexOf(mEntries[mLastPlaced]) + 1;
+        if (from < to) {
+            to--;
+        }
+        if (from != to) {
+            mScript.onMoved(from, to);
+            mCurrent.removeRange(from, 1);
+            final List<RankedTree.Entry<Integer>> entries = new ArrayList<>(1);
+            mCurrent.insertAll(to, Collections.singletonList(newPosition), entries);
+            mEntries[newPosition] = entries.get(0);
+        }
+    }
+
+    private void runSlice() {
+        if (!mCancelled && mAdapter.getItems() != mOldItems) {
+            // mutated meanwhile, the diff is outdated
+            mCancelled = true;
+        }
+        if (mCancelled) {
+            // the adapter drops its reference, so the lists and arrays can be collected
+            mAdapter.releaseIncrementalDiff(this);
+            return;
+        }
+        mSliceCount++;
+        final long start = mClock.nanoTime();
+        final long deadline = start + mSliceNanos;
+        int steps = 0;
+        try {
+            while (mPhase != PHASE_APPLY) {
+                step();
+                if (++steps % CLOCK_INTERVAL == 0 && mClock.nanoTime() >= deadline) {
+                    break;
+                }
+            }
+        } catch (RuntimeException e) {
+            // i.e. a null item, the adapter keeps the old items
+            mCancelled = true;
+            mAdapter.releaseIncrementalDiff(this);
+            throw e;
+        }
+        // every notification costs about a step, a long script gets a slice of its own
+        if (mPhase == PHASE_APPLY && (steps == 0 || mScript.size() <= CLOCK_INTERVAL)) {
+            mPhase = PHASE_DONE;
+            mCancelled = !mAdapter.applyIncrementalDiff(this);
+            mFirstNewPosition = null;
+        }
+        mMaxSliceNanos = Math.max(mMaxSliceNanos, mClock.nanoTime() - start);
+        mMaxSliceSteps = Math.max(mMaxSliceSteps, steps);
+        if (mPhase != PHASE_DONE) {
+            mScheduler.schedule(mSlice);
+        }
+    }
+
+    /**
+     * does one step of the current phase and advances to the next phase when it is completed
+     */
+    private void step() {
+        switch (mPhase) {
+            case PHASE_COPY: {
+                if (!mSource.hasNext()) {
+                    finishCopy();
+                    break;
+                }
+                copy(mSource.next());
+                break;
+            }
+            case PHASE_INDEX: {
+                if (mIndex < 0) {
+                    mPhase = PHASE_MATCH;
+                    mIndex = 0;
+                    break;
+                }
+                // iterates backwards so every id points to its first new position
+                final Integer next = mFirstNewPosition.put(
+                        mAdapter.getItemId(mNewItems.get(mIndex)), mIndex);
+                mNextSameId[mIndex] = next == null ? -1 : next;
+                mNewToOld[mIndex] = -1;
+                mIndex--;
+                break;
+            }
+            case PHASE_MATCH: {
+                if (mIndex == mOldItems.size()) {
+                    mPhase = PHASE_COMPARE;
+                    mIndex = 0;
+                    break;
+                }
+                final Object id = mAdapter.getItemId(mOldItems.get(mIndex));
+                final Integer newPosition = mFirstNewPosition.get(id);
+                if (newPosition == null) {
+                    mOldToNew[mIndex] = -1;
+                } else {
+                    mOldToNew[mIndex] = newPosition;
+                    mNewToOld[newPosition] = mIndex;
+                    mMatchedCount++;
+                    final int next = mNextSameId[newPosition];
+                    if (next < 0) {
+                        mFirstNewPosition.remove(id);
+                    } else {
+                        mFirstNewPosition.put(id, next);
+                    }
+                }
+                mIndex++;
+                break;
+            }
+            case PHASE_COMPARE: {
+                if (mIndex == mNewItems.size()) {
+                    mPhase = PHASE_SUBSEQUENCE;
+                    mIndex = 0;
+                    break;
+                }
+                final int oldPosition = mNewToOld[mIndex];
+                if (oldPosition >= 0 && !mAdapter.isContentTheSame(
+                        mOldItems.get(oldPosition), mNewItems.get(mIndex))) {
+                    mChanged.set(mIndex);
+                }
+                mIndex++;
+                break;
+            }
+            case PHASE_SUBSEQUENCE: {
+                if (mIndex == mOldItems.size()) {
+                    mMovedCount = mMatchedCount - mTailsSize;
+                    mPhase = PHASE_STAYS;
+                    mIndex = mTailsSize == 0 ? -1 : mTails[mTailsSize - 1];
+                    break;
+                }
+                final int newPosition = mOldToNew[mIndex];
+                if (newPosition >= 0) {
+                    // binary search for the first pile whose top isn't smaller
+                    int low = 0;
+                    int high = mTailsSize;
+                    while (low < high) {
+                        final int mid = (low + high) >>> 1;
+                        if (mOldToNew[mTails[mid]] < newPosition) {
+                            low = mid + 1;
+                        } else {
+                            high = mid;
+                        }
+                    }
+                    mPredecessor[mIndex] = low > 0 ? mTails[low - 1] : -1;
+                    mTails[low] = mIndex;
+                    if (low == mTailsSize) {
+                        mTailsSize++;
+                    }
+                }
+                mIndex++;
+                break;
+            }
+            case PHASE_STAYS: {
+                if (mIndex < 0) {
+                    mPhase = PHASE_REMOVE;
+                    mIndex = mOldItems.size() - 1;
+                    break;
+                }
+                // walks the predecessors of the longest increasing subsequence from its end
+                mStays.set(mIndex);
+                mIndex = mPredecessor[mIndex];
+                break;
+            }
+            case PHASE_REMOVE: {
+                if (mIndex < 0) {
+                    flushRemoved(0);
+                    if (mMovedCount > 0) {
+                        mCurrent = new RankedTree<>();
+                        //noinspection unchecked
+                        mEntries = new RankedTree.Entry[mNewItems.size()];
+                        mPhase = PHASE_PREPARE_MOVES;
+                    } else {
+                        mPhase = PHASE_INSERT;
+                    }
+                    mIndex = 0;
+                    break;
+                }
+                // backwards, removals don't shift the positions of the remaining removals
+                if (mOldToNew[mIndex] < 0) {
+                    if (mRemovedEnd < 0) {
+                        mRemovedEnd = mIndex + 1;
+                    }
+                } else {
+                    flushRemoved(mIndex + 1);
+                }
+                mIndex--;
+                break;
+            }
+            case PHASE_PREPARE_MOVES: {
+                if (mIndex == mOldItems.size()) {
+                    mPhase = PHASE_MOVE;
+                    mIndex = 0;
+                    break;
+                }
+                // the tree of matched items in their old order the moves are recorded with
+                final int newPosition = mOldToNew[mIndex];
+                if (newPosition >= 0) {
+                    mEntries[newPosition] = mCurrent.add(newPosition);
+                }
+                mIndex++;
+                break;
+            }
+            case PHASE_MOVE: {
+                if (mIndex == mNewItems.size()) {
+                    mCurrent = null;
+                    mEntries = null;
+                    mPhase = PHASE_INSERT;
+                    mIndex = 0;
+                    break;
+                }
+                final int oldPosition = mNewToOld[mIndex];
+                if (oldPosition >= 0) {
+                    if (!mStays.get(oldPosition)) {
+                        move(mIndex);
+                    }
+                    mLastPlaced = mIndex;
+                }
+                mIndex++;
+                break;
+            }
+            case PHASE_INSERT: {
+                final boolean end = mIndex == mNewItems.size();
+                if (!end && mNewToOld[mIndex] < 0) {
+                    if (mInsertedStart < 0) {
+                        mInsertedStart = mIndex;
+                    }
+                } else if (mInsertedStart >= 0) {
+                    mScript.onInserted(mInsertedStart, mIndex - mInsertedStart);
+                    mInsertedStart = -1;
+                }
+                if (end) {
+                    mPhase = PHASE_CHANGE;
+                    mIndex = mChanged.nextSetBit(0);
+                    break;
+                }
+                mIndex++;
+                break;
+            }
+            case PHASE_CHANGE: {
+                if (mIndex < 0) {
+                    mPhase = PHASE_APPLY;
+                    break;
+                }
+                final int runEnd = mChanged.nextClearBit(mIndex);
+                mScript.onChanged(mIndex, runEnd - mIndex, null);
+                mIndex = mChanged.nextSetBit(runEnd);
+                break;
+            }
+            default:
+                throw new IllegalStateException("unknown phase " + mPhase);
+        }
+    }
+}
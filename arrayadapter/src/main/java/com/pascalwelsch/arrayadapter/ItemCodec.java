@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2017 Pascal Welsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pascalwelsch.arrayadapter;
+
+import android.support.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts items to a compact binary form and back. Used to keep items serialized instead of
+ * materialized as objects.
+ *
+ * @param <T> item type
+ */
+public interface ItemCodec<T> {
+
+    /**
+     * Reads an item written by {@link #encode(Object)}.
+     *
+     * @param buffer contains exactly the bytes of one item, starting at position {@code 0}
+     * @return the decoded item
+     */
+    @NonNull
+    T decode(@NonNull ByteBuffer buffer);
+
+    /**
+     * Writes the item. Items with the same visible content must produce equal bytes, stored
+     * items are compared by their bytes.
+     *
+     * @param item the item to serialize
+     * @return the serialized item
+     */
+    @NonNull
+    byte[] encode(@NonNull T item);
+
+    /**
+     * @return a stable id for the item, stored next to the bytes to diff without decoding
+     */
+    long getItemId(@NonNull T item);
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2017 Pascal Welsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pascalwelsch.arrayadapter;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Receives the items of {@link ArrayAdapter#forEach(ItemConsumer)} one after another, i.e. to
+ * compute an aggregate like a total or an unread count.
+ *
+ * @param <T> item type
+ */
+public interface ItemConsumer<T> {
+
+    /**
+     * @param item     the current item
+     * @param position position of the item in the iterated snapshot
+     */
+    void accept(@NonNull T item, int position);
+}
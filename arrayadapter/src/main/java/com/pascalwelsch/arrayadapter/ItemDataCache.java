@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2017 Pascal Welsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pascalwelsch.arrayadapter;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v7.widget.RecyclerView;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of data derived from the items of an {@link ArrayAdapter}, keyed by
+ * {@link ArrayAdapter#getItemId(Object)}. Cached data is dropped when the adapter notifies a
+ * change of the item and is ignored when the cached item differs in content from the current
+ * one according to {@link ArrayAdapter#isContentTheSame(Object, Object)}.
+ * <p>
+ * The positions of a dispatched diff don't match the final items until the dispatch is
+ * finished. Changed positions are therefore shifted along the following notifications and
+ * resolved to ids on the next access, after the dispatch.
+ * <p>
+ * Thread safe.
+ *
+ * @param <T> item type
+ * @param <D> data type
+ */
+final class ItemDataCache<T, D> {
+
+    /**
+     * computes the data for an item on a cache miss
+     */
+    interface Loader<T, D> {
+
+        D load(@NonNull T item);
+    }
+
+    private static final class Cached<T, D> {
+
+        final D data;
+
+        final T item;
+
+        Cached(final T item, final D data) {
+            this.item = item;
+            this.data = data;
+        }
+    }
+
+    private final ArrayAdapter<T, ?> mAdapter;
+
+    /**
+     * positions notified as changed which are not resolved to ids yet, guarded by
+     * {@link #mEntries}
+     */
+    private final SelectionTracker mChanged = new SelectionTracker();
+
+    private final LinkedHashMap<Object, Cached<T, D>> mEntries;
+
+    /**
+     * true when {@link #mChanged} may contain positions
+     */
+    private volatile boolean mHasChanged;
+
+    private final RecyclerView.AdapterDataObserver mInvalidator =
+            new RecyclerView.AdapterDataObserver() {
+                @Override
+                public void onChanged() {
+                    clear();
+                }
+
+                @Override
+                public void onItemRangeChanged(final int positionStart, final int itemCount,
+                        final Object payload) {
+                    if (payload == ArrayAdapter.PAYLOAD_SELECTION) {
+                        // only the selection state changed, not the items
+                        return;
+                    }
+                    if (mAdapter.isReordering() && !mHasChanged) {
+                        // only the order changed, the entries are cached by id
+                        return;
+                    }
+                    // a reorder moved the changed positions which aren't resolved yet to unknown
+                    // positions, then all notified positions are evicted
+                    synchronized (mEntries) {
+                        mChanged.set(positionStart, positionStart + itemCount, true);
+                        mHasChanged = true;
+                    }
+                }
+
+                @Override
+                public void onItemRangeChanged(final int positionStart, final int itemCount) {
+                    onItemRangeChanged(positionStart, itemCount, null);
+                }
+
+                @Override
+                public void onItemRangeInserted(final int positionStart, final int itemCount) {
+                    if (mHasChanged) {
+                        synchronized (mEntries) {
+                            mChanged.onItemRangeInserted(positionStart, itemCount);
+                        }
+                    }
+                }
+
+                @Override
+                public void onItemRangeMoved(final int fromPosition, final int toPosition,
+                        final int itemCount) {
+                    if (mHasChanged) {
+                        synchronized (mEntries) {
+                            mChanged.onItemRangeMoved(fromPosition, toPosition, itemCount);
+                        }
+                    }
+                }
+
+                @Override
+                public void onItemRangeRemoved(final int positionStart, final int itemCount) {
+                    if (mHasChanged) {
+                        synchronized (mEntries) {
+                            mChanged.onItemRangeRemoved(positionStart, itemCount);
+                        }
+                    }
+                }
+            };
+
+    ItemDataCache(@NonNull final ArrayAdapter<T, ?> adapter, final int maxSize) {
+        mAdapter = adapter;
+        mEntries = new LinkedHashMap<Object, Cached<T, D>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Object, Cached<T, D>> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * starts dropping data of changed items
+     */
+    void attach() {
+        mAdapter.registerAdapterDataObserver(mInvalidator);
+    }
+
+    void clear() {
+        synchronized (mEntries) {
+            mEntries.clear();
+            mChanged.clear();
+            mHasChanged = false;
+        }
+    }
+
+    /**
+     * @return true when up to date data for the item is cached
+     */
+    boolean contains(@NonNull final T item) {
+        evictChanged();
+        synchronized (mEntries) {
+            return find(item) != null;
+        }
+    }
+
+    /**
+     * stops dropping data of changed items and clears the cache
+     */
+    void detach() {
+        mAdapter.unregisterAdapterDataObserver(mInvalidator);
+        clear();
+    }
+
+    /**
+     * Returns the cached data for the item or loads it on the calling thread
+     */
+    @Nullable
+    D get(@NonNull final T item, @NonNull final Loader<T, D> loader) {
+        evictChanged();
+        synchronized (mEntries) {
+            final Cached<T, D> entry = find(item);
+            if (entry != null) {
+                return entry.data;
+            }
+        }
+        final D data = loader.load(item);
+        put(item, data);
+        return data;
+    }
+
+    void put(@NonNull final T item, @Nullable final D data) {
+        synchronized (mEntries) {
+            mEntries.put(mAdapter.getItemId(item), new Cached<>(item, data));
+        }
+    }
+
+    int size() {
+        synchronized (mEntries) {
+            return mEntries.size();
+        }
+    }
+
+    /**
+     * drops the data of the items at the changed positions, waits until a running dispatch of
+     * the adapter is finished so the positions match the items
+     */
+    private void evictChanged() {
+        if (!mHasChanged) {
+            return;
+        }
+        synchronized (mAdapter.getLock()) {
+            synchronized (mEntries) {
+                for (final int position : mChanged.toArray()) {
+                    final T item = mAdapter.getItem(position);
+                    if (item != null) {
+                        mEntries.remove(mAdapter.getItemId(item));
+                    }
+                }
+                mChanged.clear();
+                mHasChanged = false;
+            }
+        }
+    }
+
+    @Nullable
+    private Cached<T, D> find(@NonNull final T item) {
+        final Cached<T, D> entry = mEntries.get(mAdapter.getItemId(item));
+        if (entry == null) {
+            return null;
+        }
+        if (entry.item != item && !mAdapter.isContentTheSame(entry.item, item)) {
+            return null;
+        }
+        return entry;
+    }
+}
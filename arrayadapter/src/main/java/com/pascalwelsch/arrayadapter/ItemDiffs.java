@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2017 Pascal Welsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pascalwelsch.arrayadapter;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Item comparison shared by {@link ArrayAdapter}, {@link SectionedArrayAdapter} and
+ * {@link ArrayDataSource}: the default implementations of {@code isItemTheSame} and
+ * {@code isContentTheSame}, a reusable diff callback comparing with them and the null check of
+ * added items.
+ */
+final class ItemDiffs {
+
+    /**
+     * compares items, implemented by the public {@code isItemTheSame} and
+     * {@code isContentTheSame} methods of the adapters
+     */
+    interface Matcher<T> {
+
+        boolean isContentTheSame(@Nullable T oldItem, @Nullable T newItem);
+
+        boolean isItemTheSame(@Nullable T oldItem, @Nullable T newItem);
+    }
+
+    private ItemDiffs() {
+    }
+
+    /**
+     * Creates the diff callback of an adapter once, it is prepared for every diff.
+     *
+     * @return a callback comparing the items with {@code matcher}
+     */
+    @NonNull
+    static <T> ReusableDiffCallback<T> callback(@NonNull final Matcher<T> matcher) {
+        return new ReusableDiffCallback<T>() {
+            @Override
+            public boolean areContentsTheSame(final int oldItemPosition,
+                    final int newItemPosition) {
+                return matcher.isContentTheSame(mOldItems.get(oldItemPosition),
+                        mNewItems.get(newItemPosition));
+            }
+
+            @Override
+            public boolean areItemsTheSame(final int oldItemPosition,
+                    final int newItemPosition) {
+                return matcher.isItemTheSame(mOldItems.get(oldItemPosition),
+                        mNewItems.get(newItemPosition));
+            }
+        };
+    }
+
+    /**
+     * default content comparison, {@link Object#equals(Object)}
+     */
+    static boolean isContentTheSame(@Nullable final Object oldItem,
+            @Nullable final Object newItem) {
+        return (oldItem == newItem) || (oldItem != null && oldItem.equals(newItem));
+    }
+
+    /**
+     * default item comparison by the ids of both items
+     */
+    static boolean isSameId(@Nullable final Object oldId, @Nullable final Object newId) {
+        return (oldId == newId) || (oldId != null && oldId.equals(newId));
+    }
+
+    static void requireNotNullItem(@Nullable final Object o) {
+        if (o == null) {
+            throw new IllegalStateException("null items are not allowed");
+        }
+    }
+}
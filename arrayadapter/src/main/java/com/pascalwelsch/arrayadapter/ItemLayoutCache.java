@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2017 Pascal Welsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pascalwelsch.arrayadapter;
+
+import android.support.annotation.NonNull;
+import android.support.v7.widget.GridLayoutManager;
+import android.support.v7.widget.RecyclerView;
+
+import java.util.Arrays;
+
+/**
+ * View type and span size of every position of an {@link ArrayAdapter} stored in primitive
+ * arrays. Follows the notifications of the adapter and shifts the arrays like the items are
+ * shifted. Inserted and changed positions are computed from {@link ArrayAdapter#getViewType}
+ * and {@link ArrayAdapter#getSpanSize} on the next access, not while notifying, because the
+ * positions of a dispatched diff don't match the final items yet.
+ * <p>
+ * The span index and row of every position are cached, too. They depend on all spans before the
+ * position, so they are computed front to back and dropped from the first notified position on.
+ * Recomputing them only adds the cached span sizes up to the requested position.
+ * <p>
+ * Not thread safe, only used on the main thread.
+ *
+ * @param <T> item type
+ */
+final class ItemLayoutCache<T> extends RecyclerView.AdapterDataObserver {
+
+    /**
+     * span size of positions which have to be computed, valid span sizes are >= 1
+     */
+    private static final int UNKNOWN = 0;
+
+    private final ArrayAdapter<T, ?> mAdapter;
+
+    private int mCount;
+
+    private final GridLayoutManager.SpanSizeLookup mLookup =
+            new GridLayoutManager.SpanSizeLookup() {
+                @Override
+                public int getSpanGroupIndex(final int adapterPosition, final int spanCount) {
+                    computeSpans(adapterPosition, spanCount);
+                    return mSpanGroups[adapterPosition];
+                }
+
+                @Override
+                public int getSpanIndex(final int position, final int spanCount) {
+                    computeSpans(position, spanCount);
+                    return mSpanIndices[position];
+                }
+
+                @Override
+                public int getSpanSize(final int position) {
+                    return ItemLayoutCache.this.getSpanSize(position);
+                }
+            };
+
+    /**
+     * span count of the cached span indices
+     */
+    private int mSpanCount;
+
+    /**
+     * row of the positions below {@link #mValidSpans}
+     */
+    private int[] mSpanGroups;
+
+    /**
+     * column of the positions below {@link #mValidSpans}
+     */
+    private int[] mSpanIndices;
+
+    private int[] mSpanSizes;
+
+    /**
+     * number of positions from the start with cached span index and row
+     */
+    private int mValidSpans;
+
+    private int[] mViewTypes;
+
+    ItemLayoutCache(@NonNull final ArrayAdapter<T, ?> adapter) {
+        mAdapter = adapter;
+        mCount = adapter.getItemCount();
+        mSpanSizes = new int[mCount];
+        mViewTypes = new int[mCount];
+        mSpanIndices = new int[mCount];
+        mSpanGroups = new int[mCount];
+    }
+
+    /**
+     * grows the arrays to at least {@code capacity} positions
+     */
+    void ensureCapacity(final int capacity) {
+        if (mSpanSizes.length >= capacity) {
+            return;
+        }
+        final int newCapacity = Math.max(capacity, mSpanSizes.length * 2);
+        mSpanSizes = Arrays.copyOf(mSpanSizes, newCapacity);
+        mViewTypes = Arrays.copyOf(mViewTypes, newCapacity);
+    }
+
+    long getAllocatedBytes() {
+        return 4L * (mSpanSizes.length + mViewTypes.length + mSpanIndices.length
+                + mSpanGroups.length);
+    }
+
+    @NonNull
+    GridLayoutManager.SpanSizeLookup getLookup() {
+        return mLookup;
+    }
+
+    int getSpanSize(final int position) {
+        compute(position);
+        return mSpanSizes[position];
+    }
+
+    int getViewType(final int position) {
+        compute(position);
+        return mViewTypes[position];
+    }
+
+    /**
+     * The positions are unknown after a full data set change, everything is computed again
+     */
+    @Override
+    public void onChanged() {
+        mCount = mAdapter.getItemCount();
+        ensureCapacity(mCount);
+        Arrays.fill(mSpanSizes, 0, mCount, UNKNOWN);
+        mValidSpans = 0;
+    }
+
+    @Override
+    public void onItemRangeChanged(final int positionStart, final int itemCount,
+            final Object payload) {
+        if (payload == ArrayAdapter.PAYLOAD_SELECTION || mAdapter.isReordering()) {
+            // only the selection state or the order changed, not the items
+            return;
+        }
+        Arrays.fill(mSpanSizes, positionStart, positionStart + itemCount, UNKNOWN);
+        invalidateSpans(positionStart);
+    }
+
+    @Override
+    public void onItemRangeChanged(final int positionStart, final int itemCount) {
+        onItemRangeChanged(positionStart, itemCount, null);
+    }
+
+    @Override
+    public void onItemRangeInserted(final int positionStart, final int itemCount) {
+        ensureCapacity(mCount + itemCount);
+        final int tail = mCount - positionStart;
+        System.arraycopy(mSpanSizes, positionStart, mSpanSizes, positionStart + itemCount, tail);
+        System.arraycopy(mViewTypes, positionStart, mViewTypes, positionStart + itemCount, tail);
+        Arrays.fill(mSpanSizes, positionStart, positionStart + itemCount, UNKNOWN);
+        mCount += itemCount;
+        invalidateSpans(positionStart);
+    }
+
+    @Override
+    public void onItemRangeMoved(final int fromPosition, final int toPosition,
+            final int itemCount) {
+        for (int i = 0; i < itemCount; i++) {
+            move(fromPosition + i, toPosition + i);
+        }
+        invalidateSpans(Math.min(fromPosition, toPosition));
+    }
+
+    @Override
+    public void onItemRangeRemoved(final int positionStart, final int itemCount) {
+        final int end = positionStart + itemCount;
+        System.arraycopy(mSpanSizes, end, mSpanSizes, positionStart, mCount - end);
+        System.arraycopy(mViewTypes, end, mViewTypes, positionStart, mCount - end);
+        mCount -= itemCount;
+        invalidateSpans(positionStart);
+    }
+
+    /**
+     * moves the cached values along with reordered items, the span indices are computed again
+     *
+     * @param order old positions by new position
+     */
+    void permute(@NonNull final int[] order) {
+        if (order.length != mCount) {
+            onChanged();
+            return;
+        }
+        final int[] spanSizes = new int[mSpanSizes.length];
+        final int[] viewTypes = new int[mViewTypes.length];
+        for (int i = 0; i < order.length; i++) {
+            spanSizes[i] = mSpanSizes[order[i]];
+            viewTypes[i] = mViewTypes[order[i]];
+        }
+        mSpanSizes = spanSizes;
+        mViewTypes = viewTypes;
+        mValidSpans = 0;
+    }
+
+    /**
+     * shrinks the arrays to the current number of positions
+     */
+    void trimToSize() {
+        mSpanSizes = Arrays.copyOf(mSpanSizes, mCount);
+        mViewTypes = Arrays.copyOf(mViewTypes, mCount);
+        mSpanIndices = Arrays.copyOf(mSpanIndices, Math.min(mValidSpans, mCount));
+        mSpanGroups = Arrays.copyOf(mSpanGroups, Math.min(mValidSpans, mCount));
+    }
+
+    /**
+     * computes view type and span size of the position when unknown
+     */
+    private void compute(final int position) {
+        if (mCount != mAdapter.getItemCount()) {
+            // a notification was missed, i.e. a subclass mutated without notifying
+            onChanged();
+        }
+        if (position < 0 || position >= mCount) {
+            throw new IndexOutOfBoundsException("position " + position + " for size " + mCount);
+        }
+        if (mSpanSizes[position] != UNKNOWN) {
+            return;
+        }
+        final T item = mAdapter.getItem(position);
+        //noinspection ConstantConditions position is in range
+        final int spanSize = mAdapter.getSpanSize(item);
+        if (spanSize < 1) {
+            throw new IllegalStateException(
+                    "span size must be >= 1, was " + spanSize + " for " + item);
+        }
+        mSpanSizes[position] = spanSize;
+        mViewTypes[position] = mAdapter.getViewType(item);
+    }
+
+    /**
+     * computes span index and row of all positions up to {@code position} which aren't cached,
+     * rows are filled like {@link GridLayoutManager} fills them
+     */
+    private void computeSpans(final int position, final int spanCount) {
+        compute(position);
+        if (spanCount != mSpanCount) {
+            mSpanCount = spanCount;
+            mValidSpans = 0;
+        }
+        if (position < mValidSpans) {
+            return;
+        }
+        if (mSpanIndices.length < mSpanSizes.length) {
+            mSpanIndices = Arrays.copyOf(mSpanIndices, mSpanSizes.length);
+            mSpanGroups = Arrays.copyOf(mSpanGroups, mSpanSizes.length);
+        }
+        int next = 0;
+        int group = 0;
+        if (mValidSpans > 0) {
+            final int last = mValidSpans - 1;
+            next = mSpanIndices[last] + mSpanSizes[last];
+            group = mSpanGroups[last];
+        }
+        for (int i = mValidSpans; i <= position; i++) {
+            final int spanSize = getSpanSize(i);
+            if (next > 0 && next + spanSize > spanCount) {
+                // doesn't fit into the current row
+                next = 0;
+                group++;
+            }
+            mSpanIndices[i] = next;
+            mSpanGroups[i] = group;
+            next += spanSize;
+        }
+        mValidSpans = position + 1;
+    }
+
+    private void invalidateSpans(final int position) {
+        mValidSpans = Math.min(mValidSpans, position);
+    }
+
+    private void move(final int from, final int to) {
+        if (from == to) {
+            return;
+        }
+        final int spanSize = mSpanSizes[from];
+        final int viewType = mViewTypes[from];
+        if (from < to) {
+            System.arraycopy(mSpanSizes, from + 1, mSpanSizes, from, to - from);
+            System.arraycopy(mViewTypes, from + 1, mViewTypes, from, to - from);
+        } else {
+            System.arraycopy(mSpanSizes, to, mSpanSizes, to + 1, from - to);
+            System.arraycopy(mViewTypes, to, mViewTypes, to + 1, from - to);
+        }
+        mSpanSizes[to] = spanSize;
+        mViewTypes[to] = viewType;
+    }
+}
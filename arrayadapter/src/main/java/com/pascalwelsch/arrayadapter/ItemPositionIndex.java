@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2017 Pascal Welsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pascalwelsch.arrayadapter;
+
+import android.support.annotation.NonNull;
+import android.support.v7.widget.RecyclerView;
+
+import java.util.HashMap;
+
+/**
+ * Position of the first item of every id of an {@link ArrayAdapter}, used to resolve
+ * {@link ArrayAdapter#invalidateById(Object, Object)}. Follows the notifications of the adapter
+ * like the id index of {@link LongIdArrayAdapter}: items appended or removed at the end keep the
+ * index, the appended items are indexed on the next lookup. Other structural changes shift the
+ * positions and the index is rebuilt on the next lookup.
+ * <p>
+ * Changed items usually keep their id and keep the index as well. Every hit is checked against
+ * the id of the current item at the position and a miss after a change rebuilds the index, so a
+ * stale entry never resolves to a wrong position.
+ * <p>
+ * Guarded by the lock of the adapter, the adapter notifies while holding it.
+ *
+ * @param <T> item type
+ */
+final class ItemPositionIndex<T> extends RecyclerView.AdapterDataObserver {
+
+    private final ArrayAdapter<T, ?> mAdapter;
+
+    /**
+     * whether an item was changed since the index was built, it may have got another id
+     */
+    private boolean mChanged;
+
+    /**
+     * number of items according to the notifications
+     */
+    private int mCount;
+
+    /**
+     * number of positions from the start which are indexed
+     */
+    private int mIndexed;
+
+    private HashMap<Object, Integer> mPositions = new HashMap<>();
+
+    /**
+     * number of ids {@link #mPositions} was sized for
+     */
+    private int mCapacity;
+
+    private boolean mValid;
+
+    ItemPositionIndex(@NonNull final ArrayAdapter<T, ?> adapter) {
+        mAdapter = adapter;
+    }
+
+    /**
+     * makes sure {@code capacity} ids can be indexed without rehashing
+     */
+    void ensureCapacity(final int capacity) {
+        if (capacity > mCapacity) {
+            final HashMap<Object, Integer> grown = new HashMap<>(capacity * 2);
+            grown.putAll(mPositions);
+            mPositions = grown;
+            mCapacity = capacity;
+        }
+    }
+
+    /**
+     * @return the approximate number of bytes of the map and its boxed positions
+     */
+    long getAllocatedBytes() {
+        // sized for twice the capacity, or the default of 16
+        return MemoryStats.estimateHashBytes(Math.max(16, mCapacity * 2), mPositions.size(),
+                MemoryStats.HASH_ENTRY_BYTES + MemoryStats.BOXED_INT_BYTES);
+    }
+
+    /**
+     * @return the position of the first item with the id or -1 when no item has the id
+     */
+    int get(@NonNull final Object id) {
+        if (!mValid || mCount != mAdapter.getItemCount()) {
+            // a notification was missed, i.e. a subclass mutated without notifying
+            rebuild();
+        }
+        indexAppended();
+        final int position = find(id);
+        if (position == -1 && !mChanged) {
+            return -1;
+        }
+        if (position >= 0 && isIdAt(id, position)) {
+            return position;
+        }
+        rebuild();
+        return find(id);
+    }
+
+    /**
+     * shrinks the index to the indexed ids
+     */
+    void trimToSize() {
+        mPositions = new HashMap<>(mPositions);
+        mCapacity = mPositions.size();
+    }
+
+    @Override
+    public void onChanged() {
+        mValid = false;
+    }
+
+    @Override
+    public void onItemRangeChanged(final int positionStart, final int itemCount,
+            final Object payload) {
+        if (mAdapter.isReordering()) {
+            // same items at other positions
+            mValid = false;
+        } else if (payload != ArrayAdapter.PAYLOAD_SELECTION
+                && !mAdapter.isDispatchingInvalidations()) {
+            mChanged = true;
+        }
+    }
+
+    @Override
+    public void onItemRangeChanged(final int positionStart, final int itemCount) {
+        onItemRangeChanged(positionStart, itemCount, null);
+    }
+
+    @Override
+    public void onItemRangeInserted(final int positionStart, final int itemCount) {
+        if (positionStart == mCount) {
+            // appended, indexed on the next lookup
+            mCount += itemCount;
+        } else {
+            mValid = false;
+        }
+    }
+
+    @Override
+    public void onItemRangeMoved(final int fromPosition, final int toPosition,
+            final int itemCount) {
+        mValid = false;
+    }
+
+    @Override
+    public void onItemRangeRemoved(final int positionStart, final int itemCount) {
+        if (positionStart + itemCount == mCount) {
+            // removed from the end, entries behind the end are ignored by find()
+            mCount = positionStart;
+            mIndexed = Math.min(mIndexed, mCount);
+        } else {
+            mValid = false;
+        }
+    }
+
+    /**
+     * @return the indexed position when it is within the items, it isn't checked against the
+     * current item
+     */
+    private int find(@NonNull final Object id) {
+        final Integer position = mPositions.get(id);
+        return position == null || position >= mCount ? -1 : position;
+    }
+
+    /**
+     * indexes the items appended since the last lookup
+     */
+    private void indexAppended() {
+        for (int i = mIndexed; i < mCount; i++) {
+            //noinspection ConstantConditions position is in range
+            final Object id = mAdapter.getItemId(mAdapter.getItem(i));
+            final Integer existing = mPositions.get(id);
+            // first occurrence wins, like List#indexOf. Entries behind the position belong to
+            // removed items
+            if (existing == null || existing >= i) {
+                mPositions.put(id, i);
+            }
+        }
+        mIndexed = mCount;
+    }
+
+    private boolean isIdAt(@NonNull final Object id, final int position) {
+        //noinspection ConstantConditions position is in range
+        return ItemDiffs.isSameId(id, mAdapter.getItemId(mAdapter.getItem(position)));
+    }
+
+    private void rebuild() {
+        mPositions.clear();
+        mCount = mAdapter.getItemCount();
+        mIndexed = 0;
+        mChanged = false;
+        mValid = true;
+        indexAppended();
+    }
+}
@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2017 Pascal Welsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pascalwelsch.arrayadapter;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v7.widget.RecyclerView;
+
+import java.util.List;
+
+/**
+ * {@link ArrayAdapter} for items identified by a primitive {@code long} id, i.e. a database
+ * primary key. Ids aren't boxed while diffing: {@link #swap(List)} extracts the ids of the old
+ * and new items once into {@code long[]} arrays and compares those. The arrays are reused for
+ * the next diff.
+ * <p>
+ * Positions can be resolved by id with {@link #getPositionForId(long)} using a primitive hash
+ * index and the ids are reported as stable ids to the {@link RecyclerView}.
+ *
+ * @param <T>  item type (a immutable pojo works best)
+ * @param <VH> {@link RecyclerView.ViewHolder} for item {@link T}
+ */
+@SuppressWarnings("WeakerAccess")
+public abstract class LongIdArrayAdapter<T, VH extends RecyclerView.ViewHolder>
+        extends ArrayAdapter<T, VH> {
+
+    private final LongIntMap mIdIndex = new LongIntMap();
+
+    /**
+     * invalidates the id index, registered with the first lookup so
+     * {@link #setHasStableIds(boolean)} can still be called after construction
+     */
+    @Nullable
+    private RecyclerView.AdapterDataObserver mIndexInvalidator;
+
+    private boolean mIndexValid = false;
+
+    /**
+     * ids of the new items of the last diff, reused as scratch array
+     */
+    private long[] mNewIds = new long[0];
+
+    /**
+     * ids of the old items of the last diff, reused as scratch array
+     */
+    private long[] mOldIds = new long[0];
+
+    /**
+     * compares the ids extracted once into scratch arrays which are reused for the next diff
+     */
+    private final ReusableDiffCallback<T> mIdDiffCallback = new ReusableDiffCallback<T>() {
+        @Override
+        public boolean areContentsTheSame(final int oldItemPosition,
+                final int newItemPosition) {
+            return isContentTheSame(mOldItems.get(oldItemPosition),
+                    mNewItems.get(newItemPosition));
+        }
+
+        @Override
+        public boolean areItemsTheSame(final int oldItemPosition, final int newItemPosition) {
+            return mOldIds[oldItemPosition] == mNewIds[newItemPosition];
+        }
+
+        @Override
+        void onPrepare(@NonNull final List<T> oldItems, @NonNull final List<T> newItems) {
+            mOldIds = extractIds(oldItems, mOldIds);
+            mNewIds = extractIds(newItems, mNewIds);
+        }
+    };
+
+    public LongIdArrayAdapter(@NonNull final List<T> objects) {
+        super(objects);
+    }
+
+    public LongIdArrayAdapter() {
+        super();
+    }
+
+    /**
+     * Reserves the id index and the diff scratch arrays for {@code minCapacity} items so they
+     * don't grow step by step while a large page is added.
+     *
+     * @see ArrayAdapter#ensureCapacity(int)
+     */
+    @Override
+    public void ensureCapacity(final int minCapacity) {
+        super.ensureCapacity(minCapacity);
+        mIdIndex.ensureCapacity(minCapacity);
+        if (mOldIds.length < minCapacity) {
+            mOldIds = new long[minCapacity];
+        }
+        if (mNewIds.length < minCapacity) {
+            mNewIds = new long[minCapacity];
+        }
+    }
+
+    /**
+     * Boxed version of {@link #getLongItemId(Object)} for compatibility with
+     * {@link ArrayAdapter}. The diff of {@link #swap(List)} and the id lookups don't call it, but
+     * optional features of {@link ArrayAdapter} do and box every id they read: the duplicate id
+     * policy, the fingerprints of the diff cache, the parallel and the incremental diff and the
+     * cache of the prefetched bind data.
+     */
+    @Nullable
+    @Override
+    public final Object getItemId(@NonNull final T item) {
+        return getLongItemId(item);
+    }
+
+    /**
+     * Stable id of the item at {@code position}, the result of {@link #getLongItemId(Object)}
+     *
+     * @see #setHasStableIds(boolean)
+     */
+    @Override
+    public long getItemId(final int position) {
+        final T item = getItem(position);
+        if (item == null) {
+            return RecyclerView.NO_ID;
+        }
+        return getLongItemId(item);
+    }
+
+    /**
+     * Return a stable id for an item. The item doesn't have to be part of the underlying data set.
+     *
+     * @param item for which a stable id should be generated
+     * @return a identifier for the given item
+     */
+    public abstract long getLongItemId(@NonNull T item);
+
+    /**
+     * Returns the position of the item with the given id. The lookup is backed by a hash index
+     * which is built with the first lookup and rebuilt lazily after the items have changed.
+     *
+     * @param id the id of the item, see {@link #getLongItemId(Object)}
+     * @return The position of the item with the given id or -1 if there is no such item.
+     */
+    public int getPositionForId(final long id) {
+        synchronized (getLock()) {
+            ensureIndex();
+            return mIdIndex.get(id);
+        }
+    }
+
+    /**
+     * Compares the ids of both items returned by {@link #getLongItemId(Object)} without boxing
+     *
+     * @see ArrayAdapter#isItemTheSame(Object, Object)
+     */
+    @Override
+    public boolean isItemTheSame(@Nullable final T oldItem, @Nullable final T newItem) {
+        if (oldItem == null && newItem == null) {
+            return true;
+        }
+        if (oldItem == null || newItem == null) {
+            return false;
+        }
+        return getLongItemId(oldItem) == getLongItemId(newItem);
+    }
+
+    /**
+     * Keeps the id index valid by updating only the positions between the old and new position
+     * of the moved items, O(distance) instead of rebuilding the index.
+     *
+     * @see ArrayAdapter#moveAll(int, int, int)
+     */
+    @Override
+    public void moveAll(final int fromStart, final int count, final int to) {
+        final boolean indexValid = mIndexValid;
+        super.moveAll(fromStart, count, to);
+        if (!indexValid || count == 0 || fromStart == to) {
+            return;
+        }
+        final int start = Math.min(fromStart, to);
+        final int end = Math.max(fromStart, to) + count;
+        // the moved range keeps its items, entries pointing into it are stale. Entries before
+        // the range are earlier duplicates and entries behind it are replaced by a moved copy
+        for (int i = start; i < end; i++) {
+            //noinspection ConstantConditions
+            final long id = getLongItemId(getItem(i));
+            final int indexed = mIdIndex.get(id);
+            if (indexed >= start && indexed < end) {
+                mIdIndex.remove(id);
+            }
+        }
+        for (int i = start; i < end; i++) {
+            //noinspection ConstantConditions
+            final long id = getLongItemId(getItem(i));
+            final int indexed = mIdIndex.get(id);
+            // first occurrence wins, like List#indexOf
+            if (indexed == LongIntMap.NOT_FOUND || indexed > i) {
+                mIdIndex.put(id, i);
+            }
+        }
+        mIndexValid = true;
+    }
+
+    /**
+     * Also shrinks the id index and releases the diff scratch arrays
+     *
+     * @see ArrayAdapter#trimToSize()
+     */
+    @Override
+    public void trimToSize() {
+        super.trimToSize();
+        if (!mIndexValid) {
+            mIdIndex.clear();
+        }
+        mIdIndex.trimToSize();
+        mOldIds = new long[0];
+        mNewIds = new long[0];
+    }
+
+    @NonNull
+    @Override
+    ReusableDiffCallback<T> createDiffCallback(@NonNull final List<T> oldItems,
+            @NonNull final List<T> newItems) {
+        return mIdDiffCallback.prepare(oldItems, newItems);
+    }
+
+    /**
+     * Resolves the id with the primitive id index of {@link #getPositionForId(long)}, any
+     * {@link Number} is accepted by its {@link Number#longValue()}, i.e. an {@link Integer}
+     * passed to {@link #invalidateById(Object, Object)}
+     */
+    @Override
+    int getPositionForItemId(@NonNull final Object id) {
+        return id instanceof Number ? getPositionForId(((Number) id).longValue()) : -1;
+    }
+
+    @Override
+    long getIndexBytes() {
+        return super.getIndexBytes() + mIdIndex.getAllocatedBytes()
+                + 8L * (mOldIds.length + mNewIds.length);
+    }
+
+    /**
+     * registers the invalidator and builds the index under the lock, so a lookup from a
+     * background thread doesn't index a list which is mutated meanwhile
+     */
+    private void ensureIndex() {
+        synchronized (getLock()) {
+            if (mIndexInvalidator == null) {
+                mIndexInvalidator = createIndexInvalidator();
+                registerAdapterDataObserver(mIndexInvalidator);
+            }
+            if (mIndexValid) {
+                return;
+            }
+            final int count = getItemCount();
+            mIdIndex.clear();
+            mIdIndex.ensureCapacity(count);
+            for (int i = 0; i < count; i++) {
+                //noinspection ConstantConditions
+                final long id = getLongItemId(getItem(i));
+                // first occurrence wins, like List#indexOf
+                if (!mIdIndex.containsKey(id)) {
+                    mIdIndex.put(id, i);
+                }
+            }
+            mIndexValid = true;
+        }
+    }
+
+    /**
+     * writes the ids of {@code items} into {@code ids}, grows the array when it is too small
+     *
+     * @return {@code ids} or the grown array
+     */
+    private long[] extractIds(@NonNull final List<T> items, @NonNull final long[] ids) {
+        final int size = items.size();
+        final long[] result = ids.length >= size ? ids : new long[Math.max(size, ids.length * 2)];
+        for (int i = 0; i < size; i++) {
+            final T item = items.get(i);
+            if (item == null) {
+                // swap rejects null items after diffing, use a fallback so the diff can't crash
+                result[i] = RecyclerView.NO_ID;
+            } else {
+                result[i] = getLongItemId(item);
+            }
+        }
+        return result;
+    }
+
+    @NonNull
+    private RecyclerView.AdapterDataObserver createIndexInvalidator() {
+        return new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                mIndexValid = false;
+            }
+
+            @Override
+            public void onItemRangeChanged(final int positionStart, final int itemCount,
+                    final Object payload) {
+                if (payload != PAYLOAD_SELECTION && !isDispatchingInvalidations()) {
+                    mIndexValid = false;
+                }
+            }
+
+            @Override
+            public void onItemRangeInserted(final int positionStart, final int itemCount) {
+                mIndexValid = false;
+            }
+
+            @Override
+            public void onItemRangeMoved(final int fromPosition, final int toPosition,
+                    final int itemCount) {
+                mIndexValid = false;
+            }
+
+            @Override
+            public void onItemRangeRemoved(final int positionStart, final int itemCount) {
+                mIndexValid = false;
+            }
+        };
+    }
+}
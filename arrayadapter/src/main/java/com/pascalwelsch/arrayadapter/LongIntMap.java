@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2017 Pascal Welsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pascalwelsch.arrayadapter;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from primitive {@code long} keys to primitive {@code int} values.
+ * Uses linear probing and backward shift deletion so lookups, inserts and removals never box
+ * the keys or allocate entry objects.
+ * <p>
+ * Not thread safe, callers have to synchronize the access.
+ */
+final class LongIntMap {
+
+    /**
+     * value returned by {@link #get(long)} when the key is not part of the map
+     */
+    static final int NOT_FOUND = -1;
+
+    private static final int MIN_CAPACITY = 16;
+
+    private boolean[] mFilled;
+
+    private long[] mKeys;
+
+    private int mMask;
+
+    private int mSize;
+
+    private int[] mValues;
+
+    LongIntMap() {
+        this(MIN_CAPACITY);
+    }
+
+    LongIntMap(final int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * removes all entries, keeps the allocated capacity
+     */
+    void clear() {
+        if (mSize == 0) {
+            return;
+        }
+        Arrays.fill(mFilled, false);
+        mSize = 0;
+    }
+
+    boolean containsKey(final long key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * makes sure {@code expectedSize} entries can be added without rehashing
+     */
+    void ensureCapacity(final int expectedSize) {
+        final int capacity = capacityFor(expectedSize);
+        if (capacity > mKeys.length) {
+            rehash(capacity);
+        }
+    }
+
+    /**
+     * @return the value for {@code key} or {@link #NOT_FOUND}
+     */
+    int get(final long key) {
+        final int index = indexOf(key);
+        return index < 0 ? NOT_FOUND : mValues[index];
+    }
+
+    /**
+     * @return the number of bytes allocated by the backing arrays
+     */
+    long getAllocatedBytes() {
+        // long key + int value + boolean flag per slot
+        return (long) mKeys.length * (8 + 4 + 1);
+    }
+
+    /**
+     * @return the previous value for {@code key} or {@link #NOT_FOUND}
+     */
+    int put(final long key, final int value) {
+        int index = slot(key);
+        while (mFilled[index]) {
+            if (mKeys[index] == key) {
+                final int previous = mValues[index];
+                mValues[index] = value;
+                return previous;
+            }
+            index = (index + 1) & mMask;
+        }
+        mFilled[index] = true;
+        mKeys[index] = key;
+        mValues[index] = value;
+        mSize++;
+        if (mSize * 4 > mKeys.length * 3) {
+            rehash(mKeys.length * 2);
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * @return the removed value for {@code key} or {@link #NOT_FOUND}
+     */
+    int remove(final long key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return NOT_FOUND;
+        }
+        final int removed = mValues[index];
+        mSize--;
+
+        // backward shift deletion, moves following entries of the probe sequence into the gap
+        int next = (index + 1) & mMask;
+        while (mFilled[next]) {
+            final int ideal = slot(mKeys[next]);
+            // distance from ideal slot to the gap is smaller than to the current position
+            if (((next - ideal) & mMask) >= ((next - index) & mMask)) {
+                mKeys[index] = mKeys[next];
+                mValues[index] = mValues[next];
+                index = next;
+            }
+            next = (next + 1) & mMask;
+        }
+        mFilled[index] = false;
+        return removed;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * shrinks the table to the smallest capacity for the current entries
+     */
+    void trimToSize() {
+        final int capacity = capacityFor(mSize);
+        if (capacity < mKeys.length) {
+            rehash(capacity);
+        }
+    }
+
+    private void allocate(final int capacity) {
+        mKeys = new long[capacity];
+        mValues = new int[capacity];
+        mFilled = new boolean[capacity];
+        mMask = capacity - 1;
+    }
+
+    private int indexOf(final long key) {
+        int index = slot(key);
+        while (mFilled[index]) {
+            if (mKeys[index] == key) {
+                return index;
+            }
+            index = (index + 1) & mMask;
+        }
+        return -1;
+    }
+
+    private void rehash(final int capacity) {
+        final long[] keys = mKeys;
+        final int[] values = mValues;
+        final boolean[] filled = mFilled;
+        allocate(capacity);
+        mSize = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (filled[i]) {
+                put(keys[i], values[i]);
+            }
+        }
+    }
+
+    private int slot(final long key) {
+        final long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mMask;
+    }
+
+    private static int capacityFor(final int expectedSize) {
+        // keep the load factor below 0.75
+        final int required = Math.max(MIN_CAPACITY, (int) (expectedSize / 0.75f) + 1);
+        return Integer.highestOneBit(required - 1) << 1;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2017 Pascal Welsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pascalwelsch.arrayadapter;
+
+/**
+ * Snapshot of the heap used by an {@link ArrayAdapter} besides the items themselves, returned by
+ * {@link ArrayAdapter#getMemoryStats()}. Byte counts are estimates assuming compressed
+ * references, good enough to track trends in production.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class MemoryStats {
+
+    /**
+     * approximate size of a boxed {@link Integer}
+     */
+    static final int BOXED_INT_BYTES = 16;
+
+    /**
+     * approximate size of a {@link java.util.HashMap} node: 12 byte header, hash, key, value and
+     * next reference
+     */
+    static final int HASH_ENTRY_BYTES = 32;
+
+    private final int mCachedBindDataCount;
+
+    private final long mIndexBytes;
+
+    private final int mItemCount;
+
+    private final int mReservedCapacity;
+
+    private final long mStorageBytes;
+
+    private final int mUndoHistorySize;
+
+    MemoryStats(final int itemCount, final long storageBytes, final long indexBytes,
+            final int reservedCapacity, final int cachedBindDataCount, final int undoHistorySize) {
+        mItemCount = itemCount;
+        mStorageBytes = storageBytes;
+        mIndexBytes = indexBytes;
+        mReservedCapacity = reservedCapacity;
+        mCachedBindDataCount = cachedBindDataCount;
+        mUndoHistorySize = undoHistorySize;
+    }
+
+    /**
+     * @return number of prepared bind data results currently cached
+     */
+    public int getCachedBindDataCount() {
+        return mCachedBindDataCount;
+    }
+
+    /**
+     * @return bytes allocated by lookup structures like the id index, the selection and reused
+     * scratch arrays
+     */
+    public long getIndexBytes() {
+        return mIndexBytes;
+    }
+
+    public int getItemCount() {
+        return mItemCount;
+    }
+
+    /**
+     * @return number of items the lookup structures were sized for by
+     * {@link ArrayAdapter#ensureCapacity(int)}, {@code 0} when nothing is reserved
+     */
+    public int getReservedCapacity() {
+        return mReservedCapacity;
+    }
+
+    /**
+     * @return bytes of the tree holding the items, without the items themselves. The tree never
+     * reserves spare capacity, after many removals its nodes can be partially filled until
+     * {@link ArrayAdapter#trimToSize()} is called.
+     */
+    public long getStorageBytes() {
+        return mStorageBytes;
+    }
+
+    /**
+     * @return number of recorded undo and redo steps
+     */
+    public int getUndoHistorySize() {
+        return mUndoHistorySize;
+    }
+
+    @Override
+    public String toString() {
+        return "MemoryStats{"
+                + "items=" + mItemCount
+                + ", storageBytes=" + mStorageBytes
+                + ", indexBytes=" + mIndexBytes
+                + ", reservedCapacity=" + mReservedCapacity
+                + ", cachedBindData=" + mCachedBindDataCount
+                + ", undoHistory=" + mUndoHistorySize
+                + '}';
+    }
+
+    /**
+     * Estimates the bytes of a {@link java.util.HashMap} or {@link java.util.HashSet} created with
+     * {@code capacity}, which grows its power of two table at a load factor of 0.75. Keys are
+     * not counted, they are referenced by the items already.
+     *
+     * @param entryBytes bytes per entry, including values allocated for the map
+     */
+    static long estimateHashBytes(final int capacity, final int size, final int entryBytes) {
+        long slots = Long.highestOneBit(Math.max(capacity, 1) * 2L - 1);
+        while (size > slots * 3 / 4) {
+            slots <<= 1;
+        }
+        return 16 + 4 * slots + (long) entryBytes * size;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2017 Pascal Welsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pascalwelsch.arrayadapter;
+
+import android.support.annotation.NonNull;
+import android.support.v7.util.ListUpdateCallback;
+import android.support.v7.widget.RecyclerView;
+
+/**
+ * Forwards list updates shifted by {@link #offset} to the {@code notify*} methods of an adapter,
+ * used to notify changes of a diffed sub range. Created once per adapter and reused.
+ */
+final class OffsetNotifier implements ListUpdateCallback {
+
+    int offset;
+
+    private final RecyclerView.Adapter<?> mAdapter;
+
+    OffsetNotifier(@NonNull final RecyclerView.Adapter<?> adapter) {
+        mAdapter = adapter;
+    }
+
+    @Override
+    public void onChanged(final int position, final int count, final Object payload) {
+        mAdapter.notifyItemRangeChanged(offset + position, count, payload);
+    }
+
+    @Override
+    public void onInserted(final int position, final int count) {
+        mAdapter.notifyItemRangeInserted(offset + position, count);
+    }
+
+    @Override
+    public void onMoved(final int fromPosition, final int toPosition) {
+        mAdapter.notifyItemMoved(offset + fromPosition, offset + toPosition);
+    }
+
+    @Override
+    public void onRemoved(final int position, final int count) {
+        mAdapter.notifyItemRangeRemoved(offset + position, count);
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2017 Pascal Welsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pascalwelsch.arrayadapter;
+
+import android.support.annotation.NonNull;
+import android.support.v7.util.DiffUtil;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * {@link DiffUtil.Callback} decorator which evaluates the expensive
+ * {@link DiffUtil.Callback#areContentsTheSame(int, int)} checks upfront and in parallel.
+ * <p>
+ * Old and new items sharing the same id (the anchors) are the only pairs {@link DiffUtil}
+ * compares by content. Those pairs are split into contiguous chunks of the old list, compared
+ * on the given {@link Executor} and the calling thread, and cached. {@link DiffUtil} then runs
+ * sequentially and produces a single ordered update script, reading the cached results.
+ * <p>
+ * Chunks are claimed by whichever thread gets to them first and the calling thread only waits
+ * for chunks which are already in progress. A serial executor, a busy pool or an executor
+ * posting to the calling thread (i.e. the main thread) therefore can't deadlock the diff, the
+ * calling thread compares the unclaimed chunks itself. The same applies to chunks whose worker
+ * the executor rejected.
+ */
+final class ParallelDiffCallback<T> extends DiffUtil.Callback {
+
+    private static final byte CONTENT_DIFFERENT = 2;
+
+    private static final byte CONTENT_SAME = 1;
+
+    private static final byte CONTENT_UNKNOWN = 0;
+
+    /**
+     * position in the new list with the same id for each old position or -1
+     */
+    private final int[] mAnchors;
+
+    private final byte[] mContentResults;
+
+    private final DiffUtil.Callback mDelegate;
+
+    ParallelDiffCallback(@NonNull final ArrayAdapter<T, ?> adapter,
+            @NonNull final DiffUtil.Callback delegate, @NonNull final List<T> oldItems,
+            @NonNull final List<T> newItems, @NonNull final Executor executor) {
+        mDelegate = delegate;
+        final int oldSize = oldItems.size();
+        mAnchors = new int[oldSize];
+        mContentResults = new byte[oldSize];
+
+        final int newSize = newItems.size();
+        final HashMap<Object, Integer> newPositions = new HashMap<>(newSize * 4 / 3 + 1);
+        for (int i = newSize - 1; i >= 0; i--) {
+            // iterate backwards so the first occurrence of an id wins
+            final T item = newItems.get(i);
+            if (item != null) {
+                newPositions.put(adapter.getItemId(item), i);
+            }
+        }
+        for (int i = 0; i < oldSize; i++) {
+            final T item = oldItems.get(i);
+            final Integer newPosition = item == null ? null
+                    : newPositions.get(adapter.getItemId(item));
+            mAnchors[i] = newPosition == null ? -1 : newPosition;
+        }
+
+        compareAnchors(executor);
+    }
+
+    @Override
+    public boolean areContentsTheSame(final int oldItemPosition, final int newItemPosition) {
+        if (mAnchors[oldItemPosition] == newItemPosition) {
+            final byte result = mContentResults[oldItemPosition];
+            if (result != CONTENT_UNKNOWN) {
+                return result == CONTENT_SAME;
+            }
+        }
+        // DiffUtil matched a pair which wasn't anticipated (i.e. duplicated ids)
+        return mDelegate.areContentsTheSame(oldItemPosition, newItemPosition);
+    }
+
+    @Override
+    public boolean areItemsTheSame(final int oldItemPosition, final int newItemPosition) {
+        return mDelegate.areItemsTheSame(oldItemPosition, newItemPosition);
+    }
+
+    @Override
+    public Object getChangePayload(final int oldItemPosition, final int newItemPosition) {
+        return mDelegate.getChangePayload(oldItemPosition, newItemPosition);
+    }
+
+    @Override
+    public int getNewListSize() {
+        return mDelegate.getNewListSize();
+    }
+
+    @Override
+    public int getOldListSize() {
+        return mDelegate.getOldListSize();
+    }
+
+    private void compareAnchors(@NonNull final Executor executor) {
+        final int size = mAnchors.length;
+        final int chunks = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(),
+                size / 1024));
+        final int chunkSize = (size + chunks - 1) / chunks;
+
+        final AtomicInteger nextChunk = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(chunks);
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                int chunk;
+                while ((chunk = nextChunk.getAndIncrement()) < chunks) {
+                    final int from = chunk * chunkSize;
+                    try {
+                        compareRange(from, Math.min(size, from + chunkSize));
+                    } catch (Throwable t) {
+                        error.compareAndSet(null, t);
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            }
+        };
+        for (int i = 1; i < chunks; i++) {
+            try {
+                executor.execute(worker);
+            } catch (RejectedExecutionException e) {
+                // shut down or saturated, the calling thread claims the remaining chunks
+                break;
+            }
+        }
+        // the calling thread works on the chunks nobody claimed yet instead of idling
+        worker.run();
+
+        try {
+            // only chunks in progress on other threads are left
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while diffing", e);
+        }
+        final Throwable throwable = error.get();
+        if (throwable != null) {
+            throw new IllegalStateException("content comparison failed", throwable);
+        }
+    }
+
+    private void compareRange(final int from, final int to) {
+        for (int i = from; i < to; i++) {
+            final int newPosition = mAnchors[i];
+            if (newPosition >= 0) {
+                mContentResults[i] = mDelegate.areContentsTheSame(i, newPosition)
+                        ? CONTENT_SAME : CONTENT_DIFFERENT;
+            }
+        }
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2017 Pascal Welsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pascalwelsch.arrayadapter;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stable merge sort of the items of an {@link ArrayAdapter} on a background {@link Executor},
+ * created by {@link ArrayAdapter#sortParallel(Comparator, Executor)}.
+ * <p>
+ * The positions of the items are sorted, not the items, so the result is a permutation. First
+ * the chunks of the positions are sorted in parallel, then neighbouring runs are merged in
+ * parallel rounds until a single run is left. Every task schedules the next round when it is the
+ * last one of its round, no thread blocks waiting for others. The sorted items are posted to the
+ * main thread and applied when the adapter wasn't mutated meanwhile.
+ *
+ * @param <T> item type
+ */
+@SuppressWarnings("WeakerAccess")
+public final class ParallelSort<T> {
+
+    /**
+     * ranges up to this size are sorted with insertion sort
+     */
+    private static final int INSERTION_SORT_THRESHOLD = 32;
+
+    /**
+     * smallest chunk sorted by a single task
+     */
+    static final int MIN_CHUNK_SIZE = 4096;
+
+    private final ArrayAdapter<T, ?> mAdapter;
+
+    /**
+     * scratch array of the merges, swapped with {@link #mOrder} after every round
+     */
+    private int[] mBuffer;
+
+    private volatile boolean mCancelled;
+
+    private final Comparator<? super T> mComparator;
+
+    @Nullable
+    private volatile Throwable mError;
+
+    private final Executor mExecutor;
+
+    private volatile boolean mFinished;
+
+    private final Object[] mItems;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * old positions in sorted order, {@code mOrder[newPosition] == oldPosition}
+     */
+    private int[] mOrder;
+
+    /**
+     * number of running tasks of the current round
+     */
+    private final AtomicInteger mPending = new AtomicInteger();
+
+    private PersistentList<T> mSorted;
+
+    private final PersistentList<T> mSnapshot;
+
+    ParallelSort(@NonNull final ArrayAdapter<T, ?> adapter,
+            @NonNull final PersistentList<T> snapshot,
+            @NonNull final Comparator<? super T> comparator, @NonNull final Executor executor) {
+        mAdapter = adapter;
+        mSnapshot = snapshot;
+        mComparator = comparator;
+        mExecutor = executor;
+        mItems = snapshot.toArray();
+        mOrder = new int[mItems.length];
+        mBuffer = new int[mItems.length];
+    }
+
+    /**
+     * Stops sorting, the adapter keeps the current order. Does nothing when the sorted items
+     * are already applied.
+     */
+    public void cancel() {
+        if (!mFinished) {
+            mCancelled = true;
+        }
+    }
+
+    /**
+     * @return the exception thrown by the comparator or {@code null}, the sort is cancelled
+     */
+    @Nullable
+    public Throwable getError() {
+        return mError;
+    }
+
+    /**
+     * @return true when the sort was cancelled, failed or the adapter was mutated before the
+     * sorted items were applied
+     */
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * @return true when the sorted items were applied to the adapter
+     */
+    public boolean isFinished() {
+        return mFinished;
+    }
+
+    /**
+     * @return the old positions in sorted order, {@code order[newPosition] == oldPosition}
+     */
+    @NonNull
+    int[] getOrder() {
+        return mOrder;
+    }
+
+    @NonNull
+    PersistentList<T> getSnapshot() {
+        return mSnapshot;
+    }
+
+    @NonNull
+    PersistentList<T> getSorted() {
+        return mSorted;
+    }
+
+    void start() {
+        final int size = mItems.length;
+        for (int i = 0; i < size; i++) {
+            mOrder[i] = i;
+        }
+        final int parallelism = Runtime.getRuntime().availableProcessors();
+        final int chunkSize = Math.max(MIN_CHUNK_SIZE, (size + parallelism - 1) / parallelism);
+        final int chunks = Math.max(1, (size + chunkSize - 1) / chunkSize);
+        mPending.set(chunks);
+        for (int i = 0; i < chunks; i++) {
+            final int from = i * chunkSize;
+            final int to = Math.min(size, from + chunkSize);
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    sortRange(from, to);
+                }
+            }, chunkSize);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private int compare(final int a, final int b) {
+        return mComparator.compare((T) mItems[a], (T) mItems[b]);
+    }
+
+    /**
+     * runs a task of the current round, the last finished task starts the next round
+     */
+    private void execute(@NonNull final Runnable task, final int runLength) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!mCancelled) {
+                        task.run();
+                    }
+                } catch (RuntimeException e) {
+                    mError = e;
+                    mCancelled = true;
+                } finally {
+                    if (mPending.decrementAndGet() == 0) {
+                        mergeRound(runLength);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * builds the sorted items and posts them to the main thread
+     */
+    @SuppressWarnings("unchecked")
+    private void finish() {
+        final ArrayList<T> sorted = new ArrayList<>(mOrder.length);
+        for (final int position : mOrder) {
+            sorted.add((T) mItems[position]);
+        }
+        mSorted = PersistentList.copyOf(sorted);
+        mBuffer = null;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mCancelled) {
+                    return;
+                }
+                if (mAdapter.applyParallelSort(ParallelSort.this)) {
+                    mFinished = true;
+                } else {
+                    mCancelled = true;
+                }
+            }
+        });
+    }
+
+    /**
+     * merges {@code src[from, mid)} and {@code src[mid, to)} into {@code dst[from, to)}, equal
+     * items keep their order
+     */
+    private void merge(@NonNull final int[] src, final int from, final int mid, final int to,
+            @NonNull final int[] dst) {
+        int left = from;
+        int right = mid;
+        int out = from;
+        while (left < mid && right < to) {
+            dst[out++] = compare(src[right], src[left]) < 0 ? src[right++] : src[left++];
+        }
+        System.arraycopy(src, left, dst, out, mid - left);
+        System.arraycopy(src, right, dst, out + mid - left, to - right);
+    }
+
+    /**
+     * merges the sorted runs of {@code runLength} pairwise in parallel or finishes when a
+     * single run is left
+     */
+    private void mergeRound(final int runLength) {
+        if (mCancelled) {
+            return;
+        }
+        if (mAdapter.getItems() != mSnapshot) {
+            // mutated meanwhile, the result would be outdated
+            mCancelled = true;
+            return;
+        }
+        final int size = mOrder.length;
+        if (runLength >= size) {
+            finish();
+            return;
+        }
+        final int[] src = mOrder;
+        final int[] dst = mBuffer;
+        mOrder = dst;
+        mBuffer = src;
+        final int pairs = (size + 2 * runLength - 1) / (2 * runLength);
+        mPending.set(pairs);
+        for (int i = 0; i < pairs; i++) {
+            final int from = i * 2 * runLength;
+            final int mid = Math.min(size, from + runLength);
+            final int to = Math.min(size, from + 2 * runLength);
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    merge(src, from, mid, to, dst);
+                }
+            }, 2 * runLength);
+        }
+    }
+
+    /**
+     * sorts {@code mOrder[from, to)} using the same range of {@link #mBuffer} as scratch space
+     */
+    private void sortRange(final int from, final int to) {
+        if (to - from <= INSERTION_SORT_THRESHOLD) {
+            for (int i = from + 1; i < to; i++) {
+                final int position = mOrder[i];
+                int j = i - 1;
+                while (j >= from && compare(mOrder[j], position) > 0) {
+                    mOrder[j + 1] = mOrder[j];
+                    j--;
+                }
+                mOrder[j + 1] = position;
+            }
+            return;
+        }
+        final int mid = (from + to) >>> 1;
+        sortRange(from, mid);
+        sortRange(mid, to);
+        if (compare(mOrder[mid - 1], mOrder[mid]) <= 0) {
+            // already in order
+            return;
+        }
+        System.arraycopy(mOrder, from, mBuffer, from, to - from);
+        merge(mBuffer, from, mid, to, mOrder);
+    }
+}
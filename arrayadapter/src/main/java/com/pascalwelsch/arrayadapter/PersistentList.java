@@ -0,0 +1,793 @@
+/*
+ * Copyright (C) 2017 Pascal Welsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pascalwelsch.arrayadapter;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * Immutable list implemented as persistent, size annotated B-tree. Every modification returns a
+ * new version which shares all untouched nodes with the previous version. Random access,
+ * {@link #plus(int, Object)}, {@link #minus(int)} and {@link #with(int, Object)} run in
+ * O(log n) and copy at most one node per tree level.
+ * <p>
+ * Instances are safe to share between threads. All nodes only have final fields and are never
+ * mutated after construction.
+ *
+ * @param <T> item type
+ */
+final class PersistentList<T> extends AbstractList<T> implements RandomAccess {
+
+    /**
+     * Collects items one by one into full leaves, so a list can be built in small steps. Only
+     * {@link #build()} creates the nodes, one per {@value #MAX_WIDTH} items.
+     *
+     * @param <T> item type
+     */
+    static final class Builder<T> {
+
+        private Object[] mLeaf = new Object[MAX_WIDTH];
+
+        private final ArrayList<Object[]> mLeaves;
+
+        private int mSize;
+
+        /**
+         * @param expectedSize number of items which will probably be added
+         */
+        Builder(final int expectedSize) {
+            mLeaves = new ArrayList<>((expectedSize + MAX_WIDTH - 1) / MAX_WIDTH);
+        }
+
+        void add(@Nullable final T item) {
+            final int index = mSize % MAX_WIDTH;
+            mLeaf[index] = item;
+            mSize++;
+            if (index == MAX_WIDTH - 1) {
+                mLeaves.add(mLeaf);
+                mLeaf = new Object[MAX_WIDTH];
+            }
+        }
+
+        /**
+         * @return a balanced list of the added items, the builder must not be used afterwards
+         */
+        @NonNull
+        PersistentList<T> build() {
+            final int partial = mSize % MAX_WIDTH;
+            if (partial > 0) {
+                mLeaves.add(Arrays.copyOf(mLeaf, partial));
+            }
+            if (mLeaves.isEmpty()) {
+                return empty();
+            }
+            final Node[] leaves = new Node[mLeaves.size()];
+            for (int i = 0; i < leaves.length; i++) {
+                leaves[i] = new Leaf(mLeaves.get(i));
+            }
+            return buildLevels(leaves);
+        }
+
+        /**
+         * replaces an added item
+         */
+        void set(final int index, @Nullable final T item) {
+            final int leaf = index / MAX_WIDTH;
+            final Object[] items = leaf < mLeaves.size() ? mLeaves.get(leaf) : mLeaf;
+            items[index % MAX_WIDTH] = item;
+        }
+
+        int size() {
+            return mSize;
+        }
+    }
+
+    private static final class Branch extends Node {
+
+        final Node[] children;
+
+        /**
+         * {@code offsets[k]} is the number of items in all children before child {@code k}
+         */
+        final int[] offsets;
+
+        Branch(final Node[] children) {
+            super(sumSizes(children));
+            this.children = children;
+            offsets = new int[children.length];
+            int offset = 0;
+            for (int i = 0; i < children.length; i++) {
+                offsets[i] = offset;
+                offset += children[i].size;
+            }
+        }
+
+        /**
+         * @return index of the child containing {@code index}
+         */
+        int childIndex(final int index) {
+            // binary search for the last offset <= index
+            int low = 0;
+            int high = offsets.length - 1;
+            while (low < high) {
+                final int mid = (low + high + 1) >>> 1;
+                if (offsets[mid] <= index) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+
+        @Override
+        int width() {
+            return children.length;
+        }
+
+        private static int sumSizes(final Node[] children) {
+            int size = 0;
+            for (final Node child : children) {
+                size += child.size;
+            }
+            return size;
+        }
+    }
+
+    private static final class Leaf extends Node {
+
+        final Object[] items;
+
+        Leaf(final Object[] items) {
+            super(items.length);
+            this.items = items;
+        }
+
+        @Override
+        int width() {
+            return items.length;
+        }
+    }
+
+    private abstract static class Node {
+
+        final int size;
+
+        Node(final int size) {
+            this.size = size;
+        }
+
+        /**
+         * @return number of direct items or children
+         */
+        abstract int width();
+    }
+
+    private final class Itr implements Iterator<T> {
+
+        private int mIndex;
+
+        private Object[] mLeafItems;
+
+        private int mLeafOffset;
+
+        @Override
+        public boolean hasNext() {
+            return mIndex < mRoot.size;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public T next() {
+            if (mIndex >= mRoot.size) {
+                throw new NoSuchElementException();
+            }
+            if (mLeafItems == null || mIndex - mLeafOffset >= mLeafItems.length) {
+                // descend only once per leaf
+                Node node = mRoot;
+                int offset = 0;
+                while (node instanceof Branch) {
+                    final Branch branch = (Branch) node;
+                    final int child = branch.childIndex(mIndex - offset);
+                    offset += branch.offsets[child];
+                    node = branch.children[child];
+                }
+                mLeafItems = ((Leaf) node).items;
+                mLeafOffset = offset;
+            }
+            return (T) mLeafItems[mIndex++ - mLeafOffset];
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static final PersistentList<Object> EMPTY =
+            new PersistentList<>(new Leaf(new Object[0]));
+
+    /**
+     * maximum number of items in a leaf or children of a branch
+     */
+    private static final int MAX_WIDTH = 32;
+
+    /**
+     * nodes narrower than this are merged with a neighbour when possible
+     */
+    private static final int MIN_WIDTH = MAX_WIDTH / 4;
+
+    /**
+     * changes of more than {@code size / SPLICE_REBUILD_FACTOR} items rebuild the tree
+     */
+    private static final int SPLICE_REBUILD_FACTOR = 8;
+
+    /**
+     * approximate heap layout used by {@link #estimateBytes()}: 12 byte object headers, 16 byte
+     * array headers, 4 byte references and 8 byte alignment
+     */
+    private static final int OBJECT_HEADER = 12;
+
+    private static final int ARRAY_HEADER = 16;
+
+    private static final int REFERENCE = 4;
+
+    private final Node mRoot;
+
+    private PersistentList(final Node root) {
+        mRoot = root;
+    }
+
+    @Override
+    public T get(final int index) {
+        if (index < 0 || index >= mRoot.size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mRoot.size);
+        }
+        Node node = mRoot;
+        int i = index;
+        while (node instanceof Branch) {
+            final Branch branch = (Branch) node;
+            final int child = branch.childIndex(i);
+            i -= branch.offsets[child];
+            node = branch.children[child];
+        }
+        //noinspection unchecked
+        return (T) ((Leaf) node).items[i];
+    }
+
+    /**
+     * Copies the items in {@code [from, to)} into {@code dest} starting at {@code destOffset}.
+     * Copies whole leaves with {@link System#arraycopy(Object, int, Object, int, int)}, no
+     * iterator or intermediate array is created.
+     */
+    public void copyInto(final int from, final int to, @NonNull final Object[] dest,
+            final int destOffset) {
+        checkRange(from, to);
+        if (destOffset < 0 || destOffset + to - from > dest.length) {
+            throw new IndexOutOfBoundsException("Offset: " + destOffset + ", Count: "
+                    + (to - from) + ", Length: " + dest.length);
+        }
+        copyRange(mRoot, from, to, dest, destOffset);
+    }
+
+    /**
+     * Passes the items in {@code [from, to)} to {@code consumer} in order. Walks the leaves
+     * directly instead of resolving every index from the root.
+     */
+    public void forEach(final int from, final int to,
+            @NonNull final ItemConsumer<? super T> consumer) {
+        checkRange(from, to);
+        forEachInRange(mRoot, from, to, from, consumer);
+    }
+
+    /**
+     * Walks the leaves directly, no iterator is created.
+     */
+    @Override
+    public int indexOf(final Object o) {
+        return indexOf(mRoot, o, 0);
+    }
+
+    @NonNull
+    @Override
+    public Iterator<T> iterator() {
+        return new Itr();
+    }
+
+    /**
+     * @return a new version without the item at {@code index}
+     */
+    @NonNull
+    public PersistentList<T> minus(final int index) {
+        if (index < 0 || index >= mRoot.size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mRoot.size);
+        }
+        if (mRoot.size == 1) {
+            return empty();
+        }
+        Node root = remove(mRoot, index);
+        while (root instanceof Branch && root.width() == 1) {
+            root = ((Branch) root).children[0];
+        }
+        return new PersistentList<>(root);
+    }
+
+    /**
+     * @return a new version with {@code item} appended
+     */
+    @NonNull
+    public PersistentList<T> plus(final T item) {
+        return plus(mRoot.size, item);
+    }
+
+    /**
+     * @return a new version with {@code item} inserted at {@code index}
+     */
+    @NonNull
+    public PersistentList<T> plus(final int index, final T item) {
+        if (index < 0 || index > mRoot.size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mRoot.size);
+        }
+        final Node[] nodes = insert(mRoot, index, item);
+        if (nodes.length == 1) {
+            return new PersistentList<>(nodes[0]);
+        }
+        // root was split, tree grows by one level
+        return new PersistentList<>(new Branch(nodes));
+    }
+
+    /**
+     * @return a new version with all {@code items} appended
+     */
+    @NonNull
+    public PersistentList<T> plusAll(@NonNull final Collection<? extends T> items) {
+        return splice(mRoot.size, mRoot.size, items);
+    }
+
+    /**
+     * Appends the items of an array without wrapping it in a collection
+     *
+     * @return a new version with all {@code items} appended
+     */
+    @NonNull
+    public PersistentList<T> plusAll(@NonNull final T[] items) {
+        if (items.length == 0) {
+            return this;
+        }
+        if (items.length * SPLICE_REBUILD_FACTOR >= mRoot.size) {
+            final Object[] all = new Object[mRoot.size + items.length];
+            copyInto(mRoot, all, 0);
+            System.arraycopy(items, 0, all, mRoot.size, items.length);
+            return build(all);
+        }
+        PersistentList<T> list = this;
+        for (final T item : items) {
+            list = list.plus(item);
+        }
+        return list;
+    }
+
+    @Override
+    public int size() {
+        return mRoot.size;
+    }
+
+    @NonNull
+    @Override
+    public Object[] toArray() {
+        final Object[] array = new Object[mRoot.size];
+        copyInto(mRoot, array, 0);
+        return array;
+    }
+
+    /**
+     * Replaces the items in {@code [from, to)} with {@code items}. Small changes path copy the
+     * affected nodes, large changes rebuild the tree in a single pass.
+     *
+     * @return a new version with the range replaced
+     */
+    @NonNull
+    public PersistentList<T> splice(final int from, final int to,
+            @NonNull final Collection<? extends T> items) {
+        if (from < 0 || to > mRoot.size || from > to) {
+            throw new IndexOutOfBoundsException(
+                    "Range: [" + from + ", " + to + "), Size: " + mRoot.size);
+        }
+        final int removed = to - from;
+        final int added = items.size();
+        if (removed == 0 && added == 0) {
+            return this;
+        }
+        if ((removed + added) * SPLICE_REBUILD_FACTOR >= mRoot.size) {
+            // rebuilding is cheaper than path copying for every changed item
+            final Object[] all = new Object[mRoot.size - removed + added];
+            final Iterator<T> iterator = iterator();
+            int i = 0;
+            for (; i < from; i++) {
+                all[i] = iterator.next();
+            }
+            for (final T item : items) {
+                all[i++] = item;
+            }
+            for (int skip = 0; skip < removed; skip++) {
+                iterator.next();
+            }
+            while (iterator.hasNext()) {
+                all[i++] = iterator.next();
+            }
+            return build(all);
+        }
+        PersistentList<T> list = this;
+        for (int i = 0; i < removed; i++) {
+            list = list.minus(from);
+        }
+        int index = from;
+        for (final T item : items) {
+            list = list.plus(index++, item);
+        }
+        return list;
+    }
+
+    /**
+     * @return a new version where the item at {@code index} is replaced with {@code item}
+     */
+    @NonNull
+    public PersistentList<T> with(final int index, final T item) {
+        if (index < 0 || index >= mRoot.size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mRoot.size);
+        }
+        return new PersistentList<>(set(mRoot, index, item));
+    }
+
+    /**
+     * Rebuilds the tree with full nodes when removals and inserts left it less than 3/4 filled.
+     * The compacted version doesn't share nodes with other versions anymore.
+     *
+     * @return the compacted version or {@code this} when it is already compact
+     */
+    @NonNull
+    PersistentList<T> compact() {
+        final int fullLeaves = (mRoot.size + MAX_WIDTH - 1) / MAX_WIDTH;
+        if (countLeaves(mRoot) * 3 <= fullLeaves * 4) {
+            return this;
+        }
+        return build(toArray());
+    }
+
+    /**
+     * @return approximate number of bytes of all nodes, excluding the items
+     */
+    long estimateBytes() {
+        return estimateBytes(mRoot);
+    }
+
+    /**
+     * creates a balanced list from {@code items} in O(n)
+     */
+    @NonNull
+    static <T> PersistentList<T> copyOf(@NonNull final Collection<? extends T> items) {
+        if (items instanceof PersistentList) {
+            //noinspection unchecked
+            return (PersistentList<T>) items;
+        }
+        return build(items.toArray());
+    }
+
+    @NonNull
+    static <T> PersistentList<T> empty() {
+        //noinspection unchecked
+        return (PersistentList<T>) EMPTY;
+    }
+
+    /**
+     * builds a tree with full nodes, takes ownership of {@code items}
+     */
+    @NonNull
+    private static <T> PersistentList<T> build(@NonNull final Object[] items) {
+        if (items.length == 0) {
+            return empty();
+        }
+        final Node[] leaves = new Node[(items.length + MAX_WIDTH - 1) / MAX_WIDTH];
+        for (int i = 0; i < leaves.length; i++) {
+            final int from = i * MAX_WIDTH;
+            final Object[] leafItems = new Object[Math.min(MAX_WIDTH, items.length - from)];
+            System.arraycopy(items, from, leafItems, 0, leafItems.length);
+            leaves[i] = new Leaf(leafItems);
+        }
+        return buildLevels(leaves);
+    }
+
+    /**
+     * builds the branches above {@code leaves}, which must not be empty
+     */
+    @NonNull
+    private static <T> PersistentList<T> buildLevels(@NonNull final Node[] leaves) {
+        Node[] level = leaves;
+        while (level.length > 1) {
+            final Node[] parents = new Node[(level.length + MAX_WIDTH - 1) / MAX_WIDTH];
+            for (int i = 0; i < parents.length; i++) {
+                final int from = i * MAX_WIDTH;
+                final Node[] children = new Node[Math.min(MAX_WIDTH, level.length - from)];
+                System.arraycopy(level, from, children, 0, children.length);
+                parents[i] = new Branch(children);
+            }
+            level = parents;
+        }
+        return new PersistentList<>(level[0]);
+    }
+
+    private void checkRange(final int from, final int to) {
+        if (from < 0 || from > to || to > mRoot.size) {
+            throw new IndexOutOfBoundsException(
+                    "Range: [" + from + ", " + to + "), Size: " + mRoot.size);
+        }
+    }
+
+    private static int align(final int bytes) {
+        return (bytes + 7) & ~7;
+    }
+
+    private static int countLeaves(final Node node) {
+        if (node instanceof Leaf) {
+            return 1;
+        }
+        int leaves = 0;
+        for (final Node child : ((Branch) node).children) {
+            leaves += countLeaves(child);
+        }
+        return leaves;
+    }
+
+    /**
+     * copies the items of the node into {@code array} starting at {@code offset} without
+     * creating an iterator
+     */
+    private static void copyInto(final Node node, final Object[] array, final int offset) {
+        if (node instanceof Leaf) {
+            final Object[] items = ((Leaf) node).items;
+            System.arraycopy(items, 0, array, offset, items.length);
+            return;
+        }
+        final Branch branch = (Branch) node;
+        for (int i = 0; i < branch.children.length; i++) {
+            copyInto(branch.children[i], array, offset + branch.offsets[i]);
+        }
+    }
+
+    /**
+     * copies the items of the node in {@code [from, to)}, relative to the node, into
+     * {@code array} starting at {@code offset}
+     */
+    private static void copyRange(final Node node, final int from, final int to,
+            final Object[] array, final int offset) {
+        if (from == to) {
+            return;
+        }
+        if (node instanceof Leaf) {
+            System.arraycopy(((Leaf) node).items, from, array, offset, to - from);
+            return;
+        }
+        final Branch branch = (Branch) node;
+        for (int i = branch.childIndex(from); i < branch.children.length; i++) {
+            final int childOffset = branch.offsets[i];
+            if (childOffset >= to) {
+                break;
+            }
+            final Node child = branch.children[i];
+            final int childFrom = Math.max(0, from - childOffset);
+            final int childTo = Math.min(child.size, to - childOffset);
+            copyRange(child, childFrom, childTo, array, offset + childOffset + childFrom - from);
+        }
+    }
+
+    private static long estimateBytes(final Node node) {
+        if (node instanceof Leaf) {
+            // node with size and items reference, items array
+            return align(OBJECT_HEADER + 4 + REFERENCE)
+                    + align(ARRAY_HEADER + REFERENCE * node.width());
+        }
+        final Branch branch = (Branch) node;
+        // node with size, children and offsets references, children array, offsets array
+        long bytes = align(OBJECT_HEADER + 4 + 2 * REFERENCE)
+                + align(ARRAY_HEADER + REFERENCE * branch.width())
+                + align(ARRAY_HEADER + 4 * branch.width());
+        for (final Node child : branch.children) {
+            bytes += estimateBytes(child);
+        }
+        return bytes;
+    }
+
+    /**
+     * @param offset position of the first item of the node in the list
+     */
+    private static int indexOf(final Node node, final Object o, final int offset) {
+        if (node instanceof Leaf) {
+            final Object[] items = ((Leaf) node).items;
+            for (int i = 0; i < items.length; i++) {
+                if (o == null ? items[i] == null : o.equals(items[i])) {
+                    return offset + i;
+                }
+            }
+            return -1;
+        }
+        final Branch branch = (Branch) node;
+        for (int i = 0; i < branch.children.length; i++) {
+            final int index = indexOf(branch.children[i], o, offset + branch.offsets[i]);
+            if (index != -1) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * passes the items of the node in {@code [from, to)}, relative to the node, to the consumer
+     *
+     * @param position position of the item at {@code from} in the list
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> void forEachInRange(final Node node, final int from, final int to,
+            final int position, final ItemConsumer<? super T> consumer) {
+        if (from == to) {
+            return;
+        }
+        if (node instanceof Leaf) {
+            final Object[] items = ((Leaf) node).items;
+            for (int i = from; i < to; i++) {
+                consumer.accept((T) items[i], position + i - from);
+            }
+            return;
+        }
+        final Branch branch = (Branch) node;
+        for (int i = branch.childIndex(from); i < branch.children.length; i++) {
+            final int childOffset = branch.offsets[i];
+            if (childOffset >= to) {
+                break;
+            }
+            final Node child = branch.children[i];
+            final int childFrom = Math.max(0, from - childOffset);
+            final int childTo = Math.min(child.size, to - childOffset);
+            forEachInRange(child, childFrom, childTo, position + childOffset + childFrom - from,
+                    consumer);
+        }
+    }
+
+    /**
+     * @return the new node or two nodes when the node had to be split
+     */
+    private static Node[] insert(final Node node, final int index, final Object item) {
+        if (node instanceof Leaf) {
+            final Object[] items = ((Leaf) node).items;
+            final Object[] inserted = new Object[items.length + 1];
+            System.arraycopy(items, 0, inserted, 0, index);
+            inserted[index] = item;
+            System.arraycopy(items, index, inserted, index + 1, items.length - index);
+            if (inserted.length <= MAX_WIDTH) {
+                return new Node[]{new Leaf(inserted)};
+            }
+            final int split = splitPoint(index, inserted.length);
+            return new Node[]{new Leaf(Arrays.copyOfRange(inserted, 0, split)),
+                    new Leaf(Arrays.copyOfRange(inserted, split, inserted.length))};
+        }
+
+        final Branch branch = (Branch) node;
+        // appending at the end goes into the last child
+        final int child = index == branch.size ? branch.children.length - 1
+                : branch.childIndex(index);
+        final Node[] replacement = insert(branch.children[child], index - branch.offsets[child],
+                item);
+        final Node[] children = replaceChildren(branch.children, child, 1, replacement);
+        if (children.length <= MAX_WIDTH) {
+            return new Node[]{new Branch(children)};
+        }
+        final int split = splitPoint(child + replacement.length - 1, children.length);
+        return new Node[]{new Branch(Arrays.copyOfRange(children, 0, split)),
+                new Branch(Arrays.copyOfRange(children, split, children.length))};
+    }
+
+    /**
+     * @return the new node, may be empty
+     */
+    private static Node remove(final Node node, final int index) {
+        if (node instanceof Leaf) {
+            final Object[] items = ((Leaf) node).items;
+            final Object[] removed = new Object[items.length - 1];
+            System.arraycopy(items, 0, removed, 0, index);
+            System.arraycopy(items, index + 1, removed, index, items.length - index - 1);
+            return new Leaf(removed);
+        }
+
+        final Branch branch = (Branch) node;
+        final int child = branch.childIndex(index);
+        final Node updated = remove(branch.children[child], index - branch.offsets[child]);
+        if (updated.size == 0) {
+            return new Branch(replaceChildren(branch.children, child, 1, new Node[0]));
+        }
+        if (updated.width() < MIN_WIDTH && branch.children.length > 1) {
+            // merge with a neighbour to keep the tree compact
+            final int neighbour = child > 0 ? child - 1 : child + 1;
+            final Node other = branch.children[neighbour];
+            if (updated.width() + other.width() <= MAX_WIDTH) {
+                final Node merged = neighbour < child ? merge(other, updated)
+                        : merge(updated, other);
+                return new Branch(replaceChildren(branch.children, Math.min(child, neighbour), 2,
+                        new Node[]{merged}));
+            }
+        }
+        return new Branch(replaceChildren(branch.children, child, 1, new Node[]{updated}));
+    }
+
+    private static Node set(final Node node, final int index, final Object item) {
+        if (node instanceof Leaf) {
+            final Object[] items = ((Leaf) node).items.clone();
+            items[index] = item;
+            return new Leaf(items);
+        }
+        final Branch branch = (Branch) node;
+        final int child = branch.childIndex(index);
+        final Node[] children = branch.children.clone();
+        children[child] = set(children[child], index - branch.offsets[child], item);
+        return new Branch(children);
+    }
+
+    /**
+     * merges two nodes of the same height
+     */
+    private static Node merge(final Node left, final Node right) {
+        if (left instanceof Leaf) {
+            final Object[] leftItems = ((Leaf) left).items;
+            final Object[] rightItems = ((Leaf) right).items;
+            final Object[] items = new Object[leftItems.length + rightItems.length];
+            System.arraycopy(leftItems, 0, items, 0, leftItems.length);
+            System.arraycopy(rightItems, 0, items, leftItems.length, rightItems.length);
+            return new Leaf(items);
+        }
+        final Node[] leftChildren = ((Branch) left).children;
+        final Node[] rightChildren = ((Branch) right).children;
+        final Node[] children = new Node[leftChildren.length + rightChildren.length];
+        System.arraycopy(leftChildren, 0, children, 0, leftChildren.length);
+        System.arraycopy(rightChildren, 0, children, leftChildren.length, rightChildren.length);
+        return new Branch(children);
+    }
+
+    /**
+     * replaces {@code count} children starting at {@code index} with {@code replacement}
+     */
+    private static Node[] replaceChildren(final Node[] children, final int index,
+            final int count, final Node[] replacement) {
+        final Node[] result = new Node[children.length - count + replacement.length];
+        System.arraycopy(children, 0, result, 0, index);
+        System.arraycopy(replacement, 0, result, index, replacement.length);
+        System.arraycopy(children, index + count, result, index + replacement.length,
+                children.length - index - count);
+        return result;
+    }
+
+    /**
+     * keeps the left node full when appending, otherwise splits in half
+     */
+    private static int splitPoint(final int insertedIndex, final int width) {
+        return insertedIndex == width - 1 ? width - 1 : width / 2;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2017 Pascal Welsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pascalwelsch.arrayadapter;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v7.widget.RecyclerView;
+
+import java.util.List;
+
+/**
+ * {@link ArrayAdapter} holding cheap source items (i.e. domain objects) which are projected to
+ * the type needed for binding (i.e. view models) only when needed. {@link #swap(List)} diffs the
+ * source items, {@link #project(Object)} is only called for rows which are actually bound.
+ * <p>
+ * Projections are memoized in a bounded LRU cache keyed by {@link #getItemId(Object)} and
+ * recomputed when {@link #isContentTheSame(Object, Object)} reports a change of the source.
+ *
+ * @param <S>  source item type (a immutable pojo works best)
+ * @param <T>  projected type used for binding
+ * @param <VH> {@link RecyclerView.ViewHolder} for the projected items
+ */
+@SuppressWarnings("WeakerAccess")
+public abstract class ProjectingArrayAdapter<S, T, VH extends RecyclerView.ViewHolder>
+        extends ArrayAdapter<S, VH> {
+
+    /**
+     * default number of memoized projections
+     */
+    public static final int DEFAULT_CACHE_SIZE = 256;
+
+    private final ItemDataCache<S, T> mProjections;
+
+    /**
+     * whether {@link #mProjections} follows the notifications, it is attached with the first
+     * projection so {@link #setHasStableIds(boolean)} can still be called after construction
+     */
+    private volatile boolean mProjectionsAttached;
+
+    private final ItemDataCache.Loader<S, T> mProjector = new ItemDataCache.Loader<S, T>() {
+        @Override
+        public T load(@NonNull final S item) {
+            return project(item);
+        }
+    };
+
+    public ProjectingArrayAdapter() {
+        this(DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param cacheSize maximum number of memoized projections, should be larger than the number
+     *                  of visible rows
+     */
+    public ProjectingArrayAdapter(final int cacheSize) {
+        super();
+        if (cacheSize < 1) {
+            throw new IllegalArgumentException("cacheSize must be > 0, was " + cacheSize);
+        }
+        mProjections = new ItemDataCache<>(this, cacheSize);
+    }
+
+    /**
+     * Returns the projection of the source item at the position. It is computed on the first
+     * access and memoized until the source item changes.
+     *
+     * @param position index of the item
+     * @return the projected item or {@code null} when not found
+     */
+    @Nullable
+    public T getProjectedItem(final int position) {
+        final S source = getItem(position);
+        if (source == null) {
+            return null;
+        }
+        if (!mProjectionsAttached) {
+            synchronized (getLock()) {
+                if (!mProjectionsAttached) {
+                    mProjections.attach();
+                    mProjectionsAttached = true;
+                }
+            }
+        }
+        return mProjections.get(source, mProjector);
+    }
+
+    /**
+     * Projects a source item to the type used for binding. Only called for items which are
+     * accessed with {@link #getProjectedItem(int)}.
+     *
+     * @param source the source item
+     * @return the projection of {@code source}
+     */
+    @NonNull
+    protected abstract T project(@NonNull S source);
+}
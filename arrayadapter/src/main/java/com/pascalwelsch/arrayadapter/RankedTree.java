@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2017 Pascal Welsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pascalwelsch.arrayadapter;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Sequence stored as randomized binary search tree augmented with subtree sizes. Entries keep a
+ * reference to their parent so the position of an entry can be resolved in O(log n). A
+ * contiguous range of values can be inserted or removed in O(k + log n) by splitting and merging
+ * the tree.
+ * <p>
+ * Not thread safe, callers have to synchronize the access.
+ *
+ * @param <E> value type
+ */
+final class RankedTree<E> {
+
+    static final class Entry<E> {
+
+        @Nullable
+        Entry<E> left;
+
+        @Nullable
+        Entry<E> parent;
+
+        @Nullable
+        Entry<E> right;
+
+        int size = 1;
+
+        final E value;
+
+        Entry(final E value) {
+            this.value = value;
+        }
+    }
+
+    private final Random mRandom = new Random();
+
+    @Nullable
+    private Entry<E> mRoot;
+
+    /**
+     * appends {@code value} in O(log n)
+     *
+     * @return the created entry
+     */
+    @NonNull
+    Entry<E> add(final E value) {
+        final Entry<E> entry = new Entry<>(value);
+        mRoot = merge(mRoot, entry);
+        //noinspection ConstantConditions
+        mRoot.parent = null;
+        return entry;
+    }
+
+    /**
+     * @return the value at {@code index}
+     */
+    E get(final int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        Entry<E> entry = mRoot;
+        int i = index;
+        while (true) {
+            //noinspection ConstantConditions
+            final int leftSize = size(entry.left);
+            if (i < leftSize) {
+                entry = entry.left;
+            } else if (i == leftSize) {
+                return entry.value;
+            } else {
+                i -= leftSize + 1;
+                entry = entry.right;
+            }
+        }
+    }
+
+    /**
+     * inserts {@code values} starting at {@code index}
+     *
+     * @param entries receives the created entries in the order of {@code values}
+     */
+    void insertAll(final int index, @NonNull final List<E> values,
+            @NonNull final List<Entry<E>> entries) {
+        if (index < 0 || index > size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        if (values.isEmpty()) {
+            return;
+        }
+        final Entry<E> inserted = build(values, 0, values.size(), entries);
+        final Entry<E>[] parts = split(mRoot, index);
+        mRoot = merge(merge(parts[0], inserted), parts[1]);
+        mRoot.parent = null;
+    }
+
+    /**
+     * @return the position of the entry in O(log n)
+     */
+    int indexOf(@NonNull final Entry<E> entry) {
+        int index = size(entry.left);
+        Entry<E> current = entry;
+        while (current.parent != null) {
+            if (current.parent.right == current) {
+                index += size(current.parent.left) + 1;
+            }
+            current = current.parent;
+        }
+        return index;
+    }
+
+    /**
+     * removes {@code count} values starting at {@code index}
+     */
+    void removeRange(final int index, final int count) {
+        if (index < 0 || count < 0 || index + count > size()) {
+            throw new IndexOutOfBoundsException(
+                    "Range: " + index + "+" + count + ", Size: " + size());
+        }
+        if (count == 0) {
+            return;
+        }
+        final Entry<E>[] head = split(mRoot, index);
+        final Entry<E>[] tail = split(head[1], count);
+        mRoot = merge(head[0], tail[1]);
+        if (mRoot != null) {
+            mRoot.parent = null;
+        }
+    }
+
+    int size() {
+        return size(mRoot);
+    }
+
+    /**
+     * builds a balanced tree of {@code values[from, to)}
+     */
+    private Entry<E> build(final List<E> values, final int from, final int to,
+            final List<Entry<E>> entries) {
+        if (from >= to) {
+            return null;
+        }
+        final int mid = (from + to) >>> 1;
+        final Entry<E> left = build(values, from, mid, entries);
+        final Entry<E> entry = new Entry<>(values.get(mid));
+        entries.add(entry);
+        final Entry<E> right = build(values, mid + 1, to, entries);
+        entry.left = left;
+        entry.right = right;
+        update(entry);
+        return entry;
+    }
+
+    /**
+     * merges two trees, every value of {@code left} comes before the values of {@code right}.
+     * The root is chosen randomly weighted by size which keeps the tree balanced in expectation.
+     */
+    @Nullable
+    private Entry<E> merge(@Nullable final Entry<E> left, @Nullable final Entry<E> right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (mRandom.nextInt(left.size + right.size) < left.size) {
+            left.right = merge(left.right, right);
+            update(left);
+            return left;
+        } else {
+            right.left = merge(left, right.left);
+            update(right);
+            return right;
+        }
+    }
+
+    /**
+     * splits the tree into the first {@code count} values and the rest
+     */
+    private Entry<E>[] split(@Nullable final Entry<E> entry, final int count) {
+        //noinspection unchecked
+        final Entry<E>[] result = new Entry[2];
+        if (entry == null) {
+            return result;
+        }
+        entry.parent = null;
+        final int leftSize = size(entry.left);
+        if (count <= leftSize) {
+            final Entry<E>[] parts = split(entry.left, count);
+            entry.left = parts[1];
+            update(entry);
+            result[0] = parts[0];
+            result[1] = entry;
+        } else {
+            final Entry<E>[] parts = split(entry.right, count - leftSize - 1);
+            entry.right = parts[0];
+            update(entry);
+            result[0] = entry;
+            result[1] = parts[1];
+        }
+        if (result[0] != null) {
+            result[0].parent = null;
+        }
+        if (result[1] != null) {
+            result[1].parent = null;
+        }
+        return result;
+    }
+
+    private static int size(@Nullable final Entry<?> entry) {
+        return entry == null ? 0 : entry.size;
+    }
+
+    /**
+     * recalculates the size and fixes the parent references of the children
+     */
+    private static <E> void update(@NonNull final Entry<E> entry) {
+        entry.size = 1 + size(entry.left) + size(entry.right);
+        if (entry.left != null) {
+            entry.left.parent = entry;
+        }
+        if (entry.right != null) {
+            entry.right.parent = entry;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2017 Pascal Welsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pascalwelsch.arrayadapter;
+
+import android.support.annotation.NonNull;
+import android.support.v7.util.DiffUtil;
+
+import java.util.List;
+
+/**
+ * {@link DiffUtil.Callback} which is created once per adapter and prepared for every diff
+ * instead of allocating a new callback per {@link ArrayAdapter#swap(List)}. Only used while
+ * holding the lock of the adapter. {@link #release()} drops the references to the lists after
+ * the diff so removed items can be collected.
+ */
+abstract class ReusableDiffCallback<T> extends DiffUtil.Callback {
+
+    List<T> mNewItems;
+
+    List<T> mOldItems;
+
+    @Override
+    public int getNewListSize() {
+        return mNewItems.size();
+    }
+
+    @Override
+    public int getOldListSize() {
+        return mOldItems.size();
+    }
+
+    /**
+     * sets the lists of the next diff
+     */
+    @NonNull
+    ReusableDiffCallback<T> prepare(@NonNull final List<T> oldItems,
+            @NonNull final List<T> newItems) {
+        mOldItems = oldItems;
+        mNewItems = newItems;
+        onPrepare(oldItems, newItems);
+        return this;
+    }
+
+    void release() {
+        mOldItems = null;
+        mNewItems = null;
+    }
+
+    /**
+     * hook to precompute data of the lists in reused scratch arrays
+     */
+    void onPrepare(@NonNull final List<T> oldItems, @NonNull final List<T> newItems) {
+    }
+}
@@ -0,0 +1,384 @@
+/*
+ * Copyright (C) 2017 Pascal Welsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pascalwelsch.arrayadapter;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Sectioned adapter following the API of {@link ArrayAdapter}. Every section starts with a
+ * header of type {@link H} followed by its items of type {@link T}. Headers are managed by the
+ * adapter and are not part of the item lists, {@link #swap(int, List)} only diffs the items of
+ * one section.
+ * <p>
+ * Section sizes are stored in a Fenwick tree, mapping a flat adapter position to its section
+ * and offset runs in O(log n) and mutations of a section notify the correctly offset positions
+ * without touching other sections. Inserting or removing a whole section shifts the following
+ * sections in O(number of sections).
+ * <p>
+ * This is a standalone {@link RecyclerView.Adapter}, not a subclass of {@link ArrayAdapter}.
+ * The flat list and the mutators of {@link ArrayAdapter} (sort, move, undo, incremental swap)
+ * would bypass the sections and headers. Duplicate id policies, undo, selection and diff caching
+ * are therefore not available.
+ *
+ * @param <H>  header type
+ * @param <T>  item type (a immutable pojo works best)
+ * @param <VH> {@link RecyclerView.ViewHolder} for headers and items
+ */
+@SuppressWarnings("WeakerAccess")
+public abstract class SectionedArrayAdapter<H, T, VH extends RecyclerView.ViewHolder>
+        extends RecyclerView.Adapter<VH> implements ItemDiffs.Matcher<T> {
+
+    private static final class Section<H, T> {
+
+        final H header;
+
+        PersistentList<T> items;
+
+        Section(final H header, final PersistentList<T> items) {
+            this.header = header;
+            this.items = items;
+        }
+    }
+
+    /**
+     * view type returned by {@link #getItemViewType(int)} for headers
+     */
+    public static final int VIEW_TYPE_HEADER = 0;
+
+    /**
+     * view type returned by {@link #getItemViewType(int)} for items
+     */
+    public static final int VIEW_TYPE_ITEM = 1;
+
+    private final ReusableDiffCallback<T> mDiffCallback = ItemDiffs.callback(this);
+
+    /**
+     * Lock used to modify the sections. Any write operation should be synchronized on this lock.
+     */
+    private final Object mLock = new Object();
+
+    private final List<Section<H, T>> mSections = new ArrayList<>();
+
+    private final OffsetNotifier mOffsetNotifier = new OffsetNotifier(this);
+
+    /**
+     * flat size of every section, the header plus the items
+     */
+    private final FenwickTree mSizes = new FenwickTree();
+
+    /**
+     * Adds the item at the end of the section.
+     *
+     * @param section index of the section
+     * @param item    The object to add at the end of the section.
+     */
+    public void add(final int section, @NonNull final T item) {
+        ItemDiffs.requireNotNullItem(item);
+        synchronized (mLock) {
+            final Section<H, T> s = mSections.get(section);
+            final int position = getItemPosition(section, s.items.size());
+            s.items = s.items.plus(item);
+            mSizes.add(section, 1);
+            notifyItemInserted(position);
+        }
+    }
+
+    /**
+     * Adds the items at the end of the section.
+     *
+     * @param section    index of the section
+     * @param collection The objects to add at the end of the section.
+     */
+    public void addAll(final int section, @NonNull final Collection<T> collection) {
+        if (collection.isEmpty()) {
+            return;
+        }
+        for (final T item : collection) {
+            ItemDiffs.requireNotNullItem(item);
+        }
+        synchronized (mLock) {
+            final Section<H, T> s = mSections.get(section);
+            final int position = getItemPosition(section, s.items.size());
+            s.items = s.items.plusAll(collection);
+            mSizes.add(section, collection.size());
+            notifyItemRangeInserted(position, collection.size());
+        }
+    }
+
+    /**
+     * Adds a new section at the end.
+     *
+     * @param header header of the section
+     * @param items  items of the section
+     */
+    public void addSection(@NonNull final H header, @NonNull final List<T> items) {
+        insertSection(getSectionCount(), header, items);
+    }
+
+    /**
+     * Removes all sections
+     */
+    public void clear() {
+        synchronized (mLock) {
+            final int count = getItemCount();
+            if (count == 0) {
+                return;
+            }
+            mSizes.clear();
+            mSections.clear();
+            notifyItemRangeRemoved(0, count);
+        }
+    }
+
+    /**
+     * @return the header at {@code position} or {@code null} when the position isn't a header
+     */
+    @Nullable
+    public H getHeader(final int position) {
+        final int section = getSectionForPosition(position);
+        if (section == -1 || getPositionInSection(position) != -1) {
+            return null;
+        }
+        return mSections.get(section).header;
+    }
+
+    /**
+     * Returns the item at the specified flat position.
+     *
+     * @param position flat adapter position
+     * @return the item or {@code null} when not found or the position is a header
+     */
+    @Nullable
+    public T getItem(final int position) {
+        final int section = getSectionForPosition(position);
+        if (section == -1) {
+            return null;
+        }
+        final int index = getPositionInSection(position);
+        if (index == -1) {
+            return null;
+        }
+        return mSections.get(section).items.get(index);
+    }
+
+    @Override
+    public int getItemCount() {
+        return mSizes.total();
+    }
+
+    /**
+     * Return a stable id for an item.
+     *
+     * @see ArrayAdapter#getItemId(Object)
+     */
+    @Nullable
+    public abstract Object getItemId(@NonNull T item);
+
+    /**
+     * @return flat adapter position of the item at {@code index} in {@code section}
+     */
+    public int getItemPosition(final int section, final int index) {
+        // skip the header
+        return mSizes.prefixSum(section) + 1 + index;
+    }
+
+    /**
+     * @return {@link #VIEW_TYPE_HEADER} or {@link #VIEW_TYPE_ITEM}
+     */
+    @Override
+    public int getItemViewType(final int position) {
+        return isHeader(position) ? VIEW_TYPE_HEADER : VIEW_TYPE_ITEM;
+    }
+
+    /**
+     * @return index of the item at {@code position} within its section or -1 for headers and
+     * positions out of range
+     */
+    public int getPositionInSection(final int position) {
+        final int section = getSectionForPosition(position);
+        if (section == -1) {
+            return -1;
+        }
+        return position - mSizes.prefixSum(section) - 1;
+    }
+
+    public int getSectionCount() {
+        return mSections.size();
+    }
+
+    /**
+     * Finds the section of a flat position in O(log n).
+     *
+     * @return the index of the section containing {@code position} or -1 when out of range
+     */
+    public int getSectionForPosition(final int position) {
+        return mSizes.indexOf(position);
+    }
+
+    @NonNull
+    public H getSectionHeader(final int section) {
+        return mSections.get(section).header;
+    }
+
+    /**
+     * @return the items of the section as unmodifiable snapshot
+     */
+    @NonNull
+    public List<T> getSectionItems(final int section) {
+        return mSections.get(section).items;
+    }
+
+    /**
+     * @return flat adapter position of the header of {@code section}
+     */
+    public int getSectionPosition(final int section) {
+        return mSizes.prefixSum(section);
+    }
+
+    /**
+     * Inserts the item at {@code index} of the section.
+     *
+     * @param section index of the section
+     * @param item    The object to insert into the section.
+     * @param index   The index in the section at which the object must be inserted.
+     */
+    public void insert(final int section, @NonNull final T item, final int index) {
+        ItemDiffs.requireNotNullItem(item);
+        synchronized (mLock) {
+            final Section<H, T> s = mSections.get(section);
+            s.items = s.items.plus(index, item);
+            mSizes.add(section, 1);
+            notifyItemInserted(getItemPosition(section, index));
+        }
+    }
+
+    /**
+     * Inserts a new section.
+     *
+     * @param section index of the new section
+     * @param header  header of the section
+     * @param items   items of the section
+     */
+    public void insertSection(final int section, @NonNull final H header,
+            @NonNull final List<T> items) {
+        ItemDiffs.requireNotNullItem(header);
+        for (final T item : items) {
+            ItemDiffs.requireNotNullItem(item);
+        }
+        synchronized (mLock) {
+            mSections.add(section, new Section<>(header, PersistentList.copyOf(items)));
+            mSizes.insert(section, items.size() + 1);
+            notifyItemRangeInserted(getSectionPosition(section), items.size() + 1);
+        }
+    }
+
+    /**
+     * @see ArrayAdapter#isContentTheSame(Object, Object)
+     */
+    @Override
+    public boolean isContentTheSame(@Nullable final T oldItem, @Nullable final T newItem) {
+        return ItemDiffs.isContentTheSame(oldItem, newItem);
+    }
+
+    /**
+     * @return true when the flat {@code position} is a section header
+     */
+    public boolean isHeader(final int position) {
+        final int section = getSectionForPosition(position);
+        return section != -1 && mSizes.prefixSum(section) == position;
+    }
+
+    /**
+     * @see ArrayAdapter#isItemTheSame(Object, Object)
+     */
+    @Override
+    public boolean isItemTheSame(@Nullable final T oldItem, @Nullable final T newItem) {
+        if (oldItem == null || newItem == null) {
+            return oldItem == newItem;
+        }
+        return ItemDiffs.isSameId(getItemId(oldItem), getItemId(newItem));
+    }
+
+    /**
+     * Removes the item from the section.
+     *
+     * @param section index of the section
+     * @param item    The object to remove.
+     */
+    public void remove(final int section, @NonNull final T item) {
+        synchronized (mLock) {
+            final Section<H, T> s = mSections.get(section);
+            final int index = s.items.indexOf(item);
+            if (index == -1) {
+                return;
+            }
+            final int position = getItemPosition(section, index);
+            s.items = s.items.minus(index);
+            mSizes.add(section, -1);
+            notifyItemRemoved(position);
+        }
+    }
+
+    /**
+     * Removes the section including its header.
+     *
+     * @param section index of the section
+     */
+    public void removeSection(final int section) {
+        synchronized (mLock) {
+            final int position = getSectionPosition(section);
+            final int size = mSizes.get(section);
+            mSections.remove(section);
+            mSizes.remove(section);
+            notifyItemRangeRemoved(position, size);
+        }
+    }
+
+    /**
+     * Swaps the items of one section. {@link DiffUtil} only compares the items of this section,
+     * the notifications are offset to the flat position of the section.
+     *
+     * @param section    index of the section
+     * @param newObjects new items of the section
+     */
+    public void swap(final int section, @NonNull final List<T> newObjects) {
+        for (final T item : newObjects) {
+            ItemDiffs.requireNotNullItem(item);
+        }
+        synchronized (mLock) {
+            final Section<H, T> s = mSections.get(section);
+            final PersistentList<T> oldItems = s.items;
+            final PersistentList<T> newItems = PersistentList.copyOf(newObjects);
+            final DiffUtil.DiffResult result;
+            try {
+                result = DiffUtil.calculateDiff(mDiffCallback.prepare(oldItems, newItems));
+            } finally {
+                mDiffCallback.release();
+            }
+            s.items = newItems;
+            mSizes.set(section, newItems.size() + 1);
+            mOffsetNotifier.offset = getItemPosition(section, 0);
+            result.dispatchUpdatesTo(mOffsetNotifier);
+        }
+    }
+}
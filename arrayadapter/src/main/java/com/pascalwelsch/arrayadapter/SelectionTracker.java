@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2017 Pascal Welsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pascalwelsch.arrayadapter;
+
+import android.support.annotation.NonNull;
+import android.support.v7.widget.RecyclerView;
+
+import java.util.BitSet;
+
+/**
+ * Selected positions of an {@link ArrayAdapter} stored as {@link BitSet}. Follows the
+ * notifications of the adapter and shifts the bits like the items are shifted, so the selection
+ * sticks to the items during every mutation. Items matched by
+ * {@link android.support.v7.util.DiffUtil} during {@link ArrayAdapter#swap(java.util.List)} keep
+ * their selection, removed items lose it.
+ * <p>
+ * Shifting only touches the selected positions behind the mutation, an empty selection costs
+ * nothing.
+ */
+final class SelectionTracker extends RecyclerView.AdapterDataObserver {
+
+    private BitSet mSelected = new BitSet();
+
+    void clear() {
+        mSelected.clear();
+    }
+
+    boolean contains(final int position) {
+        return mSelected.get(position);
+    }
+
+    int count() {
+        return mSelected.cardinality();
+    }
+
+    /**
+     * grows the bits to at least {@code capacity} positions
+     */
+    void ensureCapacity(final int capacity) {
+        if (mSelected.size() < capacity) {
+            final BitSet grown = new BitSet(capacity);
+            grown.or(mSelected);
+            mSelected = grown;
+        }
+    }
+
+    long getAllocatedBytes() {
+        return mSelected.size() / 8;
+    }
+
+    /**
+     * @return the first selected position or -1 when nothing is selected
+     */
+    int first() {
+        return mSelected.nextSetBit(0);
+    }
+
+    /**
+     * @return the last selected position or -1 when nothing is selected
+     */
+    int last() {
+        return mSelected.length() - 1;
+    }
+
+    /**
+     * The positions are unknown after a full data set change, the selection is dropped
+     */
+    @Override
+    public void onChanged() {
+        mSelected.clear();
+    }
+
+    @Override
+    public void onItemRangeInserted(final int positionStart, final int itemCount) {
+        final int length = mSelected.length();
+        if (length <= positionStart) {
+            return;
+        }
+        // BitSet#previousSetBit requires API 19, the shifted bits are copied forward instead
+        final BitSet tail = mSelected.get(positionStart, length);
+        mSelected.clear(positionStart, length);
+        for (int i = tail.nextSetBit(0); i >= 0; i = tail.nextSetBit(i + 1)) {
+            mSelected.set(positionStart + itemCount + i);
+        }
+    }
+
+    @Override
+    public void onItemRangeMoved(final int fromPosition, final int toPosition,
+            final int itemCount) {
+        for (int i = 0; i < itemCount; i++) {
+            move(fromPosition + i, toPosition + i);
+        }
+    }
+
+    @Override
+    public void onItemRangeRemoved(final int positionStart, final int itemCount) {
+        final int end = positionStart + itemCount;
+        mSelected.clear(positionStart, end);
+        for (int i = mSelected.nextSetBit(end); i >= 0; i = mSelected.nextSetBit(i + 1)) {
+            mSelected.clear(i);
+            mSelected.set(i - itemCount);
+        }
+    }
+
+    /**
+     * moves the selection along with reordered items
+     *
+     * @param order old positions by new position
+     */
+    void permute(@NonNull final int[] order) {
+        if (mSelected.isEmpty()) {
+            return;
+        }
+        final BitSet permuted = new BitSet(order.length);
+        for (int i = 0; i < order.length; i++) {
+            if (mSelected.get(order[i])) {
+                permuted.set(i);
+            }
+        }
+        mSelected = permuted;
+    }
+
+    void set(final int position, final boolean selected) {
+        mSelected.set(position, selected);
+    }
+
+    /**
+     * selects or deselects the positions {@code from} (inclusive) to {@code to} (exclusive)
+     */
+    void set(final int from, final int to, final boolean selected) {
+        mSelected.set(from, to, selected);
+    }
+
+    /**
+     * releases the words of the bit set behind the last selected position
+     */
+    void trimToSize() {
+        // clone() doesn't trim a set created with a size by ensureCapacity(), copy the bits
+        final BitSet trimmed = new BitSet();
+        trimmed.or(mSelected);
+        mSelected = trimmed;
+    }
+
+    @NonNull
+    int[] toArray() {
+        final int[] positions = new int[count()];
+        int index = 0;
+        for (int i = first(); i >= 0; i = mSelected.nextSetBit(i + 1)) {
+            positions[index++] = i;
+        }
+        return positions;
+    }
+
+    private void move(final int from, final int to) {
+        if (from == to) {
+            return;
+        }
+        final boolean selected = mSelected.get(from);
+        mSelected.clear(from);
+        if (from < to) {
+            // items between from and to move one position towards the start
+            for (int i = mSelected.nextSetBit(from + 1); i >= 0 && i <= to;
+                    i = mSelected.nextSetBit(i + 1)) {
+                mSelected.clear(i);
+                mSelected.set(i - 1);
+            }
+        } else {
+            // items between to and from move one position towards the end
+            // walks down with get(), BitSet#previousSetBit requires API 19
+            for (int i = from - 1; i >= to; i--) {
+                if (mSelected.get(i)) {
+                    mSelected.clear(i);
+                    mSelected.set(i + 1);
+                }
+            }
+        }
+        mSelected.set(to, selected);
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2017 Pascal Welsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pascalwelsch.arrayadapter;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Adapter for huge lists which keeps its items serialized in a compact direct
+ * {@link java.nio.ByteBuffer} instead of materialized objects on the java heap. Items are
+ * decoded on demand by {@link #getItem(int)} and the most recently used decoded items are
+ * cached.
+ * <p>
+ * {@link #swap(List)} diffs on the stored ids and the serialized bytes, no stored item is
+ * decoded. Items are considered to have the same content when their bytes are equal.
+ *
+ * @param <T>  item type
+ * @param <VH> {@link RecyclerView.ViewHolder} for item {@link T}
+ */
+@SuppressWarnings("WeakerAccess")
+public abstract class SerializedArrayAdapter<T, VH extends RecyclerView.ViewHolder>
+        extends RecyclerView.Adapter<VH> {
+
+    /**
+     * default number of decoded items kept in memory
+     */
+    public static final int DEFAULT_CACHE_SIZE = 64;
+
+    private final ItemCodec<T> mCodec;
+
+    /**
+     * decoded items by position of {@link #mStore}, replaced together with the store when the
+     * positions change
+     */
+    private final LinkedHashMap<Integer, T> mDecoded;
+
+    /**
+     * Lock used to modify {@link #mStore}.
+     */
+    private final Object mLock = new Object();
+
+    private volatile SerializedItemStore mStore = SerializedItemStore.empty();
+
+    public SerializedArrayAdapter(@NonNull final ItemCodec<T> codec) {
+        this(codec, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param codec     serializes the items
+     * @param cacheSize maximum number of decoded items kept in memory
+     */
+    public SerializedArrayAdapter(@NonNull final ItemCodec<T> codec, final int cacheSize) {
+        if (cacheSize < 1) {
+            throw new IllegalArgumentException("cacheSize must be > 0, was " + cacheSize);
+        }
+        mCodec = codec;
+        mDecoded = new LinkedHashMap<Integer, T>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Integer, T> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Serializes the items and appends them at the end.
+     *
+     * @param collection The objects to add at the end.
+     */
+    public void addAll(@NonNull final Collection<T> collection) {
+        if (collection.isEmpty()) {
+            return;
+        }
+        for (final T item : collection) {
+            ItemDiffs.requireNotNullItem(item);
+        }
+        synchronized (mLock) {
+            final int position = mStore.size();
+            mStore = mStore.plusAll(collection, mCodec);
+            notifyItemRangeInserted(position, collection.size());
+        }
+    }
+
+    /**
+     * Remove all elements.
+     */
+    public void clear() {
+        synchronized (mLock) {
+            final int size = mStore.size();
+            if (size == 0) {
+                return;
+            }
+            replaceStore(SerializedItemStore.empty());
+            notifyItemRangeRemoved(0, size);
+        }
+    }
+
+    /**
+     * Returns the item at the specified position, decoded on demand.
+     *
+     * @param position index of the item to return
+     * @return the item at the specified position or {@code null} when not found
+     */
+    @Nullable
+    public T getItem(final int position) {
+        final SerializedItemStore store = mStore;
+        if (position < 0 || position >= store.size()) {
+            return null;
+        }
+        synchronized (mDecoded) {
+            // the cache may already belong to a newer store with other items at the position
+            final T cached = store == mStore ? mDecoded.get(position) : null;
+            if (cached != null) {
+                return cached;
+            }
+        }
+        final T item = store.decode(position, mCodec);
+        synchronized (mDecoded) {
+            if (store == mStore) {
+                mDecoded.put(position, item);
+            }
+        }
+        return item;
+    }
+
+    @Override
+    public int getItemCount() {
+        return mStore.size();
+    }
+
+    /**
+     * Returns the stored id, the item isn't decoded.
+     *
+     * @see ItemCodec#getItemId(Object)
+     */
+    @Override
+    public long getItemId(final int position) {
+        final SerializedItemStore store = mStore;
+        if (position < 0 || position >= store.size()) {
+            return RecyclerView.NO_ID;
+        }
+        return store.getId(position);
+    }
+
+    /**
+     * @return bytes used by the serialized items and their index
+     */
+    public long getStoredBytes() {
+        final SerializedItemStore store = mStore;
+        return store.getDataSize() + store.getIndexSize();
+    }
+
+    /**
+     * Replaces the items with the items of a snapshot written by {@link #writeSnapshot(File)},
+     * i.e. for an instant cold start. The file is mapped into memory, {@link #getItemCount()}
+     * is available immediately and items are decoded lazily. Call {@link #swap(List)} with
+     * fresh data afterwards, only the differences are notified.
+     *
+     * @param snapshot the snapshot file
+     * @throws IOException when the file is not a valid snapshot
+     */
+    public void restoreSnapshot(@NonNull final File snapshot) throws IOException {
+        final SerializedItemStore restored = SerializedItemStore.map(snapshot);
+        synchronized (mLock) {
+            final int oldSize = mStore.size();
+            replaceStore(restored);
+            if (oldSize > 0) {
+                notifyItemRangeRemoved(0, oldSize);
+            }
+            if (restored.size() > 0) {
+                notifyItemRangeInserted(0, restored.size());
+            }
+        }
+    }
+
+    /**
+     * Swaps the data. The new items are serialized and {@link DiffUtil} compares them to the
+     * stored items by id and serialized bytes, without decoding.
+     *
+     * @param newObjects new set of data
+     */
+    public void swap(@Nullable final List<T> newObjects) {
+        if (newObjects == null) {
+            clear();
+            return;
+        }
+        for (final T item : newObjects) {
+            ItemDiffs.requireNotNullItem(item);
+        }
+        final SerializedItemStore newStore = SerializedItemStore.encode(newObjects, mCodec);
+        synchronized (mLock) {
+            final SerializedItemStore oldStore = mStore;
+            final DiffUtil.DiffResult result = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+                @Override
+                public boolean areContentsTheSame(final int oldItemPosition,
+                        final int newItemPosition) {
+                    return oldStore.contentEquals(oldItemPosition, newStore, newItemPosition);
+                }
+
+                @Override
+                public boolean areItemsTheSame(final int oldItemPosition,
+                        final int newItemPosition) {
+                    return oldStore.getId(oldItemPosition) == newStore.getId(newItemPosition);
+                }
+
+                @Override
+                public int getNewListSize() {
+                    return newStore.size();
+                }
+
+                @Override
+                public int getOldListSize() {
+                    return oldStore.size();
+                }
+            });
+            replaceStore(newStore);
+            result.dispatchUpdatesTo(this);
+        }
+    }
+
+    /**
+     * Writes the serialized items to a compact binary snapshot file. Can be called from a
+     * background thread, the items are not encoded again.
+     *
+     * @param snapshot the file to write, replaced when it exists
+     * @throws IOException when writing failed
+     * @see #restoreSnapshot(File)
+     */
+    @WorkerThread
+    public void writeSnapshot(@NonNull final File snapshot) throws IOException {
+        mStore.writeTo(snapshot);
+    }
+
+    /**
+     * publishes {@code store} and drops the decoded items of the old store at once, so
+     * {@link #getItem(int)} never mixes the two
+     */
+    private void replaceStore(@NonNull final SerializedItemStore store) {
+        synchronized (mDecoded) {
+            mStore = store;
+            mDecoded.clear();
+        }
+    }
+}
@@ -0,0 +1,370 @@
+/*
+ * Copyright (C) 2017 Pascal Welsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pascalwelsch.arrayadapter;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Immutable store of serialized items. The bytes of all items are kept back to back in a single
+ * {@link ByteBuffer}, usually a direct buffer outside of the java heap. Offsets, ids and hashes
+ * of the bytes are kept in primitive arrays, so items can be diffed without decoding them.
+ * <p>
+ * A store can be written to a snapshot file and mapped back into memory with
+ * {@link #map(File)}. The bytes of a mapped store are paged in by the OS when an item is decoded.
+ */
+final class SerializedItemStore {
+
+    /**
+     * Writes items into a growing direct buffer. Buffer and arrays grow geometrically and keep
+     * spare capacity, the built stores are views on their written prefix. A builder keeps
+     * appending behind the last built store, see {@link #plusAll(Collection, ItemCodec)}.
+     */
+    static final class Builder {
+
+        private ByteBuffer mData;
+
+        private int[] mHashes;
+
+        private long[] mIds;
+
+        private int[] mOffsets;
+
+        private int mSize;
+
+        Builder(final int expectedItems, final int expectedBytes) {
+            mData = ByteBuffer.allocateDirect(Math.max(64, expectedBytes));
+            mOffsets = new int[expectedItems + 1];
+            mIds = new long[expectedItems];
+            mHashes = new int[expectedItems];
+        }
+
+        void append(@NonNull final byte[] bytes, final long id) {
+            append(ByteBuffer.wrap(bytes), id, ByteBuffer.wrap(bytes).hashCode());
+        }
+
+        void append(@NonNull final ByteBuffer bytes, final long id, final int hash) {
+            ensureCapacity(bytes.remaining());
+            if (mSize == mIds.length) {
+                final int capacity = Math.max(8, mIds.length * 2);
+                mOffsets = Arrays.copyOf(mOffsets, capacity + 1);
+                mIds = Arrays.copyOf(mIds, capacity);
+                mHashes = Arrays.copyOf(mHashes, capacity);
+            }
+            mIds[mSize] = id;
+            mHashes[mSize] = hash;
+            mData.put(bytes);
+            mSize++;
+            mOffsets[mSize] = mData.position();
+        }
+
+        @NonNull
+        SerializedItemStore build() {
+            if (mSize == 0) {
+                return EMPTY;
+            }
+            final ByteBuffer data = mData.duplicate();
+            data.flip();
+            return new SerializedItemStore(data.slice(), mOffsets, mIds, mHashes, mSize, this);
+        }
+
+        private void ensureCapacity(final int additionalBytes) {
+            if (mData.remaining() >= additionalBytes) {
+                return;
+            }
+            final long required = (long) mData.position() + additionalBytes;
+            final ByteBuffer grown = ByteBuffer.allocateDirect(
+                    (int) Math.min(Integer.MAX_VALUE, Math.max(required, mData.capacity() * 2L)));
+            mData.flip();
+            grown.put(mData);
+            mData = grown;
+        }
+    }
+
+    /**
+     * magic, version, item count, data size
+     */
+    private static final int HEADER_SIZE = 16;
+
+    private static final int SNAPSHOT_MAGIC = 0x4141534e;
+
+    private static final int SNAPSHOT_VERSION = 1;
+
+    private static final SerializedItemStore EMPTY = new SerializedItemStore(
+            ByteBuffer.allocate(0), new int[1], new long[0], new int[0], 0, null);
+
+    /**
+     * builder which wrote this store, {@code null} for mapped stores
+     */
+    private final Builder mBuilder;
+
+    private final ByteBuffer mData;
+
+    /**
+     * hash of the bytes of every item
+     */
+    private final int[] mHashes;
+
+    private final long[] mIds;
+
+    /**
+     * start of item {@code i} in {@link #mData}, {@code mOffsets[size]} is the end of the data
+     */
+    private final int[] mOffsets;
+
+    private final int mSize;
+
+    SerializedItemStore(@NonNull final ByteBuffer data, @NonNull final int[] offsets,
+            @NonNull final long[] ids, @NonNull final int[] hashes, final int size,
+            @Nullable final Builder builder) {
+        mData = data;
+        mOffsets = offsets;
+        mIds = ids;
+        mHashes = hashes;
+        mSize = size;
+        mBuilder = builder;
+    }
+
+    /**
+     * Compares the bytes of two stored items without decoding them
+     */
+    boolean contentEquals(final int position, @NonNull final SerializedItemStore other,
+            final int otherPosition) {
+        if (mHashes[position] != other.mHashes[otherPosition]) {
+            return false;
+        }
+        return bytes(position).equals(other.bytes(otherPosition));
+    }
+
+    /**
+     * Decodes the item at the position
+     */
+    @NonNull
+    <T> T decode(final int position, @NonNull final ItemCodec<T> codec) {
+        return codec.decode(bytes(position));
+    }
+
+    /**
+     * @return size of the serialized items in bytes
+     */
+    int getDataSize() {
+        return mOffsets[mSize];
+    }
+
+    long getId(final int position) {
+        return mIds[position];
+    }
+
+    /**
+     * @return bytes used by the offset, id and hash arrays
+     */
+    long getIndexSize() {
+        return (long) mOffsets.length * 4 + (long) mIds.length * 8 + (long) mHashes.length * 4;
+    }
+
+    /**
+     * Only the new items are encoded. When nothing was appended to this store before, the items
+     * are written into the spare capacity of its builder, behind the bytes visible to this store.
+     * Otherwise the store is copied once into a new builder. Repeated appends therefore cost
+     * amortized time proportional to the appended bytes.
+     *
+     * @return a new store with {@code items} appended
+     */
+    @NonNull
+    <T> SerializedItemStore plusAll(@NonNull final Collection<T> items,
+            @NonNull final ItemCodec<T> codec) {
+        if (mBuilder != null) {
+            synchronized (mBuilder) {
+                if (mBuilder.mSize == mSize) {
+                    return appendAll(mBuilder, items, codec);
+                }
+            }
+        }
+        final Builder builder = new Builder(mSize + items.size(), getDataSize());
+        for (int i = 0; i < mSize; i++) {
+            builder.append(bytes(i), mIds[i], mHashes[i]);
+        }
+        return appendAll(builder, items, codec);
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * Writes the store to a snapshot file. Writes to a temporary file first and renames it, an
+     * existing snapshot is only replaced when writing succeeded.
+     *
+     * @param file the snapshot file
+     * @throws IOException when the snapshot could not be written
+     */
+    void writeTo(@NonNull final File file) throws IOException {
+        final ByteBuffer index = ByteBuffer.allocate(HEADER_SIZE
+                + mSize * 8 + (mSize + 1) * 4 + mSize * 4).order(ByteOrder.BIG_ENDIAN);
+        index.putInt(SNAPSHOT_MAGIC);
+        index.putInt(SNAPSHOT_VERSION);
+        index.putInt(mSize);
+        index.putInt(getDataSize());
+        for (int i = 0; i < mSize; i++) {
+            index.putLong(mIds[i]);
+        }
+        for (int i = 0; i <= mSize; i++) {
+            index.putInt(mOffsets[i]);
+        }
+        for (int i = 0; i < mSize; i++) {
+            index.putInt(mHashes[i]);
+        }
+        index.flip();
+
+        final ByteBuffer data = mData.duplicate();
+        data.limit(getDataSize());
+        data.position(0);
+
+        final File temp = new File(file.getPath() + ".tmp");
+        final FileOutputStream out = new FileOutputStream(temp);
+        try {
+            final FileChannel channel = out.getChannel();
+            while (index.hasRemaining()) {
+                channel.write(index);
+            }
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            throw new IOException("could not replace snapshot " + file);
+        }
+    }
+
+    /**
+     * @return a read only view on the bytes of the item at the position
+     */
+    @NonNull
+    ByteBuffer bytes(final int position) {
+        final ByteBuffer bytes = mData.duplicate();
+        bytes.limit(mOffsets[position + 1]);
+        bytes.position(mOffsets[position]);
+        return bytes.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Maps a snapshot written by {@link #writeTo(File)} into memory. Only the index is read, the
+     * bytes of the items stay in the file until they are decoded.
+     *
+     * @param file the snapshot file
+     * @return the mapped store
+     * @throws IOException when the file is not a valid snapshot
+     */
+    @NonNull
+    static SerializedItemStore map(@NonNull final File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        final MappedByteBuffer mapped;
+        try {
+            // the mapping stays valid after the channel is closed
+            mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+        mapped.order(ByteOrder.BIG_ENDIAN);
+        if (mapped.remaining() < HEADER_SIZE || mapped.getInt() != SNAPSHOT_MAGIC) {
+            throw new IOException("not a snapshot: " + file);
+        }
+        final int version = mapped.getInt();
+        if (version != SNAPSHOT_VERSION) {
+            throw new IOException("unsupported snapshot version " + version);
+        }
+        final int size = mapped.getInt();
+        final int dataSize = mapped.getInt();
+        final long expected = HEADER_SIZE + size * 16L + 4 + dataSize;
+        if (size < 0 || dataSize < 0 || mapped.capacity() != expected) {
+            throw new IOException("corrupt snapshot: " + file);
+        }
+
+        final long[] ids = new long[size];
+        mapped.asLongBuffer().get(ids);
+        mapped.position(mapped.position() + size * 8);
+        final int[] offsets = new int[size + 1];
+        mapped.asIntBuffer().get(offsets);
+        mapped.position(mapped.position() + (size + 1) * 4);
+        final int[] hashes = new int[size];
+        mapped.asIntBuffer().get(hashes);
+        mapped.position(mapped.position() + size * 4);
+        if (!isValidIndex(offsets, dataSize, mapped.remaining())) {
+            throw new IOException("corrupt snapshot: " + file);
+        }
+
+        if (size == 0) {
+            return EMPTY;
+        }
+        return new SerializedItemStore(mapped.slice(), offsets, ids, hashes, size, null);
+    }
+
+    @NonNull
+    static SerializedItemStore empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Encodes all items into a new store
+     */
+    @NonNull
+    static <T> SerializedItemStore encode(@NonNull final Collection<T> items,
+            @NonNull final ItemCodec<T> codec) {
+        return appendAll(new Builder(items.size(), items.size() * 32), items, codec);
+    }
+
+    /**
+     * @return whether the offsets start at {@code 0}, never decrease and end at {@code dataSize}
+     * within the {@code available} bytes, so every item range can be read
+     */
+    private static boolean isValidIndex(@NonNull final int[] offsets, final int dataSize,
+            final int available) {
+        if (offsets[0] != 0 || offsets[offsets.length - 1] != dataSize || dataSize > available) {
+            return false;
+        }
+        for (int i = 1; i < offsets.length; i++) {
+            if (offsets[i] < offsets[i - 1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @NonNull
+    private static <T> SerializedItemStore appendAll(@NonNull final Builder builder,
+            @NonNull final Collection<T> items, @NonNull final ItemCodec<T> codec) {
+        for (final T item : items) {
+            builder.append(codec.encode(item), codec.getItemId(item));
+        }
+        return builder.build();
+    }
+}
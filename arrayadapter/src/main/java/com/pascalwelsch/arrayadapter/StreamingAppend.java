@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2017 Pascal Welsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pascalwelsch.arrayadapter;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends the items of an {@link Iterator}, i.e. the rows of a database cursor, to an
+ * {@link ArrayAdapter} without collecting them in a list first. Created by
+ * {@link ArrayAdapter#appendStream(Iterator, Executor)}.
+ * <p>
+ * The iterator is consumed on a background {@link Executor} in chunks. Every chunk is added on
+ * the main thread with a single {@link ArrayAdapter#addAll(java.util.Collection)}, which
+ * dispatches one insert notification. The chunk size adapts to the time the previous chunk took
+ * to add, so adding a chunk stays within {@link #FRAME_BUDGET_NANOS}. At most
+ * {@link #MAX_PENDING_CHUNKS} chunks wait for the main thread, the iterator isn't read further
+ * until a chunk was added (backpressure). An executor running on the main thread can't wait for
+ * that without blocking the thread which adds the chunks, reading is posted behind the pending
+ * chunks instead.
+ *
+ * @param <T> item type
+ */
+@SuppressWarnings("WeakerAccess")
+public final class StreamingAppend<T> {
+
+    /**
+     * time adding a chunk may take on the main thread, a quarter of a 60fps frame
+     */
+    static final long FRAME_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(4);
+
+    static final int INITIAL_CHUNK_SIZE = 64;
+
+    static final int MAX_CHUNK_SIZE = 4096;
+
+    static final int MAX_PENDING_CHUNKS = 2;
+
+    static final int MIN_CHUNK_SIZE = 16;
+
+    private final ArrayAdapter<T, ?> mAdapter;
+
+    private volatile int mAppendedCount;
+
+    private volatile boolean mCancelled;
+
+    private volatile int mChunkSize = INITIAL_CHUNK_SIZE;
+
+    @Nullable
+    private volatile Throwable mError;
+
+    private volatile boolean mFinished;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * permits for chunks which may be read before the main thread added the previous ones
+     */
+    private final Semaphore mPendingChunks = new Semaphore(MAX_PENDING_CHUNKS);
+
+    private final Iterator<? extends T> mSource;
+
+    private final Runnable mProducer = new Runnable() {
+        @Override
+        public void run() {
+            produce();
+        }
+    };
+
+    StreamingAppend(@NonNull final ArrayAdapter<T, ?> adapter,
+            @NonNull final Iterator<? extends T> source) {
+        mAdapter = adapter;
+        mSource = source;
+    }
+
+    /**
+     * Stops reading the iterator. Chunks which were read but not added yet are dropped, the
+     * items which were already added stay in the adapter. Called automatically when the adapter
+     * is detached from its {@link android.support.v7.widget.RecyclerView}.
+     */
+    public void cancel() {
+        mCancelled = true;
+        // wakes up the producer waiting for the main thread
+        mPendingChunks.release(MAX_PENDING_CHUNKS);
+    }
+
+    /**
+     * @return number of items added to the adapter so far
+     */
+    public int getAppendedCount() {
+        return mAppendedCount;
+    }
+
+    /**
+     * @return the exception thrown by the iterator or {@code null}. Reading stops at the first
+     * exception, the items read before are added.
+     */
+    @Nullable
+    public Throwable getError() {
+        return mError;
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * @return true when the iterator was read completely, failed or was cancelled and no more
+     * items will be added
+     */
+    public boolean isFinished() {
+        return mFinished;
+    }
+
+    void start(@NonNull final Executor executor) {
+        executor.execute(mProducer);
+    }
+
+    /**
+     * adds a chunk on the main thread and adapts the size of the next chunks to the frame
+     * budget
+     */
+    private void append(@NonNull final ArrayList<T> chunk, final boolean last) {
+        if (!mCancelled && !chunk.isEmpty()) {
+            final long start = System.nanoTime();
+            mAdapter.addAll(chunk);
+            final long duration = System.nanoTime() - start;
+            mAppendedCount += chunk.size();
+            final int size = mChunkSize;
+            if (duration > FRAME_BUDGET_NANOS) {
+                mChunkSize = Math.max(MIN_CHUNK_SIZE, size / 2);
+            } else if (duration * 2 < FRAME_BUDGET_NANOS && chunk.size() == size) {
+                mChunkSize = Math.min(MAX_CHUNK_SIZE, size * 2);
+            }
+        }
+        mPendingChunks.release();
+        if (last || mCancelled) {
+            finish();
+        }
+    }
+
+    private void finish() {
+        if (mFinished) {
+            return;
+        }
+        mFinished = true;
+        mAdapter.onStreamFinished(this);
+    }
+
+    private void post(@NonNull final ArrayList<T> chunk, final boolean last) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                append(chunk, last);
+            }
+        });
+    }
+
+    /**
+     * reads chunks on the executor until the iterator is exhausted or the stream is cancelled.
+     * On the main thread reading pauses instead of waiting for the pending chunks.
+     */
+    private void produce() {
+        final boolean mainThread = Looper.myLooper() == Looper.getMainLooper();
+        boolean paused = false;
+        try {
+            boolean last = false;
+            while (!last) {
+                if (!mainThread) {
+                    mPendingChunks.acquire();
+                } else if (!mPendingChunks.tryAcquire()) {
+                    paused = true;
+                    break;
+                }
+                if (mCancelled) {
+                    break;
+                }
+                final int size = mChunkSize;
+                final ArrayList<T> chunk = new ArrayList<>(size);
+                try {
+                    while (chunk.size() < size && !mCancelled && mSource.hasNext()) {
+                        final T item = mSource.next();
+                        if (item == null) {
+                            throw new IllegalStateException("null items are not allowed");
+                        }
+                        chunk.add(item);
+                    }
+                    last = mCancelled || !mSource.hasNext();
+                } catch (RuntimeException e) {
+                    mError = e;
+                    last = true;
+                }
+                post(chunk, last);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            mCancelled = true;
+        } finally {
+            if (!paused && mSource instanceof Closeable) {
+                try {
+                    ((Closeable) mSource).close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        if (paused) {
+            // continues after the pending chunks were added, they were posted before
+            mMainHandler.post(mProducer);
+        } else if (mCancelled) {
+            // nothing more is posted, finish on the main thread
+            post(new ArrayList<T>(0), true);
+        }
+    }
+}
@@ -0,0 +1,412 @@
+/*
+ * Copyright (C) 2017 Pascal Welsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pascalwelsch.arrayadapter;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v7.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Hierarchical adapter following the API of {@link ArrayAdapter}, i.e. for a file browser.
+ * Items are organized in a tree of {@link Node}s and only the nodes of expanded parents are
+ * shown, in depth-first order.
+ * <p>
+ * The visible nodes are stored in a size augmented balanced tree. Resolving the node at a
+ * position or the position of a node takes O(log n). Expanding or collapsing a node inserts or
+ * removes all its visible descendants at once and dispatches a single
+ * {@code notifyItemRange*()} call.
+ * <p>
+ * This is a standalone {@link RecyclerView.Adapter}, not a subclass of {@link ArrayAdapter}.
+ * The flat list of {@link ArrayAdapter} can't resolve the position of a node without a linear
+ * search, and its mutators (sort, move, undo, incremental swap) would reorder the visible nodes
+ * without updating the hierarchy. Duplicate id policies, undo, selection and diff caching are
+ * therefore not available.
+ *
+ * @param <T>  item type (a immutable pojo works best)
+ * @param <VH> {@link RecyclerView.ViewHolder} for item {@link T}
+ */
+@SuppressWarnings("WeakerAccess")
+public abstract class TreeArrayAdapter<T, VH extends RecyclerView.ViewHolder>
+        extends RecyclerView.Adapter<VH> {
+
+    /**
+     * A node of the tree holding one item
+     */
+    public static final class Node<T> {
+
+        private final List<Node<T>> mChildren = new ArrayList<>();
+
+        private final int mDepth;
+
+        /**
+         * entry in the visible tree, {@code null} when the node isn't visible
+         */
+        @Nullable
+        private RankedTree.Entry<Node<T>> mEntry;
+
+        private boolean mExpanded;
+
+        private final T mItem;
+
+        /**
+         * parent node, {@code null} for the invisible root and for removed nodes
+         */
+        @Nullable
+        private Node<T> mParent;
+
+        /**
+         * number of nodes below this node which are visible when this node is visible, {@code 0}
+         * when collapsed
+         */
+        private int mVisibleDescendants;
+
+        private Node(@Nullable final Node<T> parent, final T item) {
+            mParent = parent;
+            mItem = item;
+            mDepth = parent == null ? -1 : parent.mDepth + 1;
+        }
+
+        @NonNull
+        public List<Node<T>> getChildren() {
+            return Collections.unmodifiableList(mChildren);
+        }
+
+        /**
+         * @return depth in the tree, {@code 0} for top level nodes
+         */
+        public int getDepth() {
+            return mDepth;
+        }
+
+        public T getItem() {
+            return mItem;
+        }
+
+        /**
+         * @return the parent or {@code null} for top level and removed nodes
+         */
+        @Nullable
+        public Node<T> getParent() {
+            // the invisible root has the depth -1
+            return mParent == null || mParent.mDepth < 0 ? null : mParent;
+        }
+
+        public boolean hasChildren() {
+            return !mChildren.isEmpty();
+        }
+
+        public boolean isExpanded() {
+            return mExpanded;
+        }
+
+        public boolean isVisible() {
+            return mEntry != null;
+        }
+    }
+
+    /**
+     * Lock used to modify the tree. Any write operation should be synchronized on this lock.
+     */
+    private final Object mLock = new Object();
+
+    /**
+     * invisible root, its children are the top level nodes
+     */
+    private final Node<T> mRoot = new Node<>(null, null);
+
+    private final RankedTree<Node<T>> mVisible = new RankedTree<>();
+
+    public TreeArrayAdapter() {
+        mRoot.mExpanded = true;
+    }
+
+    /**
+     * Adds a child at the end of the children of {@code parent}. It becomes visible when all
+     * ancestors are expanded.
+     *
+     * @param parent parent node or {@code null} to add a top level node
+     * @param item   item of the new node
+     * @return the new node
+     */
+    @NonNull
+    public Node<T> add(@Nullable final Node<T> parent, @NonNull final T item) {
+        ItemDiffs.requireNotNullItem(item);
+        synchronized (mLock) {
+            final Node<T> p = parent == null ? mRoot : parent;
+            final Node<T> node = new Node<>(p, item);
+            final int position = endOfSubtree(p);
+            p.mChildren.add(node);
+            if (position >= 0) {
+                final List<Node<T>> nodes = Collections.singletonList(node);
+                insertVisible(position, nodes);
+                notifyItemInserted(position);
+            }
+            addVisibleDescendants(p, 1);
+            return node;
+        }
+    }
+
+    /**
+     * Adds children at the end of the children of {@code parent} and dispatches a single
+     * notification when they are visible.
+     *
+     * @param parent parent node or {@code null} to add top level nodes
+     * @param items  items of the new nodes
+     * @return the new nodes
+     */
+    @NonNull
+    public List<Node<T>> addAll(@Nullable final Node<T> parent,
+            @NonNull final Collection<T> items) {
+        for (final T item : items) {
+            ItemDiffs.requireNotNullItem(item);
+        }
+        synchronized (mLock) {
+            final Node<T> p = parent == null ? mRoot : parent;
+            final List<Node<T>> nodes = new ArrayList<>(items.size());
+            for (final T item : items) {
+                nodes.add(new Node<>(p, item));
+            }
+            if (nodes.isEmpty()) {
+                return nodes;
+            }
+            final int position = endOfSubtree(p);
+            p.mChildren.addAll(nodes);
+            if (position >= 0) {
+                insertVisible(position, nodes);
+                notifyItemRangeInserted(position, nodes.size());
+            }
+            addVisibleDescendants(p, nodes.size());
+            return nodes;
+        }
+    }
+
+    /**
+     * Removes all nodes
+     */
+    public void clear() {
+        synchronized (mLock) {
+            final int count = getItemCount();
+            if (mRoot.mChildren.isEmpty()) {
+                return;
+            }
+            final List<Node<T>> hidden = new ArrayList<>(count);
+            collectVisibleDescendants(mRoot, hidden);
+            for (final Node<T> removed : hidden) {
+                removed.mEntry = null;
+            }
+            mVisible.removeRange(0, count);
+            // detached like removed nodes, edits of their subtrees don't reach the root
+            for (final Node<T> child : mRoot.mChildren) {
+                child.mParent = null;
+            }
+            mRoot.mChildren.clear();
+            mRoot.mVisibleDescendants = 0;
+            notifyItemRangeRemoved(0, count);
+        }
+    }
+
+    /**
+     * Hides all descendants of the node. Dispatches a single range notification when the node
+     * is visible.
+     */
+    public void collapse(@NonNull final Node<T> node) {
+        synchronized (mLock) {
+            if (!node.mExpanded) {
+                return;
+            }
+            final int count = node.mVisibleDescendants;
+            final RankedTree.Entry<Node<T>> entry = node.mEntry;
+            if (entry != null && count > 0) {
+                final int position = mVisible.indexOf(entry) + 1;
+                final List<Node<T>> hidden = new ArrayList<>(count);
+                collectVisibleDescendants(node, hidden);
+                for (final Node<T> descendant : hidden) {
+                    descendant.mEntry = null;
+                }
+                mVisible.removeRange(position, count);
+                notifyItemRangeRemoved(position, count);
+            }
+            addVisibleDescendants(node, -count);
+            node.mExpanded = false;
+        }
+    }
+
+    /**
+     * Shows the children of the node and the descendants of expanded children. Dispatches a
+     * single range notification when the node is visible.
+     */
+    public void expand(@NonNull final Node<T> node) {
+        synchronized (mLock) {
+            if (node.mExpanded) {
+                return;
+            }
+            node.mExpanded = true;
+            int count = 0;
+            for (final Node<T> child : node.mChildren) {
+                count += 1 + child.mVisibleDescendants;
+            }
+            final RankedTree.Entry<Node<T>> entry = node.mEntry;
+            if (entry != null && count > 0) {
+                final int position = mVisible.indexOf(entry) + 1;
+                final List<Node<T>> shown = new ArrayList<>(count);
+                collectVisibleDescendants(node, shown);
+                insertVisible(position, shown);
+                notifyItemRangeInserted(position, count);
+            }
+            addVisibleDescendants(node, count);
+        }
+    }
+
+    /**
+     * @return the item of the visible node at {@code position} or {@code null} when not found
+     */
+    @Nullable
+    public T getItem(final int position) {
+        final Node<T> node = getNode(position);
+        return node == null ? null : node.mItem;
+    }
+
+    /**
+     * @return the number of visible nodes
+     */
+    @Override
+    public int getItemCount() {
+        return mVisible.size();
+    }
+
+    /**
+     * Returns the visible node at the position in O(log n).
+     *
+     * @return the node or {@code null} when out of range
+     */
+    @Nullable
+    public Node<T> getNode(final int position) {
+        if (position < 0 || position >= mVisible.size()) {
+            return null;
+        }
+        return mVisible.get(position);
+    }
+
+    /**
+     * Returns the position of the node in O(log n).
+     *
+     * @return the position or -1 when the node isn't visible
+     */
+    public int getPosition(@NonNull final Node<T> node) {
+        final RankedTree.Entry<Node<T>> entry = node.mEntry;
+        return entry == null ? -1 : mVisible.indexOf(entry);
+    }
+
+    /**
+     * @return the top level nodes
+     */
+    @NonNull
+    public List<Node<T>> getRootNodes() {
+        return Collections.unmodifiableList(mRoot.mChildren);
+    }
+
+    /**
+     * Removes the node and all its descendants
+     */
+    public void remove(@NonNull final Node<T> node) {
+        synchronized (mLock) {
+            final Node<T> parent = node.mParent;
+            if (parent == null || !parent.mChildren.remove(node)) {
+                return;
+            }
+            final int count = 1 + node.mVisibleDescendants;
+            final RankedTree.Entry<Node<T>> entry = node.mEntry;
+            if (entry != null) {
+                final int position = mVisible.indexOf(entry);
+                final List<Node<T>> hidden = new ArrayList<>(count);
+                hidden.add(node);
+                collectVisibleDescendants(node, hidden);
+                for (final Node<T> removed : hidden) {
+                    removed.mEntry = null;
+                }
+                mVisible.removeRange(position, count);
+                notifyItemRangeRemoved(position, count);
+            }
+            addVisibleDescendants(parent, -count);
+            // edits of the removed subtree must not reach the ancestors
+            node.mParent = null;
+        }
+    }
+
+    /**
+     * Expands a collapsed node or collapses an expanded node
+     */
+    public void toggle(@NonNull final Node<T> node) {
+        if (node.mExpanded) {
+            collapse(node);
+        } else {
+            expand(node);
+        }
+    }
+
+    /**
+     * adds the visible descendants of {@code node} in depth-first order
+     */
+    private void collectVisibleDescendants(final Node<T> node, final List<Node<T>> result) {
+        if (!node.mExpanded) {
+            return;
+        }
+        for (final Node<T> child : node.mChildren) {
+            result.add(child);
+            collectVisibleDescendants(child, result);
+        }
+    }
+
+    /**
+     * @return position after the last visible descendant of the expanded and visible
+     * {@code node} or -1 when children of {@code node} are not visible
+     */
+    private int endOfSubtree(final Node<T> node) {
+        if (node == mRoot) {
+            return mRoot.mVisibleDescendants;
+        }
+        final RankedTree.Entry<Node<T>> entry = node.mEntry;
+        if (entry == null || !node.mExpanded) {
+            return -1;
+        }
+        return mVisible.indexOf(entry) + 1 + node.mVisibleDescendants;
+    }
+
+    private void insertVisible(final int position, final List<Node<T>> nodes) {
+        final List<RankedTree.Entry<Node<T>>> entries = new ArrayList<>(nodes.size());
+        mVisible.insertAll(position, nodes, entries);
+        for (final RankedTree.Entry<Node<T>> entry : entries) {
+            entry.value.mEntry = entry;
+        }
+    }
+
+    /**
+     * adds {@code delta} to the visible descendants of the expanded {@code node} and all its
+     * expanded ancestors
+     */
+    private void addVisibleDescendants(final Node<T> node, final int delta) {
+        Node<T> current = node;
+        while (current != null && current.mExpanded) {
+            current.mVisibleDescendants += delta;
+            current = current.mParent;
+        }
+    }
+}
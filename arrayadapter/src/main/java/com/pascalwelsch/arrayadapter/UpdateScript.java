@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2017 Pascal Welsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pascalwelsch.arrayadapter;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v7.util.ListUpdateCallback;
+
+import java.util.Arrays;
+
+/**
+ * Compact recording of list update operations (insert, remove, move, change) in the order they
+ * were dispatched. A script can be replayed to other {@link ListUpdateCallback}s or reverted by
+ * dispatching the inverse operations in reverse order.
+ * <p>
+ * Only the library records scripts. A published script is read-only, it is shared by all
+ * receivers and can only be replayed.
+ */
+public final class UpdateScript {
+
+    static final int CHANGE = 3;
+
+    static final int INSERT = 0;
+
+    static final int MOVE = 2;
+
+    static final int REMOVE = 1;
+
+    /**
+     * fields per operation: type, position/from, count/to
+     */
+    private static final int STRIDE = 3;
+
+    private int mCount;
+
+    /**
+     * records the operations dispatched by a {@link android.support.v7.util.DiffUtil.DiffResult}
+     */
+    private final ListUpdateCallback mRecorder = new ListUpdateCallback() {
+        @Override
+        public void onChanged(final int position, final int count, final Object payload) {
+            UpdateScript.this.onChanged(position, count, payload);
+        }
+
+        @Override
+        public void onInserted(final int position, final int count) {
+            UpdateScript.this.onInserted(position, count);
+        }
+
+        @Override
+        public void onMoved(final int fromPosition, final int toPosition) {
+            UpdateScript.this.onMoved(fromPosition, toPosition);
+        }
+
+        @Override
+        public void onRemoved(final int position, final int count) {
+            UpdateScript.this.onRemoved(position, count);
+        }
+    };
+
+    /**
+     * {@link #STRIDE} ints per operation
+     */
+    private int[] mOps = new int[STRIDE * 4];
+
+    /**
+     * payloads of {@link #CHANGE} operations by operation index, {@code null} until the first
+     * non-null payload is recorded
+     */
+    @Nullable
+    private Object[] mPayloads;
+
+    /**
+     * removes all recorded operations
+     */
+    void clear() {
+        if (mPayloads != null) {
+            Arrays.fill(mPayloads, 0, mCount, null);
+        }
+        mCount = 0;
+    }
+
+    /**
+     * @return a trimmed copy of this script
+     */
+    @NonNull
+    UpdateScript copy() {
+        final UpdateScript copy = new UpdateScript();
+        copy.mOps = Arrays.copyOf(mOps, mCount * STRIDE);
+        copy.mCount = mCount;
+        if (mPayloads != null) {
+            copy.mPayloads = Arrays.copyOf(mPayloads, mCount);
+        }
+        return copy;
+    }
+
+    /**
+     * replays the recorded operations in order
+     */
+    public void dispatchTo(@NonNull final ListUpdateCallback callback) {
+        for (int i = 0; i < mCount; i++) {
+            final int type = mOps[i * STRIDE];
+            final int a = mOps[i * STRIDE + 1];
+            final int b = mOps[i * STRIDE + 2];
+            switch (type) {
+                case INSERT:
+                    callback.onInserted(a, b);
+                    break;
+                case REMOVE:
+                    callback.onRemoved(a, b);
+                    break;
+                case MOVE:
+                    callback.onMoved(a, b);
+                    break;
+                case CHANGE:
+                    callback.onChanged(a, b, mPayloads != null ? mPayloads[i] : null);
+                    break;
+                default:
+                    throw new IllegalStateException("unknown operation " + type);
+            }
+        }
+    }
+
+    /**
+     * dispatches the operations reverting this script, last operation first. Changes are
+     * dispatched without payload because the payload describes the forward change.
+     */
+    public void dispatchInverseTo(@NonNull final ListUpdateCallback callback) {
+        for (int i = mCount - 1; i >= 0; i--) {
+            final int type = mOps[i * STRIDE];
+            final int a = mOps[i * STRIDE + 1];
+            final int b = mOps[i * STRIDE + 2];
+            switch (type) {
+                case INSERT:
+                    callback.onRemoved(a, b);
+                    break;
+                case REMOVE:
+                    callback.onInserted(a, b);
+                    break;
+                case MOVE:
+                    callback.onMoved(b, a);
+                    break;
+                case CHANGE:
+                    callback.onChanged(a, b, null);
+                    break;
+                default:
+                    throw new IllegalStateException("unknown operation " + type);
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return mCount == 0;
+    }
+
+    void onChanged(final int position, final int count, @Nullable final Object payload) {
+        add(CHANGE, position, count);
+        if (payload != null) {
+            if (mPayloads == null) {
+                mPayloads = new Object[mOps.length / STRIDE];
+            }
+            mPayloads[mCount - 1] = payload;
+        }
+    }
+
+    void onInserted(final int position, final int count) {
+        add(INSERT, position, count);
+    }
+
+    void onMoved(final int fromPosition, final int toPosition) {
+        add(MOVE, fromPosition, toPosition);
+    }
+
+    void onRemoved(final int position, final int count) {
+        add(REMOVE, position, count);
+    }
+
+    /**
+     * @return a callback recording the operations dispatched to it into this script
+     */
+    @NonNull
+    ListUpdateCallback recorder() {
+        return mRecorder;
+    }
+
+    /**
+     * @return number of recorded operations
+     */
+    public int size() {
+        return mCount;
+    }
+
+    private void add(final int type, final int a, final int b) {
+        final int index = mCount * STRIDE;
+        if (index + STRIDE > mOps.length) {
+            mOps = Arrays.copyOf(mOps, mOps.length * 2);
+            if (mPayloads != null) {
+                mPayloads = Arrays.copyOf(mPayloads, mOps.length / STRIDE);
+            }
+        }
+        mOps[index] = type;
+        mOps[index + 1] = a;
+        mOps[index + 2] = b;
+        mCount++;
+    }
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright (C) 2017 Pascal Welsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pascalwelsch.arrayadapter;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.support.annotation.NonNull;
+import android.support.v7.widget.RecyclerView;
+import android.view.ViewGroup;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.assertj.core.api.Java6Assertions.fail;
+
+/**
+ * Runs the slices of {@link IncrementalDiff} with a queue instead of the main thread and checks
+ * the applied items, the dispatched notifications and the steps of the slices. The slice latency
+ * with the system clock is reported by a benchmark.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 25)
+public class IncrementalDiffTest {
+
+    /**
+     * items are "id:version", the id is the part before the colon
+     */
+    private static class TestAdapter extends ArrayAdapter<String, RecyclerView.ViewHolder> {
+
+        @Override
+        public Object getItemId(@NonNull final String item) {
+            return item.substring(0, item.indexOf(':'));
+        }
+
+        @Override
+        public void onBindViewHolder(final RecyclerView.ViewHolder holder, final int position) {
+
+        }
+
+        @Override
+        public RecyclerView.ViewHolder onCreateViewHolder(final ViewGroup parent,
+                final int viewType) {
+            return null;
+        }
+    }
+
+    /**
+     * applies the notifications to a copy of the items, notified positions are {@code null}
+     */
+    private static class MirrorObserver extends RecyclerView.AdapterDataObserver {
+
+        final List<String> mirror;
+
+        MirrorObserver(@NonNull final List<String> items) {
+            mirror = new ArrayList<>(items);
+        }
+
+        @Override
+        public void onItemRangeChanged(final int positionStart, final int itemCount,
+                final Object payload) {
+            for (int i = positionStart; i < positionStart + itemCount; i++) {
+                mirror.set(i, null);
+            }
+        }
+
+        @Override
+        public void onItemRangeChanged(final int positionStart, final int itemCount) {
+            onItemRangeChanged(positionStart, itemCount, null);
+        }
+
+        @Override
+        public void onItemRangeInserted(final int positionStart, final int itemCount) {
+            mirror.addAll(positionStart, Collections.<String>nCopies(itemCount, null));
+        }
+
+        @Override
+        public void onItemRangeMoved(final int fromPosition, final int toPosition,
+                final int itemCount) {
+            assertThat(itemCount).isEqualTo(1);
+            mirror.add(toPosition, mirror.remove(fromPosition));
+        }
+
+        @Override
+        public void onItemRangeRemoved(final int positionStart, final int itemCount) {
+            mirror.subList(positionStart, positionStart + itemCount).clear();
+        }
+
+        void assertReconstructs(@NonNull final List<String> items) {
+            assertThat(mirror).hasSize(items.size());
+            for (int i = 0; i < items.size(); i++) {
+                if (mirror.get(i) != null) {
+                    assertThat(mirror.get(i)).as("item at " + i).isEqualTo(items.get(i));
+                }
+            }
+        }
+    }
+
+    private TestAdapter mAdapter;
+
+    private Random mRandom;
+
+    private final ArrayDeque<Runnable> mSlices = new ArrayDeque<>();
+
+    private final IncrementalDiff.Scheduler mScheduler = new IncrementalDiff.Scheduler() {
+        @Override
+        public void schedule(@NonNull final Runnable slice) {
+            mSlices.add(slice);
+        }
+    };
+
+    @Test
+    public void cancel() throws Exception {
+        final List<String> old = items(100);
+        mAdapter.addAll(old);
+
+        final IncrementalDiff<String> diff =
+                mAdapter.swapIncrementally(items(50), mScheduler, 0);
+        mSlices.poll().run();
+        diff.cancel();
+        runSlices();
+
+        assertThat(diff.isCancelled()).isTrue();
+        assertThat(diff.isFinished()).isFalse();
+        assertThat(mAdapter.getItems()).isEqualTo(old);
+        assertThat(mAdapter.getPendingDiff()).isNull();
+    }
+
+    @Test
+    public void cancelledWhenMutated() throws Exception {
+        mAdapter.addAll(items(100));
+
+        final IncrementalDiff<String> diff =
+                mAdapter.swapIncrementally(items(50), mScheduler, 0);
+        mSlices.poll().run();
+        mAdapter.add("new:0");
+        runSlices();
+
+        assertThat(diff.isCancelled()).isTrue();
+        assertThat(mAdapter.getItemCount()).isEqualTo(101);
+        // the outdated diff isn't kept alive by the adapter
+        assertThat(mAdapter.getPendingDiff()).isNull();
+    }
+
+    @Test
+    public void copiesNewItemsInSlices() throws Exception {
+        mAdapter.addAll(items(10));
+        mAdapter.setDuplicateIdPolicy(ArrayAdapter.DUPLICATE_IDS_REPLACE);
+        final List<String> changed = new ArrayList<>(items(1000));
+        changed.add("5:1");
+
+        final IncrementalDiff<String> diff =
+                mAdapter.swapIncrementally(changed, mScheduler, 0);
+        // nothing is copied before the first slice
+        assertThat(diff.getDroppedDuplicates()).isEqualTo(0);
+        runSlices();
+
+        assertThat(diff.isFinished()).isTrue();
+        assertThat(diff.getSliceCount()).isGreaterThan(1000 / IncrementalDiff.CLOCK_INTERVAL);
+        assertThat(mAdapter.getItemCount()).isEqualTo(1000);
+        // the duplicate replaced the first item with its id
+        assertThat(mAdapter.getItem(5)).isEqualTo("5:1");
+        assertThat(mAdapter.getDroppedDuplicateCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void nullItemThrowsFromSlice() throws Exception {
+        final List<String> old = items(10);
+        mAdapter.addAll(old);
+        final List<String> changed = new ArrayList<>(items(5));
+        changed.add(null);
+
+        mAdapter.swapIncrementally(changed, mScheduler, 0);
+        try {
+            runSlices();
+            fail("did not throw");
+        } catch (IllegalStateException e) {
+            assertThat(e).hasMessageContaining("null");
+            assertThat(mAdapter.getItems()).isEqualTo(old);
+            assertThat(mAdapter.getPendingDiff()).isNull();
+        }
+    }
+
+    @Test
+    public void maxSliceSteps() throws Exception {
+        final List<String> old = items(100000);
+        mAdapter.addAll(old);
+        final List<String> changed = largeChange(old);
+
+        final IncrementalDiff<String> diff = mAdapter.swapIncrementally(changed, mScheduler,
+                IncrementalDiff.DEFAULT_SLICE_NANOS);
+        // every read of the clock advances a quarter of the slice, independent of the test JVM
+        diff.setClock(new IncrementalDiff.Clock() {
+            private long mNanos;
+
+            @Override
+            public long nanoTime() {
+                mNanos += IncrementalDiff.DEFAULT_SLICE_NANOS / 4;
+                return mNanos;
+            }
+        });
+        runSlices();
+
+        assertThat(diff.isFinished()).isTrue();
+        assertThat(mAdapter.getItems()).isEqualTo(changed);
+        assertThat(diff.getSliceCount()).isGreaterThan(1);
+        // the deadline is reached with the fourth read of the clock after the start
+        assertThat(diff.getMaxSliceSteps()).isEqualTo(4 * IncrementalDiff.CLOCK_INTERVAL);
+    }
+
+    /**
+     * Benchmark of the real slice latency with the system clock. It only reports the latency, a
+     * GC pause or the JIT of the test JVM can exceed the budget of a slice.
+     */
+    @Test
+    public void sliceLatencyBenchmark() throws Exception {
+        final List<String> old = items(100000);
+        final List<String> changed = largeChange(old);
+        long maxSliceNanos = 0;
+        int slices = 0;
+        // the first rounds warm up the JIT
+        for (int round = 0; round < 3; round++) {
+            final TestAdapter adapter = new TestAdapter();
+            adapter.addAll(old);
+            final IncrementalDiff<String> diff = adapter.swapIncrementally(changed, mScheduler,
+                    IncrementalDiff.DEFAULT_SLICE_NANOS);
+            runSlices();
+            assertThat(diff.isFinished()).isTrue();
+            maxSliceNanos = diff.getMaxSliceNanos();
+            slices = diff.getSliceCount();
+        }
+
+        assertThat(maxSliceNanos).isPositive();
+        System.out.println(String.format(Locale.US,
+                "incremental diff of 100000 items: %d slices, max slice %.1fms (budget %.1fms)",
+                slices, maxSliceNanos / 1e6, IncrementalDiff.DEFAULT_SLICE_NANOS / 1e6));
+    }
+
+    @Test
+    public void randomSwaps() throws Exception {
+        for (int i = 0; i < 500; i++) {
+            final List<String> old = new ArrayList<>(mAdapter.getItems());
+            final List<String> changed = new ArrayList<>(old);
+            final int edits = mRandom.nextInt(20);
+            for (int e = 0; e < edits; e++) {
+                edit(changed);
+            }
+            final MirrorObserver observer = new MirrorObserver(old);
+            mAdapter.registerAdapterDataObserver(observer);
+
+            final IncrementalDiff<String> diff =
+                    mAdapter.swapIncrementally(changed, mScheduler, 0);
+            while (!mSlices.isEmpty()) {
+                // the old items stay visible until the diff is finished
+                assertThat(mAdapter.getItems()).isEqualTo(old);
+                mSlices.poll().run();
+            }
+
+            assertThat(diff.isFinished()).isTrue();
+            assertThat(mAdapter.getItems()).isEqualTo(changed);
+            observer.assertReconstructs(changed);
+            mAdapter.unregisterAdapterDataObserver(observer);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mRandom = new Random(42);
+        mAdapter = new TestAdapter();
+    }
+
+    @Test
+    public void startingAnotherSwapCancels() throws Exception {
+        mAdapter.addAll(items(100));
+
+        final IncrementalDiff<String> first =
+                mAdapter.swapIncrementally(items(50), mScheduler, 0);
+        final List<String> second = items(20);
+        mAdapter.swapIncrementally(second, mScheduler, 0);
+        runSlices();
+
+        assertThat(first.isCancelled()).isTrue();
+        assertThat(mAdapter.getItems()).isEqualTo(second);
+    }
+
+    /**
+     * applies a random insert, remove, change or move
+     */
+    private void edit(@NonNull final List<String> items) {
+        final int op = items.isEmpty() ? 0 : mRandom.nextInt(4);
+        final int position = items.isEmpty() ? 0 : mRandom.nextInt(items.size());
+        switch (op) {
+            case 0:
+                items.add(position, mRandom.nextInt(200) + ":0");
+                break;
+            case 1:
+                items.remove(position);
+                break;
+            case 2: {
+                final String item = items.get(position);
+                items.set(position, item.substring(0, item.indexOf(':')) + ":"
+                        + mRandom.nextInt(3));
+                break;
+            }
+            default:
+                items.add(mRandom.nextInt(items.size()), items.remove(position));
+                break;
+        }
+    }
+
+    @NonNull
+    /**
+     * @return {@code old} with shuffled, changed and removed items
+     */
+    private List<String> largeChange(@NonNull final List<String> old) {
+        final List<String> changed = new ArrayList<>(old);
+        Collections.shuffle(changed.subList(0, 1000), mRandom);
+        for (int i = 0; i < changed.size(); i += 10) {
+            changed.set(i, i + ":1");
+        }
+        changed.subList(50000, 60000).clear();
+        return changed;
+    }
+
+    private static List<String> items(final int count) {
+        final List<String> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            items.add(i + ":0");
+        }
+        return items;
+    }
+
+    private void runSlices() {
+        while (!mSlices.isEmpty()) {
+            mSlices.poll().run();
+        }
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright (C) 2017 Pascal Welsch
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.pascalwelsch.arrayadapter;
+
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v7.widget.RecyclerView;
+import android.view.ViewGroup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.assertj.core.api.Java6Assertions.fail;
+
+/**
+ * Replays randomized mutations against an {@link ArrayAdapter} on the JVM and checks the
+ * dispatched notifications, not only the resulting items:
+ * <ul>
+ * <li>applying the notifications to the previous items must reconstruct the new items, every
+ * position which wasn't notified must still show the same item with the same content</li>
+ * <li>the number of events and the number of notified items per mutation stay below an upper
+ * bound. Every event costs layout and bind work in the {@link RecyclerView}, exceeding a bound
+ * is a performance regression.</li>
+ * </ul>
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 25)
+public class NotificationEfficiencyTest {
+
+    private static class Item {
+
+        final int id;
+
+        final int version;
+
+        Item(final int id, final int version) {
+            this.id = id;
+            this.version = version;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Item)) {
+                return false;
+            }
+            final Item item = (Item) o;
+            return id == item.id && version == item.version;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * id + version;
+        }
+
+        @Override
+        public String toString() {
+            return id + "v" + version;
+        }
+    }
+
+    private static class ItemAdapter extends ArrayAdapter<Item, RecyclerView.ViewHolder> {
+
+        @Nullable
+        @Override
+        public Object getItemId(@NonNull final Item item) {
+            return item.id;
+        }
+
+        @Override
+        public void onBindViewHolder(final RecyclerView.ViewHolder holder, final int position) {
+
+        }
+
+        @Override
+        public RecyclerView.ViewHolder onCreateViewHolder(final ViewGroup parent,
+                final int viewType) {
+            return null;
+        }
+    }
+
+    /**
+     * Applies the notifications to a copy of the previous items like a {@link RecyclerView}
+     * does. Inserted and changed positions are marked as {@link #STALE}, they are bound again.
+     */
+    private static class RecordingObserver extends RecyclerView.AdapterDataObserver {
+
+        private static final Object STALE = new Object();
+
+        int events;
+
+        int notifiedItems;
+
+        private final List<Object> mMirror = new ArrayList<>();
+
+        @Override
+        public void onChanged() {
+            fail("full data set change instead of granular notifications");
+        }
+
+        @Override
+        public void onItemRangeChanged(final int positionStart, final int itemCount,
+                final Object payload) {
+            record(itemCount);
+            checkRange(positionStart, itemCount);
+            for (int i = positionStart; i < positionStart + itemCount; i++) {
+                mMirror.set(i, STALE);
+            }
+        }
+
+        @Override
+        public void onItemRangeChanged(final int positionStart, final int itemCount) {
+            onItemRangeChanged(positionStart, itemCount, null);
+        }
+
+        @Override
+        public void onItemRangeInserted(final int positionStart, final int itemCount) {
+            record(itemCount);
+            assertThat(positionStart).isBetween(0, mMirror.size());
+            mMirror.addAll(positionStart, Collections.nCopies(itemCount, STALE));
+        }
+
+        @Override
+        public void onItemRangeMoved(final int fromPosition, final int toPosition,
+                final int itemCount) {
+            record(itemCount);
+            // RecyclerView only supports moving single items
+            assertThat(itemCount).isEqualTo(1);
+            checkRange(fromPosition, 1);
+            checkRange(toPosition, 1);
+            mMirror.add(toPosition, mMirror.remove(fromPosition));
+        }
+
+        @Override
+        public void onItemRangeRemoved(final int positionStart, final int itemCount) {
+            record(itemCount);
+            checkRange(positionStart, itemCount);
+            mMirror.subList(positionStart, positionStart + itemCount).clear();
+        }
+
+        void assertReconstructs(@NonNull final ItemAdapter adapter, @NonNull final String op) {
+            final List<Item> items = adapter.getItems();
+            assertThat(mMirror.size()).as(op + ": size").isEqualTo(items.size());
+            for (int i = 0; i < items.size(); i++) {
+                final Object shown = mMirror.get(i);
+                if (shown != STALE) {
+                    // not notified, the view still shows the old item
+                    assertThat(shown).as(op + ": item at " + i).isEqualTo(items.get(i));
+                }
+            }
+        }
+
+        void reset(@NonNull final List<Item> items) {
+            mMirror.clear();
+            mMirror.addAll(items);
+            events = 0;
+            notifiedItems = 0;
+        }
+
+        private void checkRange(final int positionStart, final int itemCount) {
+            assertThat(positionStart).isGreaterThanOrEqualTo(0);
+            assertThat(positionStart + itemCount).isLessThanOrEqualTo(mMirror.size());
+        }
+
+        private void record(final int itemCount) {
+            events++;
+            notifiedItems += itemCount;
+        }
+    }
+
+    private ItemAdapter mAdapter;
+
+    private int mNextId;
+
+    private RecordingObserver mObserver;
+
+    private Random mRandom;
+
+    @Test
+    public void randomMutations() throws Exception {
+        for (int i = 0; i < 3000; i++) {
+            mutate();
+        }
+    }
+
+    @Test
+    public void randomMutationsWithUniqueIdsAndSelection() throws Exception {
+        mAdapter.setDuplicateIdPolicy(ArrayAdapter.DUPLICATE_IDS_SKIP);
+        for (int i = 0; i < 3000; i++) {
+            if (mRandom.nextInt(20) == 0 && mAdapter.getItemCount() > 0) {
+                mObserver.reset(mAdapter.getItems());
+                mAdapter.selectAll();
+                check("selectAll", 1, mAdapter.getItemCount());
+            }
+            if (mRandom.nextInt(10) == 0 && mAdapter.getItemCount() > 1) {
+                // overlapping page, the known items are skipped
+                final List<Item> page = newItems(3);
+                page.add(0, mAdapter.getItems().get(mAdapter.getItemCount() - 1));
+                page.add(0, mAdapter.getItems().get(mAdapter.getItemCount() - 2));
+                mObserver.reset(mAdapter.getItems());
+                mAdapter.addAll(page);
+                check("addAll overlapping", 1, 3);
+            }
+            mutate();
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mRandom = new Random(42);
+        mAdapter = new ItemAdapter();
+        mObserver = new RecordingObserver();
+        mAdapter.registerAdapterDataObserver(mObserver);
+        mAdapter.addAll(newItems(50));
+    }
+
+    private void check(@NonNull final String op, final int maxEvents, final int maxItems) {
+        mObserver.assertReconstructs(mAdapter, op);
+        assertThat(mObserver.events).as(op + ": events").isLessThanOrEqualTo(maxEvents);
+        assertThat(mObserver.notifiedItems).as(op + ": notified items")
+                .isLessThanOrEqualTo(maxItems);
+    }
+
+    /**
+     * runs a random mutation and checks its notifications against the bounds of the mutation
+     */
+    private void mutate() {
+        final int size = mAdapter.getItemCount();
+        final int count = 1 + mRandom.nextInt(5);
+        mObserver.reset(mAdapter.getItems());
+        switch (mRandom.nextInt(size < 10 ? 4 : 11)) {
+            case 0:
+                mAdapter.add(new Item(mNextId++, 0));
+                check("add", 1, 1);
+                break;
+            case 1:
+                mAdapter.addAll(newItems(count));
+                check("addAll", 1, count);
+                break;
+            case 2:
+                mAdapter.insert(new Item(mNextId++, 0), mRandom.nextInt(size + 1));
+                check("insert", 1, 1);
+                break;
+            case 3:
+                mAdapter.insertAll(mRandom.nextInt(size + 1), newItems(count));
+                check("insertAll", 1, count);
+                break;
+            case 4:
+                mAdapter.remove(mAdapter.getItems().get(mRandom.nextInt(size)));
+                check("remove", 1, 1);
+                break;
+            case 5: {
+                final int from = mRandom.nextInt(size - count);
+                mAdapter.removeRange(from, from + count);
+                check("removeRange", 1, count);
+                break;
+            }
+            case 6: {
+                final Item item = mAdapter.getItems().get(mRandom.nextInt(size));
+                mAdapter.replaceItem(item, new Item(item.id, item.version + 1));
+                check("replaceItem", 1, 1);
+                break;
+            }
+            case 7:
+                mAdapter.move(mRandom.nextInt(size), mRandom.nextInt(size));
+                check("move", 1, 1);
+                break;
+            case 8:
+                mAdapter.moveAll(mRandom.nextInt(size - count), count,
+                        mRandom.nextInt(size - count));
+                check("moveAll", count, count);
+                break;
+            case 9: {
+                final int from = mRandom.nextInt(size - count);
+                final List<Item> replacement = newItems(mRandom.nextInt(count));
+                mAdapter.replaceRange(from, from + count, replacement);
+                check("replaceRange", count + replacement.size(), count + replacement.size());
+                break;
+            }
+            default: {
+                // every edit adds at most one insert and one remove, a moved item is both
+                final List<Item> items = new ArrayList<>(mAdapter.getItems());
+                for (int i = 0; i < count; i++) {
+                    editRandomly(items);
+                }
+                mAdapter.swap(items);
+                check("swap", 2 * count, 2 * count);
+                break;
+            }
+        }
+    }
+
+    /**
+     * applies one random edit, changes the list by at most one insert and one remove
+     */
+    private void editRandomly(@NonNull final List<Item> items) {
+        final int position = mRandom.nextInt(items.size());
+        switch (mRandom.nextInt(4)) {
+            case 0:
+                items.add(position, new Item(mNextId++, 0));
+                break;
+            case 1:
+                items.remove(position);
+                break;
+            case 2: {
+                final Item item = items.get(position);
+                items.set(position, new Item(item.id, item.version + 1));
+                break;
+            }
+            default:
+                items.add(mRandom.nextInt(items.size()), items.remove(position));
+                break;
+        }
+    }
+
+    @NonNull
+    private List<Item> newItems(final int count) {
+        final List<Item> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            items.add(new Item(mNextId++, 0));
+        }
+        return items;
+    }
+}